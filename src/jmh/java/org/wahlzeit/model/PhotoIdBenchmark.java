@@ -0,0 +1,100 @@
+package org.wahlzeit.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro benchmark of the conversions between photo ids and their strings. getFromIntWithStringBuffer and
+ * getIdFromStringWithOldParse are the former encoding and parsing, kept as baselines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhotoIdBenchmark {
+
+	private int id;
+	private String idAsString;
+	private PhotoId photoId;
+	private char[] buffer;
+
+	@Setup
+	public void setup() {
+		PhotoId.setCurrentIdFromInt(100000);
+		id = 54321;
+		idAsString = PhotoId.getFromInt(id);
+		photoId = PhotoId.getIdFromInt(id);
+		buffer = new char[PhotoId.MAX_STRING_LENGTH];
+	}
+
+	@Benchmark
+	public String getFromIntWithStringBuffer() {
+		int value = id + PhotoId.ID_START;
+		StringBuffer result = new StringBuffer(10);
+		for (; value > 0; value = value / 36) {
+			int modulus = value % 36;
+			result.insert(0, (char) ((modulus < 10) ? '0' + modulus : 'a' - 10 + modulus));
+		}
+		return "x" + result.toString();
+	}
+
+	@Benchmark
+	public String getFromInt() {
+		return PhotoId.getFromInt(id);
+	}
+
+	@Benchmark
+	public String getFromIntWithBuffer() {
+		return PhotoId.getFromInt(id, buffer);
+	}
+
+	@Benchmark
+	public String asString() {
+		return photoId.asString();
+	}
+
+	@Benchmark
+	public int getFromString() {
+		return PhotoId.getFromString(idAsString);
+	}
+
+	@Benchmark
+	public PhotoId getIdFromString() {
+		return PhotoId.getIdFromString(idAsString);
+	}
+
+	@Benchmark
+	public PhotoId getIdFromStringWithOldParse() {
+		int result = 0;
+		for (int i = 1; i < idAsString.length(); i++) {
+			int temp = 0;
+			char letterOrDigit = idAsString.charAt(i);
+			if (letterOrDigit < 'a') {
+				temp = (int) letterOrDigit - '0';
+			} else {
+				temp = 10 + (int) letterOrDigit - 'a';
+			}
+			result = result * 36 + temp;
+		}
+
+		result -= PhotoId.ID_START;
+		if (result < 0) {
+			result = 0;
+		}
+
+		return PhotoId.getIdFromInt(result);
+	}
+
+}
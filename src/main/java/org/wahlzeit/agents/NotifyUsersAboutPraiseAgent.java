@@ -1,6 +1,7 @@
 package org.wahlzeit.agents;
 
 import com.google.apphosting.api.ApiProxy;
+import org.wahlzeit.model.Client;
 import org.wahlzeit.model.LanguageConfigs;
 import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
@@ -66,18 +67,21 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 		log.config(LogBuilder.createSystemMessage().addAction("notify owner")
 				.addParameter("number of user to notify", ownerIdPhotosMap.size()).toString());
 
+		Map<String, Client> owners = UserManager.getInstance().getClientsByIds(ownerIdPhotosMap.keySet());
 		for (String ownerId : ownerIdPhotosMap.keySet()) {
-			notifyOwner(ownerId, ownerIdPhotosMap.get(ownerId));
+			Client owner = owners.get(ownerId);
+			if (owner instanceof User) {
+				notifyOwner((User) owner, ownerIdPhotosMap.get(ownerId));
+			}
 		}
 	}
 
 	/**
-	 * @methotype command
+	 * @methodtype command
 	 * 
 	 * Actually notifies one user about the praise of his/her photos.
 	 */
-	protected void notifyOwner(String ownerId, Collection<Photo> allPhotosOfUser) {
-		User owner = UserManager.getInstance().getUserById(ownerId);
+	protected void notifyOwner(User owner, Collection<Photo> allPhotosOfUser) {
 		ModelConfig cfg = LanguageConfigs.get(owner.getLanguage());
 
 		EmailAddress from = cfg.getAdministratorEmailAddress();
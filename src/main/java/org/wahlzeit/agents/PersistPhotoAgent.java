@@ -3,6 +3,7 @@ package org.wahlzeit.agents;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.WriteBehindBuffer;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -34,6 +35,7 @@ public class PersistPhotoAgent extends HttpServlet {
 			Photo photo = PhotoManager.getInstance().getPhoto(id);
 			if (photo != null) {
 				PhotoManager.getInstance().savePhoto(photo);
+				WriteBehindBuffer.getInstance().flush();
 				log.config(LogBuilder.createSystemMessage().addMessage("Photo saved.").toString());
 			} else {
 				response.setStatus(299);
@@ -118,4 +118,11 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 		// do nothing by default
 	}
 
+	/**
+	 * Pages are not cached by default.
+	 */
+	public String getPageCacheVariant(UserSession us) {
+		return null;
+	}
+
 }
@@ -33,10 +33,13 @@ import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.WebPartCache;
 import org.wahlzeit.webparts.WebPartTemplate;
 import org.wahlzeit.webparts.WebPartTemplateService;
+import org.wahlzeit.webparts.Writable;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -79,6 +82,55 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 		return new WebPart(tmpl);
 	}
 
+	/**
+	 * Returns the template without values, rendered once per language and then replayed from the WebPartCache.
+	 *
+	 * @methodtype factory
+	 */
+	protected final Writable createCachedWebPart(UserSession us, String name) {
+		return getCachedWebPart(createWebPart(us, name), "");
+	}
+
+	/**
+	 * Returns the part rendered from the WebPartCache, rendering and caching it if necessary. The variant must
+	 * identify everything the part depends on apart from template and language, e.g. ids and versions of model
+	 * objects, and must not depend on the user.
+	 *
+	 * @methodtype factory
+	 */
+	protected final Writable getCachedWebPart(WebPart part, String variant) {
+		WebPartTemplate tmpl = part.getTemplate();
+		if (tmpl == null) {
+			return part;
+		}
+
+		WebPartCache cache = WebPartCache.getInstance();
+		Writable result = cache.get(tmpl, variant);
+		if (result == null) {
+			try {
+				result = cache.put(tmpl, variant, part);
+			} catch (IOException ioex) {
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("template name", tmpl.getName()).
+						addException("Problem rendering cached part", ioex).toString());
+				result = part;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the part from the WebPartCache, or null if it has not been rendered for the variant yet, so that the
+	 * values of the part only need to be computed on a miss.
+	 *
+	 * @methodtype get
+	 */
+	protected final Writable findCachedWebPart(UserSession us, String name, String variant) {
+		WebPartTemplateService wpts = WebPartTemplateService.getInstance();
+		WebPartTemplate tmpl = wpts.getTemplate(us.getClient().getLanguageConfiguration().getLanguageCode(), name);
+		return (tmpl == null) ? null : WebPartCache.getInstance().get(tmpl, variant);
+	}
+
 	/**
 	 *
 	 */
@@ -25,6 +25,7 @@ import org.wahlzeit.model.Client;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.StringUtil;
@@ -83,6 +84,10 @@ public class PraisePhotoFormHandler extends AbstractWebFormHandler {
 				int value = Integer.parseInt(praise);
 				photo.addToPraise(value);
 				client.addPraisedPhotoId(photo.getId());
+				if (client.isEphemeral()) {
+					// the praise is kept in the guest's history, so the guest needs to be persisted from now on
+					UserManager.getInstance().persistClient(client);
+				}
 				us.addProcessedPhoto(photo);
 				wasPraised = true;
 			}
@@ -47,7 +47,14 @@ public class ShowInfoPageHandler extends AbstractWebPageHandler {
 	 *
 	 */
 	protected void makeWebPageBody(UserSession us, WebPart page) {
-		page.addWritable("info", createWebPart(us, infoTmplName));
+		page.addWritable("info", createCachedWebPart(us, infoTmplName));
+	}
+
+	/**
+	 * Info pages show no model objects.
+	 */
+	public String getPageCacheVariant(UserSession us) {
+		return "";
 	}
 
 }
@@ -28,6 +28,8 @@ import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.Tags;
+import org.wahlzeit.model.User;
+import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.webparts.WebPart;
@@ -128,14 +130,14 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		if (lastPraisedPhoto != null) {
 			parts.append(makePriorPhotoInfo(us, lastPraisedPhoto));
 		} else {
-			parts.append(createWebPart(us, PartUtil.BLURP_INFO_FILE));
+			parts.append(createCachedWebPart(us, PartUtil.BLURP_INFO_FILE));
 		}
 
 		WebFormHandler handler = getFormHandler(PartUtil.FILTER_PHOTOS_FORM_NAME);
 		Writable filterPhotos = handler.makeWebPart(us);
 		parts.append(filterPhotos);
 
-		parts.append(createWebPart(us, PartUtil.LINKS_INFO_FILE));
+		parts.append(createCachedWebPart(us, PartUtil.LINKS_INFO_FILE));
 
 		page.addWritable("sidebar", parts);
 	}
@@ -213,16 +215,47 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 
 
 	/**
-	 *
+	 * The page of a photo is the same for all clients that have not praised a photo or filtered the photos yet.
 	 */
-	protected WebPart makePriorPhotoInfo(UserSession us, Photo lastPraisedPhoto) {
-		WebPart result = createWebPart(us, PartUtil.PHOTO_INFO_FILE);
+	public String getPageCacheVariant(UserSession us) {
+		Photo photo = PhotoManager.getInstance().getPhoto(us.getPhotoId());
+		if (photo == null) {
+			return null;
+		}
 
-		result.addString(Photo.PRAISE, lastPraisedPhoto.getPraiseAsString(us.getClient().getLanguageConfiguration()));
-		result.addString(Photo.THUMB, getPhotoThumb(us, lastPraisedPhoto));
-		result.addString(Photo.CAPTION, getPhotoCaption(us, lastPraisedPhoto));
+		if (us.getClient().getLastPraisedPhoto() != null || !us.getPhotoFilter().getFilterConditions().isEmpty()) {
+			return null;
+		}
 
-		return result;
+		return asPhotoVariant(photo);
+	}
+
+	/**
+	 * The values are only computed if the part is not in the WebPartCache yet.
+	 */
+	protected Writable makePriorPhotoInfo(UserSession us, Photo lastPraisedPhoto) {
+		String variant = asPhotoVariant(lastPraisedPhoto);
+		Writable result = findCachedWebPart(us, PartUtil.PHOTO_INFO_FILE, variant);
+		if (result != null) {
+			return result;
+		}
+
+		WebPart part = createWebPart(us, PartUtil.PHOTO_INFO_FILE);
+		part.addString(Photo.PRAISE, lastPraisedPhoto.getPraiseAsString(us.getClient().getLanguageConfiguration()));
+		part.addString(Photo.THUMB, getPhotoThumb(us, lastPraisedPhoto));
+		part.addString(Photo.CAPTION, getPhotoCaption(us, lastPraisedPhoto));
+
+		return getCachedWebPart(part, variant);
+	}
+
+	/**
+	 * The caption of a photo shows the owner's nickname, so the variant includes the owner's version.
+	 *
+	 * @methodtype conversion
+	 */
+	protected String asPhotoVariant(Photo photo) {
+		User owner = UserManager.getInstance().getUserById(photo.getOwnerId());
+		return photo.getId().asString() + "@" + photo.getVersion() + "/" + ((owner == null) ? 0 : owner.getVersion());
 	}
 
 	/**
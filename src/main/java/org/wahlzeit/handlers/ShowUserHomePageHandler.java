@@ -22,6 +22,7 @@ package org.wahlzeit.handlers;
 
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
@@ -30,6 +31,10 @@ import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.Writable;
 import org.wahlzeit.webparts.WritableList;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 /**
  * A handler class for a specific web page.
  */
@@ -53,10 +58,15 @@ public class ShowUserHomePageHandler extends AbstractWebPageHandler {
 		Photo[] photos = user.getPhotos();
 		boolean wasEmpty = true;
 		if (photos.length != 0) {
-			WritableList list = new WritableList();
+			// load them from the PhotoManager to make sure the same copies are used
+			List<PhotoId> photoIds = new ArrayList<PhotoId>(photos.length);
 			for (Photo photo : photos) {
-				// load it from the PhotoManager to make sure the same copy is used
-				photo = PhotoManager.getInstance().getPhotoFromId(photo.getId());
+				photoIds.add(photo.getId());
+			}
+			Collection<Photo> managedPhotos = PhotoManager.getInstance().getPhotosFromIds(photoIds).values();
+
+			WritableList list = new WritableList();
+			for (Photo photo : managedPhotos) {
 				if (!photo.getStatus().isDeleted()) {
 					part = makeUserPhotoForm(us, photo);
 					list.append(part);
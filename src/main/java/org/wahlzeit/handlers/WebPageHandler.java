@@ -34,5 +34,12 @@ public interface WebPageHandler extends WebPartHandler {
 	 */
 	WebPart makeWebPart(UserSession us);
 
+	/**
+	 * Pages that are the same for all guests may be replayed from the WebPageCache; the variant identifies the
+	 * model state the page shows, e.g. ids and versions of model objects.
+	 *
+	 * @return the variant of the page for the WebPageCache, or null if the page must not be cached
+	 */
+	String getPageCacheVariant(UserSession us);
 
 }
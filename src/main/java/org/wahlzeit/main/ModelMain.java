@@ -24,6 +24,7 @@ import org.wahlzeit.model.*;
 import org.wahlzeit.model.persistence.DatastoreAdapter;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.WriteBehindBuffer;
 
 import java.io.File;
 import java.io.FileFilter;
@@ -46,6 +47,7 @@ public abstract class ModelMain extends AbstractMain {
 
 		log.config(LogBuilder.createSystemMessage().addAction("load image storage").toString());
 		//GcsAdapter.Builder gcsAdapterBuilder = new GcsAdapter.Builder();
+		//ImageStorage.setInstance(new FileSystemAdapter());
 		ImageStorage.setInstance(new DatastoreAdapter());
 
 		log.config(LogBuilder.createSystemMessage().addAction("load globals").toString());
@@ -79,6 +81,7 @@ public abstract class ModelMain extends AbstractMain {
 		PhotoManager.getInstance().savePhotos();
 		UserManager.getInstance().saveClients();
 		GlobalsManager.getInstance().saveGlobals();
+		WriteBehindBuffer.getInstance().flush();
 	}
 
 	/**
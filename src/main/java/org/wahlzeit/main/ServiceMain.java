@@ -20,6 +20,7 @@
 
 package org.wahlzeit.main;
 
+import com.google.appengine.api.utils.SystemProperty;
 import org.wahlzeit.handlers.*;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.EnglishModelConfig;
@@ -28,9 +29,13 @@ import org.wahlzeit.model.LanguageConfigs;
 import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.LogEventBuffer;
 import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.WriteBehindBuffer;
 import org.wahlzeit.webparts.WebPartTemplateService;
 
+import java.io.IOException;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 /**
@@ -98,6 +103,12 @@ public class ServiceMain extends ModelMain {
 		log.config(LogBuilder.createSystemMessage().addAction("Start up ModelMain").toString());
 		super.startUp(rootDir);
 
+		log.config(LogBuilder.createSystemMessage().addAction("Enable write-behind persistence").toString());
+		WriteBehindBuffer.getInstance().setEnabled(true);
+
+		log.config(LogBuilder.createSystemMessage().addAction("Configure asynchronous logging").toString());
+		configureLogEventBuffer();
+
 		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartTemplateService").toString());
 		configureWebPartTemplateService();
 
@@ -113,9 +124,33 @@ public class ServiceMain extends ModelMain {
 	/**
 	 *
 	 */
-	public void configureWebPartTemplateService() {
+	public void configureLogEventBuffer() {
+		// App Engine frontends must not run the drainer thread, so they keep logging directly
+		if (SystemProperty.environment.value() != SystemProperty.Environment.Value.Production) {
+			LogEventBuffer buffer = LogEventBuffer.getInstance();
+			buffer.startDraining(Executors.defaultThreadFactory());
+			buffer.setEnabled(true);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void configureWebPartTemplateService() throws InterruptedException {
 		ConfigDir templatesDir = SysConfig.getTemplatesDir();
-		WebPartTemplateService.getInstance().setTemplatesDir(templatesDir);
+		WebPartTemplateService templateService = WebPartTemplateService.getInstance();
+		templateService.setTemplatesDir(templatesDir);
+		templateService.preloadTemplates();
+
+		// deployed App Engine files never change
+		if (SystemProperty.environment.value() != SystemProperty.Environment.Value.Production) {
+			try {
+				templateService.startWatching();
+			} catch (IOException ex) {
+				log.warning(LogBuilder.createSystemMessage().
+						addException("Could not watch templates for changes", ex).toString());
+			}
+		}
 	}
 
 	/**
@@ -224,7 +259,12 @@ public class ServiceMain extends ModelMain {
 		//AgentManager am = AgentManager.getInstance();
 		//am.stopAllThreads();
 
+		WebPartTemplateService.getInstance().stopWatching();
+
 		super.shutDown();
+
+		LogEventBuffer.getInstance().stopDraining();
+		LogEventBuffer.getInstance().setEnabled(false);
 	}
 
 }
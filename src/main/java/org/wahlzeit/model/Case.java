@@ -21,6 +21,7 @@
 package org.wahlzeit.model;
 
 import org.wahlzeit.services.DataObject;
+import org.wahlzeit.services.IdBlockSource;
 
 /**
  * A case is a user complaint, most notably about an inappropriate photo.
@@ -33,6 +34,12 @@ public abstract class Case extends DataObject {
 	 */
 	protected static CaseId lastCaseId = CaseId.NULL_ID;
 
+	/**
+	 * Leases blocks of case ids, or null if ids are handed out locally
+	 */
+	protected static IdBlockSource caseIdSource = null;
+	protected static int lastLeasedCaseId = 0;
+
 	/**
 	 * @methodtype get
 	 */
@@ -41,16 +48,39 @@ public abstract class Case extends DataObject {
 	}
 
 	/**
+	 * Hands out the ids after the given one locally. For a single instance and for tests.
+	 *
 	 * @methodtype set
 	 */
 	public static synchronized void setLastCaseId(CaseId newId) {
 		lastCaseId = newId;
+		caseIdSource = null;
+	}
+
+	/**
+	 * @param lastExistingId the highest id that may have been handed out before
+	 * @methodtype set
+	 */
+	public static synchronized void setCaseIdSource(IdBlockSource newCaseIdSource, CaseId lastExistingId) {
+		lastCaseId = lastExistingId;
+		lastLeasedCaseId = lastExistingId.asInt();
+		caseIdSource = newCaseIdSource;
 	}
 
 	/**
+	 * Leases a new block of ids when the current one is exhausted, so that instances never hand out the same id.
+	 *
 	 * @methodtype idiom
 	 */
 	public static synchronized CaseId getNextCaseId() {
+		if ((caseIdSource != null) && (lastCaseId.asInt() >= lastLeasedCaseId)) {
+			int firstId = caseIdSource.leaseBlock(IdBlockSource.DEFAULT_BLOCK_SIZE);
+			if (firstId <= 0) {
+				throw new IllegalStateException("Leased block must start with a positive id");
+			}
+			lastCaseId = new CaseId(firstId - 1);
+			lastLeasedCaseId = firstId - 1 + IdBlockSource.DEFAULT_BLOCK_SIZE;
+		}
 		return lastCaseId = lastCaseId.getNextId();
 	}
 
@@ -21,17 +21,17 @@
 package org.wahlzeit.model;
 
 import com.google.appengine.api.datastore.Key;
+import com.googlecode.objectify.annotation.AlsoLoad;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.annotation.Serialize;
+import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
-import org.wahlzeit.services.Persistent;
 
-import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -39,7 +39,7 @@ import java.util.List;
  * administrator clients.
  */
 @Entity
-public abstract class Client implements Serializable, Persistent {
+public abstract class Client extends DataObject {
 
 	public static final String ID = "id";
 	public static final String NICK_NAME = "nickName";
@@ -63,8 +63,11 @@ public abstract class Client implements Serializable, Persistent {
 	 */
 	protected AccessRights accessRights = AccessRights.NONE;
 
+	/**
+	 * Ephemeral clients live in memory only, until they are persisted with ClientManager#persistClient
+	 */
 	@Ignore
-	protected int writeCount = 0;
+	protected transient boolean isEphemeral = false;
 
 	private String httpSessionId;
 
@@ -72,9 +75,19 @@ public abstract class Client implements Serializable, Persistent {
 
 	protected PhotoSize photoSize = PhotoSize.MEDIUM;
 
-	protected List<PhotoId> praisedPhotoIds = new ArrayList<PhotoId>();
+	/**
+	 * Stored under a new property, as clients saved before kept a list of PhotoIds in praisedPhotoIds
+	 */
+	@Serialize
+	protected PhotoIdSet praisedPhotoIdSet = new PhotoIdSet();
+
+	protected PhotoId lastPraisedPhotoId = null;
 
-	protected List<PhotoId> skippedPhotoIds = new ArrayList<PhotoId>();
+	/**
+	 * Stored under a new property, as clients saved before kept a list of PhotoIds in skippedPhotoIds
+	 */
+	@Serialize
+	protected PhotoIdSet skippedPhotoIdSet = new PhotoIdSet();
 
 
 	/**
@@ -98,6 +111,7 @@ public abstract class Client implements Serializable, Persistent {
 		if (previousClient != null) {
 			this.setLanguage(previousClient.getLanguage());
 			this.setPraisedPhotoIds(previousClient.getPraisedPhotoIds());
+			this.lastPraisedPhotoId = previousClient.lastPraisedPhotoId;
 			this.setPhotoSize(previousClient.getPhotoSize());
 		}
 
@@ -139,7 +153,7 @@ public abstract class Client implements Serializable, Persistent {
 	 * @methodtype set
 	 */
 	public void setNickName(String nickName) throws IllegalArgumentException {
-		UserManager.getInstance().changeNickname(this.nickName, nickName);
+		UserManager.getInstance().changeNickname(this, nickName);
 		this.nickName = nickName;
 		incWriteCount();
 	}
@@ -187,24 +201,17 @@ public abstract class Client implements Serializable, Persistent {
 	}
 
 	/**
-	 *
-	 */
-	public boolean isDirty() {
-		return writeCount != 0;
-	}
-
-	/**
-	 *
+	 * @methodtype boolean-query
 	 */
-	public void incWriteCount() {
-		writeCount++;
+	public boolean isEphemeral() {
+		return isEphemeral;
 	}
 
 	/**
-	 *
+	 * @methodtype set
 	 */
-	public void resetWriteCount() {
-		writeCount = 0;
+	protected void setEphemeral(boolean isEphemeral) {
+		this.isEphemeral = isEphemeral;
 	}
 
 	/**
@@ -274,69 +281,108 @@ public abstract class Client implements Serializable, Persistent {
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getPraisedPhotoIds() {
-		return praisedPhotoIds;
+	public PhotoIdSet getPraisedPhotoIds() {
+		return praisedPhotoIdSet;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setPraisedPhotoIds(List<PhotoId> praisedPhotoIds) {
-		this.praisedPhotoIds = praisedPhotoIds;
+	public void setPraisedPhotoIds(PhotoIdSet praisedPhotoIds) {
+		this.praisedPhotoIdSet = praisedPhotoIds;
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void addPraisedPhotoId(PhotoId ratedPhotoId) {
-		praisedPhotoIds.add(ratedPhotoId);
+		praisedPhotoIdSet.add(ratedPhotoId);
+		lastPraisedPhotoId = ratedPhotoId;
 		removeSkippedPhotoId(ratedPhotoId);
+		incWriteCount();
 	}
 
 	/**
+	 * Returns the most recently praised photo if it is still visible, otherwise the visible praised photo with the
+	 * highest id.
+	 *
 	 * @methodtype get
 	 */
 	public Photo getLastPraisedPhoto() {
-		int indexOfLastPraisedPhoto = praisedPhotoIds.size() - 1;
-		Photo result = null;
-		while (indexOfLastPraisedPhoto >= 0 && result == null) {
-			PhotoId lastPraisedPhotoId = praisedPhotoIds.get(indexOfLastPraisedPhoto);
-			result = PhotoManager.getInstance().getPhoto(lastPraisedPhotoId);
-			if (!result.isVisible()) {
-				result = null;
-				indexOfLastPraisedPhoto--;
+		Photo result = getVisiblePhoto(lastPraisedPhotoId);
+		if (result == null) {
+			int[] ids = praisedPhotoIdSet.toIntArray();
+			for (int i = ids.length - 1; i >= 0 && result == null; i--) {
+				result = getVisiblePhoto(PhotoId.getIdFromInt(ids[i]));
 			}
 		}
 		return result;
 	}
 
+	/**
+	 * @methodtype helper
+	 */
+	protected Photo getVisiblePhoto(PhotoId photoId) {
+		Photo result = PhotoManager.getInstance().getPhoto(photoId);
+		return (result != null && result.isVisible()) ? result : null;
+	}
+
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
-		return skippedPhotoIds;
+	public PhotoIdSet getSkippedPhotoIds() {
+		return skippedPhotoIdSet;
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
-		this.skippedPhotoIds = skippedPhotoIds;
+	public void setSkippedPhotoIds(PhotoIdSet skippedPhotoIds) {
+		this.skippedPhotoIdSet = skippedPhotoIds;
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void removeSkippedPhotoId(PhotoId skippedPhotoIdToRemove) {
-		skippedPhotoIds.remove(skippedPhotoIdToRemove);
+		skippedPhotoIdSet.remove(skippedPhotoIdToRemove);
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
+		skippedPhotoIdSet.add(skippedPhotoId);
+	}
+
+	/**
+	 * Migrates the praised photo ids of clients that were saved as a list.
+	 *
+	 * @methodtype set
+	 */
+	protected void importPraisedPhotoIds(@AlsoLoad("praisedPhotoIds") List<PhotoId> photoIds) {
+		addAll(praisedPhotoIdSet, photoIds);
+	}
+
+	/**
+	 * Migrates the skipped photo ids of clients that were saved as a list.
+	 *
+	 * @methodtype set
+	 */
+	protected void importSkippedPhotoIds(@AlsoLoad("skippedPhotoIds") List<PhotoId> photoIds) {
+		addAll(skippedPhotoIdSet, photoIds);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static void addAll(PhotoIdSet photoIdSet, List<PhotoId> photoIds) {
+		if (photoIds != null) {
+			for (PhotoId photoId : photoIds) {
+				if (photoId != null) {
+					photoIdSet.add(photoId);
+				}
+			}
 		}
 	}
 }
@@ -1,16 +1,26 @@
 package org.wahlzeit.model;
 
+import org.wahlzeit.services.EmailAddress;
+import org.wahlzeit.services.IdBlockSource;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Abstract super class for UserManager. Contains all members and methods that can be offered for all Clients.
+ *
+ * Clients are created and looked up from concurrent request threads, so the indexes by id, HTTP session id, nickname
+ * and email address are concurrent maps, which lock only a part of the map on modification. Nicknames are reserved
+ * with an atomic putIfAbsent, so two clients can never get the same nickname.
  * 
  * @review
  */
@@ -23,14 +33,31 @@ public abstract class ClientManager extends ObjectManager {
 	 */
 	protected static Long lastClientId = 0L;
 
+	/**
+	 * Leases blocks of client ids, or null if ids are handed out locally
+	 */
+	protected static IdBlockSource clientIdSource = null;
+	protected static long lastLeasedClientId = 0L;
+
 	/**
 	 * Maps IDs to user
 	 */
-	protected Map<String, Client> idClientMap = new HashMap<String, Client>();
+	protected ConcurrentMap<String, Client> idClientMap = new ConcurrentHashMap<String, Client>();
 
-	protected HashMap<String, Client> httpSessionIdToClientMap = new HashMap<String, Client>();
+	/**
+	 *
+	 */
+	protected ConcurrentMap<String, Client> httpSessionIdToClientMap = new ConcurrentHashMap<String, Client>();
 
-	protected List<String> listOfUsedNicknames = new ArrayList<String>();
+	/**
+	 * Maps each used nickname to the client that uses it
+	 */
+	protected ConcurrentMap<String, Client> nicknameClientMap = new ConcurrentHashMap<String, Client>();
+
+	/**
+	 * Maps the email addresses of clients that have one to the client
+	 */
+	protected ConcurrentMap<String, Client> emailAddressClientMap = new ConcurrentHashMap<String, Client>();
 
 
 	// add methods -----------------------------------------------------------------------------------------------------
@@ -42,8 +69,12 @@ public abstract class ClientManager extends ObjectManager {
 	public void addClient(Client client) throws IllegalArgumentException {
 		assertIsNonNullArgument(client);
 		assertIsUnknownClientAsIllegalArgument(client);
-		assertNicknameIsNotUsed(client.getNickName());
+		reserveNickname(client.getNickName(), client);
 
+		if (idClientMap.putIfAbsent(client.getId(), client) != null) {
+			releaseNickname(client.getNickName(), client);
+			throw new IllegalArgumentException(client.getId() + "is already known");
+		}
 		doAddClient(client);
 	}
 
@@ -60,20 +91,70 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype assertion
 	 */
 	protected void assertNicknameIsNotUsed(String nickName) {
-		if (listOfUsedNicknames.contains(nickName)) {
+		if (isNicknameUsed(nickName)) {
+			throw new IllegalArgumentException("Nickname " + nickName + " is already used.");
+		}
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isNicknameUsed(String nickName) {
+		return (nickName != null) && nicknameClientMap.containsKey(nickName);
+	}
+
+	/**
+	 * Atomically checks that the nickname is not used by another client and reserves it for the client.
+	 *
+	 * @methodtype command
+	 */
+	protected void reserveNickname(String nickName, Client client) throws IllegalArgumentException {
+		if (nickName == null) {
+			return;
+		}
+
+		Client other = nicknameClientMap.putIfAbsent(nickName, client);
+		if (other != null && other != client) {
 			throw new IllegalArgumentException("Nickname " + nickName + " is already used.");
 		}
 	}
 
 	/**
+	 * @methodtype command
+	 */
+	protected void releaseNickname(String nickName, Client client) {
+		if (nickName != null) {
+			nicknameClientMap.remove(nickName, client);
+		}
+	}
+
+	/**
+	 * Adds a client that is known to be unique, e.g. because it has been read from the datastore.
+	 *
 	 * @methodtype set
 	 * @methodproperty primitive
 	 */
 	protected void doAddClient(Client client) {
 		idClientMap.put(client.getId(), client);
-		writeObject(client);
-		listOfUsedNicknames.add(client.getNickName());
-		log.config(LogBuilder.createSystemMessage().addParameter("Added new user", client.getId()).toString());
+		if (!client.isEphemeral()) {
+			writeObject(client);
+		}
+
+		String nickName = client.getNickName();
+		if (nickName != null) {
+			Client other = nicknameClientMap.putIfAbsent(nickName, client);
+			if (other != null && other != client) {
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("nickname used twice", nickName).
+						addParameter("client", client.getId()).toString());
+			}
+		}
+
+		EmailAddress emailAddress = client.getEmailAddress();
+		if (emailAddress != null && !emailAddress.isEmpty()) {
+			emailAddressClientMap.put(emailAddress.asString(), client);
+		}
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Added new user", client.getId()).log();
 	}
 
 	/**
@@ -99,6 +180,38 @@ public abstract class ClientManager extends ObjectManager {
 		return result;
 	}
 
+	/**
+	 * Returns the clients with the given ids. Clients that are not in memory are read from the datastore with a single
+	 * batch read; unknown ids are not contained in the result.
+	 *
+	 * @methodtype get
+	 */
+	public Map<String, Client> getClientsByIds(Collection<String> ids) {
+		assertIsNonNullArgument(ids, "user ids");
+
+		Map<String, Client> result = new HashMap<String, Client>();
+		List<String> missingIds = new ArrayList<String>();
+		for (String id : ids) {
+			Client client = doGetClientById(id);
+			if (client != null) {
+				result.put(id, client);
+			} else {
+				missingIds.add(id);
+			}
+		}
+
+		if (!missingIds.isEmpty()) {
+			for (Client client : readObjects(Client.class, missingIds).values()) {
+				if (!hasClientById(client.getId())) {
+					doAddClient(client);
+				}
+				result.put(client.getId(), doGetClientById(client.getId()));
+			}
+		}
+
+		return result;
+	}
+
 	/**
 	 * @methodtype get
 	 * @methodproperty primitive
@@ -107,6 +220,14 @@ public abstract class ClientManager extends ObjectManager {
 		return idClientMap.get(name);
 	}
 
+	/**
+	 * @return the client in memory with the email address, or null
+	 * @methodtype get
+	 */
+	protected Client doGetClientByEmailAddress(EmailAddress emailAddress) {
+		return emailAddressClientMap.get(emailAddress.asString());
+	}
+
 	/**
 	 * @methodtype set
 	 */
@@ -126,9 +247,9 @@ public abstract class ClientManager extends ObjectManager {
 	public void doAddHttpSessionIdToClientMapping(String httpSessionId, Client client) {
 		httpSessionIdToClientMap.put(httpSessionId, client);
 		client.setHttpSessionId(httpSessionId);
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addParameter("client name", client.getNickName()).
-				addParameter("httpSessionId", httpSessionId).toString());
+				addParameter("httpSessionId", httpSessionId).log();
 	}
 
 
@@ -138,7 +259,26 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype command
 	 */
 	public void saveClient(Client client) {
-		updateObject(client);
+		if (!client.isEphemeral()) {
+			updateObject(client);
+		}
+	}
+
+	/**
+	 * Writes an ephemeral client to the datastore for the first time; from then on, it is saved and deleted like any
+	 * other client.
+	 *
+	 * @methodtype command
+	 */
+	public void persistClient(Client client) {
+		assertIsNonNullArgument(client);
+
+		if (client.isEphemeral()) {
+			client.setEphemeral(false);
+			client.incWriteCount();
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("persisted client", client.getId()).log();
+		}
+		saveClient(client);
 	}
 
 
@@ -157,7 +297,13 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype command
 	 */
 	public void saveClients() {
-		updateObjects(idClientMap.values());
+		List<Client> persistentClients = new ArrayList<Client>(idClientMap.size());
+		for (Client client : idClientMap.values()) {
+			if (!client.isEphemeral()) {
+				persistentClients.add(client);
+			}
+		}
+		updateObjects(persistentClients);
 	}
 
 
@@ -171,16 +317,39 @@ public abstract class ClientManager extends ObjectManager {
 	}
 
 	/**
+	 * Hands out the ids after the given one locally. For a single instance and for tests.
+	 *
 	 * @methodtype set
 	 */
 	public synchronized void setLastClientId(Long newId) {
 		lastClientId = newId;
+		clientIdSource = null;
 	}
 
 	/**
+	 * @param lastExistingId the highest id that may have been handed out before
+	 * @methodtype set
+	 */
+	public synchronized void setClientIdSource(IdBlockSource newClientIdSource, Long lastExistingId) {
+		lastClientId = (lastExistingId != null) ? lastExistingId : 0L;
+		lastLeasedClientId = lastClientId;
+		clientIdSource = newClientIdSource;
+	}
+
+	/**
+	 * Leases a new block of ids when the current one is exhausted, so that instances never hand out the same id.
+	 *
 	 * @methodtype get
 	 */
 	public synchronized Long getNextClientId() {
+		if ((clientIdSource != null) && (lastClientId >= lastLeasedClientId)) {
+			int firstId = clientIdSource.leaseBlock(IdBlockSource.DEFAULT_BLOCK_SIZE);
+			if (firstId <= 0) {
+				throw new IllegalStateException("Leased block must start with a positive id");
+			}
+			lastClientId = firstId - 1L;
+			lastLeasedClientId = lastClientId + IdBlockSource.DEFAULT_BLOCK_SIZE;
+		}
 		return ++lastClientId;
 	}
 
@@ -192,7 +361,7 @@ public abstract class ClientManager extends ObjectManager {
 	 */
 	public void removeClient(Client client) {
 		saveClient(client);
-		idClientMap.remove(client.getId());
+		removeFromIndexes(client);
 	}
 
 	/**
@@ -201,7 +370,7 @@ public abstract class ClientManager extends ObjectManager {
 	 */
 	public void deleteClient(Client client) {
 		assertIsNonNullArgument(client);
-		assert idClientMap.containsValue(client);
+		assert idClientMap.get(client.getId()) == client;
 
 		removeHttpSessionIdToClientMapping(client.getHttpSessionId());
 		doDeleteClient(client);
@@ -213,10 +382,14 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype set
 	 */
 	private void removeHttpSessionIdToClientMapping(String httpSessionId) {
-		Client client = httpSessionIdToClientMap.get(httpSessionId);
-		client.removeHttpSessionId();
+		if (httpSessionId == null) {
+			return;
+		}
 
-		httpSessionIdToClientMap.remove(httpSessionId);
+		Client client = httpSessionIdToClientMap.remove(httpSessionId);
+		if (client != null) {
+			client.removeHttpSessionId();
+		}
 	}
 
 	/**
@@ -224,8 +397,23 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodproperty primtive
 	 */
 	protected void doDeleteClient(Client client) {
-		idClientMap.remove(client.getId());
-		deleteObject(client);
+		removeFromIndexes(client);
+		if (!client.isEphemeral()) {
+			deleteObject(client);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void removeFromIndexes(Client client) {
+		idClientMap.remove(client.getId(), client);
+		releaseNickname(client.getNickName(), client);
+
+		EmailAddress emailAddress = client.getEmailAddress();
+		if (emailAddress != null && !emailAddress.isEmpty()) {
+			emailAddressClientMap.remove(emailAddress.asString(), client);
+		}
 	}
 
 	/**
@@ -242,10 +430,13 @@ public abstract class ClientManager extends ObjectManager {
 	/**
 	 * @methodtype set
 	 */
-	public void changeNickname(String oldNickName, String newNickName) throws IllegalArgumentException {
-		assertNicknameIsNotUsed(newNickName);
+	public void changeNickname(Client client, String newNickName) throws IllegalArgumentException {
+		String oldNickName = client.getNickName();
+		if ((oldNickName != null) && oldNickName.equals(newNickName)) {
+			return;
+		}
 
-		listOfUsedNicknames.remove(oldNickName);
-		listOfUsedNicknames.add(newNickName);
+		reserveNickname(newNickName, client);
+		releaseNickname(oldNickName, client);
 	}
 }
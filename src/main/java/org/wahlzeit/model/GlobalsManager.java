@@ -2,9 +2,12 @@ package org.wahlzeit.model;
 
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
+import org.wahlzeit.services.IdBlockSource;
+import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.servlets.AbstractServlet;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.wahlzeit.services.OfyService.ofy;
@@ -17,7 +20,7 @@ import static org.wahlzeit.services.OfyService.ofy;
  * 
  * @review
  */
-public class GlobalsManager extends ObjectManager {
+public class GlobalsManager extends ObjectManager implements IdBlockSource {
 
 	private static final Logger log = Logger.getLogger(GlobalsManager.class.getName());
 	/**
@@ -38,9 +41,9 @@ public class GlobalsManager extends ObjectManager {
 		});
 		log.info(globals.asString());
 
-		UserManager.getInstance().setLastClientId(globals.getLastUserId());
-		PhotoId.setCurrentIdFromInt(globals.getLastPhotoId());
-		Case.setLastCaseId(new CaseId(globals.getLastCaseId()));
+		UserManager.getInstance().setClientIdSource(new CounterBlockSource(IdCounter.CLIENT), globals.getLastUserId());
+		PhotoId.setBlockSource(this, globals.getLastPhotoId());
+		Case.setCaseIdSource(new CounterBlockSource(IdCounter.CASE), new CaseId(globals.getLastCaseId()));
 		AbstractServlet.setLastSessionId(globals.getLastSessionId());
 	}
 
@@ -91,22 +94,173 @@ public class GlobalsManager extends ObjectManager {
 	}
 
 	/**
-	 * @methodtype command Saves all global variables.
+	 * @methodtype command Saves all global variables. No counter is ever lowered, as other instances may have leased
+	 * blocks of ids meanwhile.
 	 */
 	public synchronized void saveGlobals() {
-		final Globals globals = new Globals();
-		globals.setLastUserId(UserManager.getInstance().getLastClientId());
-		globals.setLastPhotoId(PhotoId.getCurrentIdAsInt());
-		globals.setLastCaseId(Case.getLastCaseId().asInt());
-		globals.setLastSessionId(AbstractServlet.getLastSessionId());
-		log.info(globals.asString());
+		final Long lastUserId = UserManager.getInstance().getLastClientId();
+		final int lastPhotoId = PhotoId.getCurrentIdAsInt();
+		final int lastCaseId = Case.getLastCaseId().asInt();
+		final int lastSessionId = AbstractServlet.getLastSessionId();
 
 		ObjectifyService.run(new Work<Void>() {
 			@Override
 			public Void run() {
-				writeObject(globals);
-				return null;
+				return ofy().transact(new Work<Void>() {
+					@Override
+					public Void run() {
+						Globals globals = readGlobals();
+						globals.setLastUserId(Math.max(asLong(globals.getLastUserId()), asLong(lastUserId)));
+						globals.setLastPhotoId(Math.max(globals.getLastPhotoId(), lastPhotoId));
+						globals.setLastCaseId(Math.max(globals.getLastCaseId(), lastCaseId));
+						globals.setLastSessionId(Math.max(globals.getLastSessionId(), lastSessionId));
+						log.info(globals.asString());
+						ofy().save().entity(globals).now();
+						return null;
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Leases a block of photo ids by raising the last photo id in a transaction, so that no other instance gets the
+	 * same block. This is the only datastore write for new photo ids, once per block.
+	 *
+	 * @methodtype command
+	 */
+	public int leaseBlock(int size) {
+		return leaseIds(IdCounter.PHOTO, size);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getLastLeasedId() {
+		return getLastLeasedId(IdCounter.PHOTO);
+	}
+
+	/**
+	 * Raises the given counter by size in a transaction.
+	 *
+	 * @return the first of the leased ids
+	 * @methodtype command
+	 */
+	protected int leaseIds(final IdCounter counter, final int size) {
+		int result = ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				return ofy().transact(new Work<Integer>() {
+					@Override
+					public Integer run() {
+						Globals globals = readGlobals();
+						int firstId = counter.getLastId(globals) + 1;
+						counter.setLastId(globals, counter.getLastId(globals) + size);
+						ofy().save().entity(globals).now();
+						return firstId;
+					}
+				});
 			}
 		});
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("leased " + counter.name().toLowerCase() + " ids from", result).
+				addParameter("number of ids", size).log();
+		return result;
+	}
+
+	/**
+	 * Reads the counter by key, which is strongly consistent.
+	 *
+	 * @methodtype get
+	 */
+	protected int getLastLeasedId(final IdCounter counter) {
+		return ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				return counter.getLastId(readGlobals());
+			}
+		});
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static long asLong(Long value) {
+		return (value != null) ? value : 0L;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Globals readGlobals() {
+		Globals result = ofy().load().type(Globals.class).id(Globals.DEAULT_ID).now();
+		return (result != null) ? result : new Globals();
+	}
+
+	/**
+	 * The counters of Globals that are leased in blocks
+	 */
+	protected enum IdCounter {
+		PHOTO {
+			int getLastId(Globals globals) {
+				return globals.getLastPhotoId();
+			}
+
+			void setLastId(Globals globals, int lastId) {
+				globals.setLastPhotoId(lastId);
+			}
+		},
+		CLIENT {
+			int getLastId(Globals globals) {
+				return (int) asLong(globals.getLastUserId());
+			}
+
+			void setLastId(Globals globals, int lastId) {
+				globals.setLastUserId((long) lastId);
+			}
+		},
+		CASE {
+			int getLastId(Globals globals) {
+				return globals.getLastCaseId();
+			}
+
+			void setLastId(Globals globals, int lastId) {
+				globals.setLastCaseId(lastId);
+			}
+		};
+
+		abstract int getLastId(Globals globals);
+
+		abstract void setLastId(Globals globals, int lastId);
+	}
+
+	/**
+	 * Leases blocks of client or case ids the same way as blocks of photo ids
+	 */
+	protected class CounterBlockSource implements IdBlockSource {
+
+		protected final IdCounter counter;
+
+		/**
+		 *
+		 */
+		protected CounterBlockSource(IdCounter counter) {
+			this.counter = counter;
+		}
+
+		/**
+		 *
+		 */
+		public int leaseBlock(int size) {
+			return leaseIds(counter, size);
+		}
+
+		/**
+		 *
+		 */
+		public int getLastLeasedId() {
+			return GlobalsManager.this.getLastLeasedId(counter);
+		}
 	}
 }
@@ -24,7 +24,8 @@ import com.googlecode.objectify.annotation.Subclass;
 import org.wahlzeit.services.EmailAddress;
 
 /**
- * A Guest is a client that is not logged in.
+ * A Guest is a client that is not logged in. Guests are ephemeral: they are not written to the datastore unless
+ * they praise a photo, so that crawlers and visitors who only look at a page cause no datastore writes.
  */
 @Subclass(index = true)
 public class Guest extends Client {
@@ -38,6 +39,7 @@ public class Guest extends Client {
 	 *
 	 */
 	public Guest() {
+		isEphemeral = true;
 		String userId = GUEST_PREFIX + UserManager.getInstance().getNextClientId();
 		initialize(userId, userId, EmailAddress.EMPTY, AccessRights.GUEST, null);
 	}
@@ -47,6 +49,7 @@ public class Guest extends Client {
 	 * previousClient is used so set these basic settings in the new <@link>Guest</@link>.
 	 */
 	public Guest(Client previousClient) {
+		isEphemeral = true;
 		String userId = GUEST_PREFIX + UserManager.getInstance().getNextClientId();
 		initialize(userId, userId, EmailAddress.EMPTY, AccessRights.GUEST, previousClient);
 	}
@@ -20,7 +20,6 @@
 
 package org.wahlzeit.model;
 
-import com.google.api.client.util.ArrayMap;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.annotation.Entity;
@@ -33,6 +32,7 @@ import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A photo represents a user-provided (uploaded) photo.
@@ -77,9 +77,11 @@ public class Photo extends DataObject {
 	/**
 	 * Each photo can be viewed in different sizes (XS, S, M, L, XL)
 	 * Images are pre-computed in these sizes to optimize bandwidth when requested.
+	 * The photo only holds images that have not been handed over to the image cache of the PhotoManager yet, e.g.
+	 * freshly scaled ones that still need to be persisted.
 	 */
 	@Ignore
-	transient protected Map<PhotoSize, Image> images = new ArrayMap<PhotoSize, Image>();
+	transient protected Map<PhotoSize, Image> images = new ConcurrentHashMap<PhotoSize, Image>();
 	
 	/**
 	 *
@@ -157,7 +159,11 @@ public class Photo extends DataObject {
 	 * @methodtype get
 	 */
 	public Image getImage(PhotoSize photoSize) {
-		return images.get(photoSize);
+		Image result = getLocalImage(photoSize);
+		if (result == null) {
+			result = PhotoManager.getInstance().getImage(id, photoSize);
+		}
+		return result;
 	}
 
 	/**
@@ -167,6 +173,22 @@ public class Photo extends DataObject {
 		this.images.put(photoSize, image);
 	}
 
+	/**
+	 * Returns the image only if the photo holds it itself, without consulting the image cache.
+	 *
+	 * @methodtype get
+	 */
+	protected Image getLocalImage(PhotoSize photoSize) {
+		return images.get(photoSize);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected Image releaseImage(PhotoSize photoSize) {
+		return images.remove(photoSize);
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -23,6 +23,9 @@ package org.wahlzeit.model;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.PatternInstance;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -107,6 +110,22 @@ public class PhotoFactory {
 		return null;
 	}
 
+	/**
+	 * Loads the photos with the given ids in one call, e.g. for the cache misses of PhotoManager#getPhotosFromIds.
+	 * Photos are keyed by datastore-generated ids, not by PhotoId, so there is no batch get by PhotoId; by default,
+	 * each photo is loaded by loadPhoto(). Ids that cannot be loaded are not contained in the result.
+	 */
+	public Map<PhotoId, Photo> loadPhotos(Collection<PhotoId> ids) {
+		Map<PhotoId, Photo> result = new HashMap<PhotoId, Photo>();
+		for (PhotoId id : ids) {
+			Photo photo = loadPhoto(id);
+			if (photo != null) {
+				result.put(id, photo);
+			}
+		}
+		return result;
+	}
+
 
 	/**
 	 *
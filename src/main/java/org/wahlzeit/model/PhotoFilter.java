@@ -21,14 +21,18 @@
 package org.wahlzeit.model;
 
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.utils.CompactDataInput;
+import org.wahlzeit.utils.CompactDataOutput;
 import org.wahlzeit.utils.StringUtil;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -45,6 +49,12 @@ public class PhotoFilter implements Serializable {
 	public static final String USER_NAME = "userName";
 	public static final String TAGS = "tags";
 
+	/**
+	 * Only one in DIAGNOSTICS_SAMPLE_RATE queries logs its counts, the others log nothing
+	 */
+	public static final int DIAGNOSTICS_SAMPLE_RATE = 100;
+	protected static final AtomicLong noQueries = new AtomicLong();
+
 	/**
 	 *
 	 */
@@ -52,17 +62,28 @@ public class PhotoFilter implements Serializable {
 	protected Tags tags = Tags.EMPTY_TAGS;
 
 	/**
-	 *
+	 * Derived from the other fields and regenerated before use; not written with the session state, so null after
+	 * readCompact() until it is first needed
 	 */
 	protected List<PhotoId> displayablePhotoIds;
-	protected List<PhotoId> processedPhotoIds = new LinkedList<PhotoId>();
-	protected List<PhotoId> skippedPhotoIds = new LinkedList<PhotoId>();
+
+	/**
+	 *
+	 */
+	protected PhotoIdSet processedPhotoIds = new PhotoIdSet();
+	protected PhotoIdSet skippedPhotoIds = new PhotoIdSet();
 
 	/**
 	 *
 	 */
 	protected Random randomNumber = new Random(System.currentTimeMillis());
 
+	/**
+	 * Counts modifications of the user-visible filter state, so that the session state is only written if the filter
+	 * has changed
+	 */
+	protected transient int writeCount = 0;
+
 	/**
 	 *
 	 */
@@ -83,8 +104,9 @@ public class PhotoFilter implements Serializable {
 	public void clear() {
 		setUserName("");
 		setTags(Tags.EMPTY_TAGS);
-		displayablePhotoIds.clear();
+		displayablePhotoIds = new ArrayList<PhotoId>();
 		processedPhotoIds.clear();
+		incWriteCount();
 	}
 
 	/**
@@ -93,6 +115,7 @@ public class PhotoFilter implements Serializable {
 	public void setUserName(String newUserName) {
 		userName = newUserName;
 		resetDisplayablePhotoIds();
+		incWriteCount();
 	}
 
 	/**
@@ -108,6 +131,7 @@ public class PhotoFilter implements Serializable {
 	public void setTags(Tags newTags) {
 		tags = newTags;
 		resetDisplayablePhotoIds();
+		incWriteCount();
 	}
 
 	/**
@@ -137,6 +161,9 @@ public class PhotoFilter implements Serializable {
 	}
 
 	/**
+	 * The displayable photo ids are derived state, so regenerating them does not make the filter dirty; otherwise
+	 * every photo view would write the session.
+	 *
 	 * @methodtype command
 	 */
 	public void generateDisplayablePhotoIds() {
@@ -147,19 +174,21 @@ public class PhotoFilter implements Serializable {
 	 * Get a random photo that has not been rated. If possible avoid skipped photos.
 	 */
 	public PhotoId getRandomDisplayablePhotoId() {
-		if (!displayablePhotoIds.isEmpty()) {
-			int size = displayablePhotoIds.size();
-			int index = ((randomNumber.nextInt() % size) + size) / 2;
-			return displayablePhotoIds.get(index);
+		List<PhotoId> photoIds = getDisplayablePhotoIds();
+		if (!photoIds.isEmpty()) {
+			return photoIds.get(randomNumber.nextInt(photoIds.size()));
 		} else {
 			return PhotoId.NULL_ID;
 		}
 	}
 
 	/**
-	 *
+	 * Generates the displayable photo ids if they have not been since the filter was read.
 	 */
 	public List<PhotoId> getDisplayablePhotoIds() {
+		if (displayablePhotoIds == null) {
+			generateDisplayablePhotoIds();
+		}
 		return displayablePhotoIds;
 	}
 
@@ -180,7 +209,7 @@ public class PhotoFilter implements Serializable {
 	/**
 	 *
 	 */
-	public List<PhotoId> getProcessedPhotoIds() {
+	public PhotoIdSet getProcessedPhotoIds() {
 		return processedPhotoIds;
 	}
 
@@ -188,10 +217,6 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
-		log.info("photoId: " + photoId.asString());
-		for (PhotoId id : processedPhotoIds) {
-			log.info("Processed id: " + id.asString());
-		}
 		return processedPhotoIds.contains(photoId);
 	}
 
@@ -205,30 +230,108 @@ public class PhotoFilter implements Serializable {
 		if (displayablePhotoIds != null) {
 			displayablePhotoIds.remove(photoId);
 		}
+		incWriteCount();
 	}
 
 
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
+	public PhotoIdSet getSkippedPhotoIds() {
 		return skippedPhotoIds;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
+	public void setSkippedPhotoIds(PhotoIdSet skippedPhotoIds) {
 		this.skippedPhotoIds = skippedPhotoIds;
+		incWriteCount();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
+		skippedPhotoIds.add(skippedPhotoId);
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isDirty() {
+		return writeCount != 0;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void incWriteCount() {
+		writeCount++;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void resetWriteCount() {
+		writeCount = 0;
+	}
+
+	/**
+	 * Writes the filter in the compact format of the UserSessionState. Neither the displayable photo ids, which grow
+	 * with the catalog and are regenerated before use, nor the random number generator are written.
+	 *
+	 * @methodtype conversion
+	 */
+	public void writeCompact(CompactDataOutput out) throws IOException {
+		out.writeString(userName);
+
+		String[] tagArray = tags.asArray();
+		out.writeVarInt(tagArray.length);
+		for (String tag : tagArray) {
+			out.writeString(tag);
+		}
+
+		out.writeSortedInts(processedPhotoIds.toIntArray());
+		out.writeSortedInts(skippedPhotoIds.toIntArray());
+	}
+
+	/**
+	 * Reads what writeCompact() has written into this filter; format version 1 also contains the displayable photo
+	 * ids, which are skipped.
+	 *
+	 * @methodtype conversion
+	 */
+	public void readCompact(CompactDataInput in, int formatVersion) throws IOException {
+		userName = in.readString();
+
+		int noTags = in.readLength();
+		StringBuilder tagString = new StringBuilder();
+		for (int i = 0; i < noTags; i++) {
+			tagString.append(in.readString()).append(Tags.SEPARATOR_CHAR);
+		}
+		tags = (noTags == 0) ? Tags.EMPTY_TAGS : new Tags(tagString.toString());
+
+		if (formatVersion < 2) {
+			in.readInts();
+		}
+		displayablePhotoIds = null;
+
+		processedPhotoIds = asPhotoIdSet(in.readSortedInts());
+		skippedPhotoIds = asPhotoIdSet(in.readSortedInts());
+		resetWriteCount();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static PhotoIdSet asPhotoIdSet(int[] ids) {
+		PhotoIdSet result = new PhotoIdSet();
+		for (int id : ids) {
+			result.add(id);
 		}
+		return result;
 	}
 
 	/**
@@ -236,43 +339,50 @@ public class PhotoFilter implements Serializable {
 	 */
 	protected List<PhotoId> getFilteredPhotoIds() {
 		// get all tags that match the filter conditions
-		List<PhotoId> result = new LinkedList<PhotoId>();
-		int noFilterConditions = getFilterConditions().size();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).toString());
+		List<PhotoId> result = new ArrayList<PhotoId>();
+		List<String> filterConditions = getFilterConditions();
+		int noFilterConditions = filterConditions.size();
 
 		Collection<PhotoId> candidates;
 		if (noFilterConditions == 0) {
 			candidates = PhotoManager.getInstance().getPhotoCache().keySet();
 		} else {
-			List<Tag> tags = new LinkedList<Tag>();
-			candidates = new LinkedList<PhotoId>();
-			for (String condition : getFilterConditions()) {
-				PhotoManager.getInstance().addTagsThatMatchCondition(tags, condition);
-			}
-			// get the list of all photo ids that correspond to the tags
-			for (Tag tag : tags) {
-				candidates.add(PhotoId.getIdFromString(tag.getPhotoId()));
+			// a photo matches if it carries any of the tags; the index answers this without a datastore query
+			int[] ids = PhotoManager.getInstance().getPhotoTagIndex().getPhotoIdsMatchingAny(filterConditions);
+			candidates = new ArrayList<PhotoId>(ids.length);
+			for (int id : ids) {
+				candidates.add(PhotoId.getIdFromInt(id));
 			}
 		}
 
+		// membership tests are cheap, so photos are only looked up for unseen candidates
 		int newPhotos = 0;
+		int seenPhotos = 0;
 		for (PhotoId candidateId : candidates) {
+			if (processedPhotoIds.contains(candidateId) || skippedPhotoIds.contains(candidateId)) {
+				++seenPhotos;
+				continue;
+			}
+
 			Photo photoCandidate = PhotoManager.getInstance().getPhoto(candidateId);
-			if (!processedPhotoIds.contains(candidateId) && !skippedPhotoIds.contains(candidateId) &&
-					photoCandidate.isVisible()) {
+			if (photoCandidate != null && photoCandidate.isVisible()) {
 				result.add(candidateId);
 				++newPhotos;
 			}
 		}
 		int skippedPhotos = skippedPhotoIds.size();
 		if (newPhotos == 0 && skippedPhotos > 0) {
-			result.addAll(skippedPhotoIds);
-			newPhotos = skippedPhotos;
+			result.addAll(skippedPhotoIds.asList());
 		}
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", newPhotos)
-				.toString());
+		if (noQueries.incrementAndGet() % DIAGNOSTICS_SAMPLE_RATE == 0) {
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Number of filter conditions", noFilterConditions).
+					addParameter("candidates", candidates.size()).
+					addParameter("processed or skipped", seenPhotos).
+					addParameter("processed photos", processedPhotoIds.size()).
+					addParameter("Number of photos to show", result.size()).log();
+		}
 
 		return result;
 	}
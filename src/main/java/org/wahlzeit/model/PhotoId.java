@@ -20,35 +20,100 @@
 
 package org.wahlzeit.model;
 
+import org.wahlzeit.services.IdBlockSource;
+import org.wahlzeit.services.LocalIdBlockSource;
+
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A photo id identifies a photo with a unique number.
  * The number has an equivalent string for web access. 
  * This class also hands out the ids.
+ *
+ * Ids are handed out from blocks of BLOCK_SIZE consecutive ids, which are leased from an IdBlockSource; handing out an
+ * id within a block needs no lock. The GlobalsManager leases blocks in datastore transactions, so that several
+ * instances never hand out the same id. PhotoId objects are interned in a table of fixed-size segments that is only
+ * appended to, so that lookups need no lock either. Ids that other instances have leased are resolved once this
+ * instance has learned of their leases, which it asks for at most once per LEASE_REFRESH_INTERVAL.
  */
 public class PhotoId implements Serializable {
 
 	/**
-	 * 0 is never returned from nextValue; first value is 1
+	 * Number of ids leased at a time
 	 */
-	protected static int currentId = 0;
+	public static final int BLOCK_SIZE = IdBlockSource.DEFAULT_BLOCK_SIZE;
 
 	/**
-	 *
+	 * Minimum time between two requests for the ids other instances have leased, in milliseconds
+	 */
+	public static final long LEASE_REFRESH_INTERVAL = 10000;
+
+	/**
+	 * The intern table consists of segments of 2^SEGMENT_SHIFT PhotoIds
+	 */
+	protected static final int SEGMENT_SHIFT = 10;
+	protected static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+	/**
+	 * String ids are PREFIX followed by the base-36 digits of the id plus ID_START
+	 */
+	protected static final char PREFIX = 'x';
+	protected static final int RADIX = 36;
+
+	/**
+	 * Length of the string of Integer.MAX_VALUE, which has six base-36 digits after adding ID_START
+	 */
+	protected static final int MAX_STRING_LENGTH = 7;
+
+	/**
+	 * Per-thread buffer getFromInt encodes into; declared before NULL_ID, which is encoded during class initialization
 	 */
-	public static final int BUFFER_SIZE_INCREMENT = 64;
+	protected static final ThreadLocal<char[]> encodeBuffer = new ThreadLocal<char[]>() {
+		protected char[] initialValue() {
+			return new char[MAX_STRING_LENGTH];
+		}
+	};
 
 	/**
 	 *
 	 */
 	public static final PhotoId NULL_ID = new PhotoId(0);
 
+	/**
+	 * 0 is never returned from nextValue; first value is 1
+	 */
+	protected static final AtomicInteger currentId = new AtomicInteger(0);
+
 	/**
 	 *
 	 */
-	protected static PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
+	protected static volatile IdBlockSource blockSource = new LocalIdBlockSource(0);
+
+	/**
+	 * The block ids are currently handed out from; replaced when it is exhausted
+	 */
+	protected static volatile IdBlock currentBlock = new IdBlock(1, 0);
+
+	/**
+	 * The highest id known to be leased by any instance; larger ids resolve to NULL_ID
+	 */
+	protected static volatile int lastLeasedId = 0;
+
+	/**
+	 * When lastLeasedId was last refreshed from the block source, or 0 if it has not been yet
+	 */
+	protected static final AtomicLong lastLeaseRefreshTime = new AtomicLong(0);
+
+	/**
+	 * Segments of interned PhotoIds; the directory covers all ids up to lastLeasedId, its segments are created when
+	 * they are first used. The directory is replaced when it grows, the segments are shared.
+	 */
+	protected static volatile AtomicReferenceArray<AtomicReferenceArray<PhotoId>> segments =
+			new AtomicReferenceArray<AtomicReferenceArray<PhotoId>>(0);
 
 	/**
 	 * What a hack :-)
@@ -65,52 +130,176 @@ public class PhotoId implements Serializable {
 	}
 
 	/**
-	 *
+	 * @return the highest id that has been handed out or has existed before
 	 */
 	public static int getCurrentIdAsInt() {
-		return currentId;
+		return currentId.get();
+	}
+
+	/**
+	 * Hands out the ids after the given one, leasing blocks locally. For a single instance and for tests.
+	 */
+	public static void setCurrentIdFromInt(int id) {
+		setBlockSource(new LocalIdBlockSource(id), id);
+	}
+
+	/**
+	 * @param lastExistingId the highest id that may have been handed out before
+	 * @methodtype set
+	 */
+	public static synchronized void setBlockSource(IdBlockSource newBlockSource, int lastExistingId) {
+		blockSource = newBlockSource;
+		currentBlock = new IdBlock(1, 0);
+		ensureSegments(lastExistingId);
+		lastLeasedId = Math.max(lastExistingId, 0);
+		lastLeaseRefreshTime.set(0);
+		currentId.set(lastLeasedId);
 	}
 
 	/**
 	 *
 	 */
-	public static synchronized void setCurrentIdFromInt(int id) {
-		currentId = id;
-		ids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-		ids[0] = NULL_ID;
+	public static int getNextIdAsInt() {
+		while (true) {
+			IdBlock block = currentBlock;
+			int result = block.nextId.getAndIncrement();
+			if (result <= block.lastId) {
+				raiseCurrentId(result);
+				return result;
+			}
+			leaseNextBlock(block);
+		}
 	}
 
 	/**
+	 * Replaces the exhausted block, unless another thread has done so already.
 	 *
+	 * @methodtype command
 	 */
-	public static synchronized int getNextIdAsInt() {
-		currentId += 1;
-		if (currentId >= ids.length) {
-			PhotoId[] nids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-			System.arraycopy(ids, 0, nids, 0, currentId);
-			ids = nids;
+	protected static synchronized void leaseNextBlock(IdBlock exhaustedBlock) {
+		if (currentBlock != exhaustedBlock) {
+			return;
+		}
+
+		int firstId = blockSource.leaseBlock(BLOCK_SIZE);
+		if (firstId <= 0) {
+			throw new IllegalStateException("Leased block must start with a positive id");
 		}
-		return currentId;
+
+		IdBlock block = new IdBlock(firstId, firstId + BLOCK_SIZE - 1);
+		raiseLastLeasedId(block.lastId);
+		currentBlock = block;
 	}
 
 	/**
+	 * @methodtype command
+	 */
+	protected static void raiseCurrentId(int id) {
+		int current = currentId.get();
+		while (id > current && !currentId.compareAndSet(current, id)) {
+			current = currentId.get();
+		}
+	}
+
+	/**
+	 * Grows the directory until it covers the given id; callers hold the class lock and only then raise lastLeasedId,
+	 * so that lock-free lookups always find a directory entry.
 	 *
+	 * @methodtype command
+	 */
+	protected static void ensureSegments(int id) {
+		if (id < 0) {
+			return;
+		}
+
+		int noSegments = (id >>> SEGMENT_SHIFT) + 1;
+		AtomicReferenceArray<AtomicReferenceArray<PhotoId>> oldSegments = segments;
+		if (noSegments <= oldSegments.length()) {
+			return;
+		}
+
+		AtomicReferenceArray<AtomicReferenceArray<PhotoId>> newSegments =
+				new AtomicReferenceArray<AtomicReferenceArray<PhotoId>>(noSegments);
+		for (int i = 0; i < oldSegments.length(); i++) {
+			newSegments.set(i, oldSegments.get(i));
+		}
+		segments = newSegments;
+	}
+
+	/**
+	 * @return the segment with the given index, which is created if it is first used
+	 * @methodtype get
+	 */
+	protected static AtomicReferenceArray<PhotoId> getSegment(int index) {
+		AtomicReferenceArray<PhotoId> result = segments.get(index);
+		return (result != null) ? result : createSegment(index);
+	}
+
+	/**
+	 * Segments are only created under the class lock, so that none is lost when the directory is replaced.
+	 *
+	 * @methodtype factory
+	 */
+	protected static synchronized AtomicReferenceArray<PhotoId> createSegment(int index) {
+		AtomicReferenceArray<AtomicReferenceArray<PhotoId>> currentSegments = segments;
+		AtomicReferenceArray<PhotoId> result = currentSegments.get(index);
+		if (result == null) {
+			result = new AtomicReferenceArray<PhotoId>(SEGMENT_SIZE);
+			currentSegments.set(index, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Asks the block source for the ids leased meanwhile, e.g. by other instances. Ids come from request parameters,
+	 * so at most one caller per LEASE_REFRESH_INTERVAL does so, and without holding the class lock; unknown ids can
+	 * neither cause a datastore read per request nor stall handing out ids.
+	 *
+	 * @methodtype command
+	 */
+	protected static void refreshLastLeasedId() {
+		long now = System.currentTimeMillis();
+		long lastRefreshTime = lastLeaseRefreshTime.get();
+		if (now - lastRefreshTime < LEASE_REFRESH_INTERVAL) {
+			return;
+		}
+		if (!lastLeaseRefreshTime.compareAndSet(lastRefreshTime, now)) {
+			return; // another thread refreshes
+		}
+
+		raiseLastLeasedId(blockSource.getLastLeasedId());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static synchronized void raiseLastLeasedId(int id) {
+		if (id > lastLeasedId) {
+			ensureSegments(id);
+			lastLeasedId = id;
+		}
+	}
+
+	/**
+	 * @return the interned PhotoId, or NULL_ID if no instance is known to have leased the id
 	 */
 	public static PhotoId getIdFromInt(int id) {
-		if ((id < 0) || (id > currentId)) {
+		if (id <= 0) {
 			return NULL_ID;
 		}
+		if (id > lastLeasedId) {
+			refreshLastLeasedId();
+			if (id > lastLeasedId) {
+				return NULL_ID;
+			}
+		}
 
-		// @FIXME http://en.wikipedia.org/wiki/Double-checked_locking
-		PhotoId result = ids[id];
+		AtomicReferenceArray<PhotoId> segment = getSegment(id >>> SEGMENT_SHIFT);
+		int index = id & (SEGMENT_SIZE - 1);
+		PhotoId result = segment.get(index);
 		if (result == null) {
-			synchronized (ids) {
-				result = ids[id];
-				if (result == null) {
-					result = new PhotoId(id);
-					ids[id] = result;
-				}
-			}
+			segment.compareAndSet(index, null, new PhotoId(id));
+			result = segment.get(index);
 		}
 
 		return result;
@@ -119,7 +308,7 @@ public class PhotoId implements Serializable {
 	/**
 	 *
 	 */
-	public static PhotoId getIdFromString(String id) {
+	public static PhotoId getIdFromString(CharSequence id) {
 		return getIdFromInt(getFromString(id));
 	}
 
@@ -142,7 +331,7 @@ public class PhotoId implements Serializable {
 	}
 
 	/**
-	 *
+	 * The string is computed once, when the id is interned, so asString() never encodes
 	 */
 	protected int value = 0;
 	protected String stringValue = null;
@@ -205,49 +394,85 @@ public class PhotoId implements Serializable {
 	}
 
 	/**
+	 * Encodes into the buffer of the current thread, so only the resulting string is allocated.
 	 *
+	 * @methodtype conversion
 	 */
 	public static String getFromInt(int id) {
-		StringBuffer result = new StringBuffer(10);
-
-		id += ID_START;
-		for (; id > 0; id = id / 36) {
-			char letterOrDigit;
-			int modulus = id % 36;
-			if (modulus < 10) {
-				letterOrDigit = (char) ((int) '0' + modulus);
-			} else {
-				letterOrDigit = (char) ((int) 'a' - 10 + modulus);
-			}
-			result.insert(0, letterOrDigit);
+		return getFromInt(id, encodeBuffer.get());
+	}
 
+	/**
+	 * Encodes into buffer from the last digit backwards, instead of inserting each digit at the front. A value of 0
+	 * has no digits, so NULL_ID, which is encoded before ID_START is set, remains "x".
+	 *
+	 * @param buffer of at least MAX_STRING_LENGTH chars; it is overwritten
+	 * @methodtype conversion
+	 */
+	public static String getFromInt(int id, char[] buffer) {
+		int start = buffer.length;
+
+		long value = (long) id + ID_START;
+		for (; value > 0; value /= RADIX) {
+			int digit = (int) (value % RADIX);
+			buffer[--start] = (char) ((digit < 10) ? '0' + digit : 'a' - 10 + digit);
 		}
+		buffer[--start] = PREFIX;
 
-		return "x" + result.toString();
+		return new String(buffer, start, buffer.length - start);
 	}
 
 	/**
+	 * Parses directly from the characters, so that no intermediate objects are created.
 	 *
+	 * @return the id, or 0 if the value is no well-formed photo id
+	 * @methodtype conversion
 	 */
-	public static int getFromString(String value) {
-		int result = 0;
+	public static int getFromString(CharSequence value) {
+		if ((value == null) || (value.length() < 2) || (value.length() > MAX_STRING_LENGTH)) {
+			return 0;
+		}
+		if (value.charAt(0) != PREFIX) {
+			return 0;
+		}
+
+		long result = 0;
 		for (int i = 1; i < value.length(); i++) {
-			int temp = 0;
 			char letterOrDigit = value.charAt(i);
-			if (letterOrDigit < 'a') {
-				temp = (int) letterOrDigit - '0';
+			int digit;
+			if ((letterOrDigit >= '0') && (letterOrDigit <= '9')) {
+				digit = letterOrDigit - '0';
+			} else if ((letterOrDigit >= 'a') && (letterOrDigit <= 'z')) {
+				digit = 10 + letterOrDigit - 'a';
 			} else {
-				temp = 10 + (int) letterOrDigit - 'a';
+				return 0;
 			}
-			result = result * 36 + temp;
+			result = result * RADIX + digit;
 		}
 
 		result -= ID_START;
-		if (result < 0) {
-			result = 0;
+		if ((result < 0) || (result > Integer.MAX_VALUE)) {
+			return 0;
 		}
 
-		return result;
+		return (int) result;
+	}
+
+	/**
+	 * A range of ids from firstId to lastId; nextId may run past lastId when the block is exhausted.
+	 */
+	protected static class IdBlock {
+
+		protected final AtomicInteger nextId;
+		protected final int lastId;
+
+		/**
+		 *
+		 */
+		protected IdBlock(int firstId, int lastId) {
+			this.nextId = new AtomicInteger(firstId);
+			this.lastId = lastId;
+		}
 	}
 
 }
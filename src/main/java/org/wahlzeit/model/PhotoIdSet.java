@@ -0,0 +1,509 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of photo ids that stores the int values of the ids instead of PhotoId objects. The ids are split into chunks
+ * of 2^16 values by their upper bits. A sparse chunk keeps its values in a sorted array, a dense chunk as a bitmap,
+ * so membership tests are O(log n) at worst and memory stays small for both few and many ids. Iteration is in
+ * ascending order of the ids.
+ */
+public class PhotoIdSet implements Iterable<PhotoId>, Serializable {
+
+	/**
+	 * Clients store their photo id sets serialized, so the class must stay compatible
+	 */
+	private static final long serialVersionUID = -6315201538560297501L;
+
+	/**
+	 * Number of values in a chunk above which a sorted array takes more space than a bitmap
+	 */
+	protected static final int MAX_ARRAY_CHUNK_SIZE = 4096;
+
+	/**
+	 * Number of longs in a bitmap chunk
+	 */
+	protected static final int BITMAP_CHUNK_LENGTH = 1024;
+
+	/**
+	 *
+	 */
+	protected static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * Upper 16 bits of the ids in each chunk, sorted
+	 */
+	protected int[] keys = new int[INITIAL_CAPACITY];
+
+	/**
+	 *
+	 */
+	protected Chunk[] chunks = new Chunk[INITIAL_CAPACITY];
+
+	/**
+	 * Number of used entries in keys and chunks
+	 */
+	protected int noChunks = 0;
+
+	/**
+	 *
+	 */
+	protected int size = 0;
+
+	/**
+	 *
+	 */
+	public PhotoIdSet() {
+		// do nothing
+	}
+
+	/**
+	 *
+	 */
+	public PhotoIdSet(PhotoIdSet other) {
+		keys = Arrays.copyOf(other.keys, Math.max(other.noChunks, INITIAL_CAPACITY));
+		chunks = new Chunk[keys.length];
+		for (int i = 0; i < other.noChunks; i++) {
+			chunks[i] = other.chunks[i].copy();
+		}
+		noChunks = other.noChunks;
+		size = other.size;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(PhotoId photoId) {
+		return (photoId != null) && contains(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int id) {
+		int index = indexOfChunk(id >>> 16);
+		return (index >= 0) && chunks[index].contains((char) id);
+	}
+
+	/**
+	 * @return true if the set did not already contain the id
+	 * @methodtype command
+	 */
+	public boolean add(PhotoId photoId) {
+		return add(photoId.asInt());
+	}
+
+	/**
+	 * @return true if the set did not already contain the id
+	 * @methodtype command
+	 */
+	public boolean add(int id) {
+		int key = id >>> 16;
+		int index = indexOfChunk(key);
+		if (index < 0) {
+			index = -(index + 1);
+			insertChunk(index, key, new ArrayChunk());
+		}
+
+		Chunk chunk = chunks[index];
+		if (chunk.contains((char) id)) {
+			return false;
+		}
+
+		chunks[index] = chunk.add((char) id);
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return true if the set contained the id
+	 * @methodtype command
+	 */
+	public boolean remove(PhotoId photoId) {
+		return (photoId != null) && remove(photoId.asInt());
+	}
+
+	/**
+	 * @return true if the set contained the id
+	 * @methodtype command
+	 */
+	public boolean remove(int id) {
+		int index = indexOfChunk(id >>> 16);
+		if (index < 0 || !chunks[index].contains((char) id)) {
+			return false;
+		}
+
+		Chunk chunk = chunks[index].remove((char) id);
+		if (chunk.size() == 0) {
+			removeChunk(index);
+		} else {
+			chunks[index] = chunk;
+		}
+		size--;
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		keys = new int[INITIAL_CAPACITY];
+		chunks = new Chunk[INITIAL_CAPACITY];
+		noChunks = 0;
+		size = 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the ids in ascending order
+	 * @methodtype conversion
+	 */
+	public int[] toIntArray() {
+		int[] result = new int[size];
+		int offset = 0;
+		for (int i = 0; i < noChunks; i++) {
+			offset = chunks[i].copyTo(result, offset, keys[i] << 16);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the ids in ascending order
+	 * @methodtype conversion
+	 */
+	public List<PhotoId> asList() {
+		int[] ids = toIntArray();
+		List<PhotoId> result = new ArrayList<PhotoId>(ids.length);
+		for (int id : ids) {
+			result.add(PhotoId.getIdFromInt(id));
+		}
+		return result;
+	}
+
+	/**
+	 * Iterates over a snapshot of the ids in ascending order.
+	 */
+	@Override
+	public Iterator<PhotoId> iterator() {
+		final int[] ids = toIntArray();
+		return new Iterator<PhotoId>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < ids.length;
+			}
+
+			@Override
+			public PhotoId next() {
+				if (next >= ids.length) {
+					throw new NoSuchElementException();
+				}
+				return PhotoId.getIdFromInt(ids[next++]);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof PhotoIdSet)) {
+			return false;
+		}
+
+		PhotoIdSet other = (PhotoIdSet) o;
+		return (size == other.size) && Arrays.equals(toIntArray(), other.toIntArray());
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(toIntArray());
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return asList().toString();
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected int indexOfChunk(int key) {
+		return Arrays.binarySearch(keys, 0, noChunks, key);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void insertChunk(int index, int key, Chunk chunk) {
+		if (noChunks == keys.length) {
+			keys = Arrays.copyOf(keys, noChunks * 2);
+			chunks = Arrays.copyOf(chunks, noChunks * 2);
+		}
+
+		System.arraycopy(keys, index, keys, index + 1, noChunks - index);
+		System.arraycopy(chunks, index, chunks, index + 1, noChunks - index);
+		keys[index] = key;
+		chunks[index] = chunk;
+		noChunks++;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void removeChunk(int index) {
+		System.arraycopy(keys, index + 1, keys, index, noChunks - index - 1);
+		System.arraycopy(chunks, index + 1, chunks, index, noChunks - index - 1);
+		noChunks--;
+		chunks[noChunks] = null;
+	}
+
+	/**
+	 * The lower 16 bits of all ids that share the same upper 16 bits.
+	 */
+	protected static abstract class Chunk implements Serializable {
+
+		private static final long serialVersionUID = -7777253047622698923L;
+
+		/**
+		 *
+		 */
+		protected abstract boolean contains(char value);
+
+		/**
+		 * Adds a value that is not yet contained; may return a different chunk representation.
+		 */
+		protected abstract Chunk add(char value);
+
+		/**
+		 * Removes a value that is contained; may return a different chunk representation.
+		 */
+		protected abstract Chunk remove(char value);
+
+		/**
+		 *
+		 */
+		protected abstract int size();
+
+		/**
+		 * Copies the values in ascending order, combined with the upper bits, into target starting at offset.
+		 *
+		 * @return the offset behind the last copied value
+		 */
+		protected abstract int copyTo(int[] target, int offset, int upperBits);
+
+		/**
+		 *
+		 */
+		protected abstract Chunk copy();
+	}
+
+	/**
+	 * A chunk with few values, kept as a sorted array.
+	 */
+	protected static class ArrayChunk extends Chunk {
+
+		private static final long serialVersionUID = 1638257885688545283L;
+
+		protected char[] values = new char[INITIAL_CAPACITY];
+		protected int size = 0;
+
+		@Override
+		protected boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, size, value) >= 0;
+		}
+
+		@Override
+		protected Chunk add(char value) {
+			if (size == MAX_ARRAY_CHUNK_SIZE) {
+				return new BitmapChunk(this).add(value);
+			}
+
+			if (size == values.length) {
+				values = Arrays.copyOf(values, Math.min(size * 2, MAX_ARRAY_CHUNK_SIZE));
+			}
+
+			int index = -(Arrays.binarySearch(values, 0, size, value) + 1);
+			System.arraycopy(values, index, values, index + 1, size - index);
+			values[index] = value;
+			size++;
+			return this;
+		}
+
+		@Override
+		protected Chunk remove(char value) {
+			int index = Arrays.binarySearch(values, 0, size, value);
+			System.arraycopy(values, index + 1, values, index, size - index - 1);
+			size--;
+			return this;
+		}
+
+		@Override
+		protected int size() {
+			return size;
+		}
+
+		@Override
+		protected int copyTo(int[] target, int offset, int upperBits) {
+			for (int i = 0; i < size; i++) {
+				target[offset++] = upperBits | values[i];
+			}
+			return offset;
+		}
+
+		@Override
+		protected Chunk copy() {
+			ArrayChunk result = new ArrayChunk();
+			result.values = Arrays.copyOf(values, Math.max(size, INITIAL_CAPACITY));
+			result.size = size;
+			return result;
+		}
+	}
+
+	/**
+	 * A chunk with many values, kept as a bitmap of all 2^16 possible values.
+	 */
+	protected static class BitmapChunk extends Chunk {
+
+		private static final long serialVersionUID = -6357985083247567822L;
+
+		protected long[] bits = new long[BITMAP_CHUNK_LENGTH];
+		protected int size = 0;
+
+		/**
+		 *
+		 */
+		protected BitmapChunk() {
+			// do nothing
+		}
+
+		/**
+		 *
+		 */
+		protected BitmapChunk(ArrayChunk chunk) {
+			for (int i = 0; i < chunk.size; i++) {
+				char value = chunk.values[i];
+				bits[value >>> 6] |= 1L << value;
+			}
+			size = chunk.size;
+		}
+
+		@Override
+		protected boolean contains(char value) {
+			return (bits[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		protected Chunk add(char value) {
+			bits[value >>> 6] |= 1L << value;
+			size++;
+			return this;
+		}
+
+		@Override
+		protected Chunk remove(char value) {
+			bits[value >>> 6] &= ~(1L << value);
+			size--;
+			if (size > MAX_ARRAY_CHUNK_SIZE) {
+				return this;
+			}
+
+			ArrayChunk result = new ArrayChunk();
+			result.values = new char[MAX_ARRAY_CHUNK_SIZE];
+			result.size = copyTo(result.values);
+			return result;
+		}
+
+		@Override
+		protected int size() {
+			return size;
+		}
+
+		@Override
+		protected int copyTo(int[] target, int offset, int upperBits) {
+			for (int i = 0; i < bits.length; i++) {
+				long word = bits[i];
+				while (word != 0) {
+					target[offset++] = upperBits | (i << 6) | Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			return offset;
+		}
+
+		/**
+		 * @methodtype helper
+		 */
+		protected int copyTo(char[] target) {
+			int offset = 0;
+			for (int i = 0; i < bits.length; i++) {
+				long word = bits[i];
+				while (word != 0) {
+					target[offset++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return offset;
+		}
+
+		@Override
+		protected Chunk copy() {
+			BitmapChunk result = new BitmapChunk();
+			result.bits = bits.clone();
+			result.size = size;
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A PhotoImageLoader fills the image cache of a PhotoManager in the background after the photo meta data has been
+ * loaded. Images are loaded by a bounded pool of workers, one PhotoSize at a time from the smallest to the largest,
+ * so that thumbnails of all photos are available first. A photo that lacks a size also lacks all larger ones, so it
+ * is not asked for them. Loading stops as soon as the image cache starts evicting, since further images would only
+ * displace ones that were loaded before.
+ *
+ * The loader only warms the cache; images that are not loaded yet are read on demand by the PhotoManager.
+ */
+public class PhotoImageLoader {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_NO_WORKERS = 4;
+
+	private static final Logger log = Logger.getLogger(PhotoImageLoader.class.getName());
+
+	/**
+	 *
+	 */
+	protected final PhotoManager photoManager;
+	protected final ThreadFactory threadFactory;
+	protected final ExecutorService workers;
+
+	/**
+	 *
+	 */
+	protected final CountDownLatch isDone = new CountDownLatch(1);
+	protected volatile boolean isStopped = false;
+
+	/**
+	 * Progress metrics
+	 */
+	protected final AtomicInteger noPhotos = new AtomicInteger();
+	protected final AtomicInteger noLoadedImages = new AtomicInteger();
+	protected final AtomicInteger noMissingImages = new AtomicInteger();
+	protected final AtomicInteger noFailedImages = new AtomicInteger();
+	protected volatile PhotoSize currentPhotoSize = null;
+
+	/**
+	 *
+	 */
+	public PhotoImageLoader(PhotoManager photoManager, int noWorkers, ThreadFactory threadFactory) {
+		if (noWorkers <= 0) {
+			throw new IllegalArgumentException("Number of workers must be positive");
+		}
+
+		this.photoManager = photoManager;
+		this.threadFactory = threadFactory;
+		this.workers = Executors.newFixedThreadPool(noWorkers, threadFactory);
+	}
+
+	/**
+	 * Starts loading the images of the photos in the background and returns immediately.
+	 *
+	 * @methodtype command
+	 */
+	public void start(final Collection<Photo> photos) {
+		noPhotos.set(photos.size());
+		Thread coordinator = threadFactory.newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					loadImages(photos);
+				} finally {
+					workers.shutdown();
+					isDone.countDown();
+					LogBuilder.createSystemMessage(log, Level.INFO).
+							addMessage("Image loading finished").
+							addParameter("progress", asString()).log();
+				}
+			}
+		});
+		coordinator.start();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void loadImages(Collection<Photo> photos) {
+		List<PhotoId> photoIds = new ArrayList<PhotoId>(photos.size());
+		for (Photo photo : photos) {
+			photoIds.add(photo.getId());
+		}
+
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			if (photoIds.isEmpty() || !shouldContinue()) {
+				return;
+			}
+
+			currentPhotoSize = photoSize;
+			photoIds = loadImages(photoIds, photoSize);
+		}
+	}
+
+	/**
+	 * Loads the images of the given size in parallel.
+	 *
+	 * @return the ids of the photos that have an image of the given size
+	 * @methodtype command
+	 */
+	protected List<PhotoId> loadImages(List<PhotoId> photoIds, final PhotoSize photoSize) {
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(photoIds.size());
+		try {
+			for (final PhotoId photoId : photoIds) {
+				results.add(workers.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return loadImage(photoId, photoSize);
+					}
+				}));
+			}
+		} catch (RejectedExecutionException ex) {
+			// stopped meanwhile; wait for the submitted ones only
+		}
+
+		List<PhotoId> result = new ArrayList<PhotoId>(photoIds.size());
+		for (int i = 0; i < results.size(); i++) {
+			try {
+				if (results.get(i).get()) {
+					result.add(photoIds.get(i));
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				stop();
+				return result;
+			} catch (CancellationException ex) {
+				// stopped meanwhile
+			} catch (ExecutionException ex) {
+				noFailedImages.incrementAndGet();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if the image exists, whether or not it has been added to the cache
+	 * @methodtype command
+	 */
+	protected boolean loadImage(final PhotoId photoId, final PhotoSize photoSize) {
+		if (!shouldContinue()) {
+			return false;
+		}
+
+		if (photoManager.doGetImage(photoId, photoSize) != null) {
+			return true;
+		}
+
+		try {
+			Image image = ObjectifyService.run(new Work<Image>() {
+				@Override
+				public Image run() {
+					return photoManager.loadImageOnce(photoId, photoSize);
+				}
+			});
+
+			if (image == null) {
+				noMissingImages.incrementAndGet();
+				return false;
+			}
+
+			noLoadedImages.incrementAndGet();
+			return true;
+		} catch (RuntimeException ex) {
+			noFailedImages.incrementAndGet();
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("photo ID", photoId.asString()).
+					addParameter("size", photoSize.asString()).
+					addException("Could not load image in background", ex).toString());
+			return false;
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean shouldContinue() {
+		return !isStopped && photoManager.hasImageCacheRoom();
+	}
+
+	/**
+	 * Stops loading; images that are being read are still added to the cache.
+	 *
+	 * @methodtype command
+	 */
+	public void stop() {
+		isStopped = true;
+		workers.shutdownNow();
+	}
+
+	/**
+	 * @return true if loading has finished within the timeout
+	 * @methodtype command
+	 */
+	public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+		return isDone.await(timeout, unit);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isDone() {
+		return isDone.getCount() == 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPhotos() {
+		return noPhotos.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoLoadedImages() {
+		return noLoadedImages.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoMissingImages() {
+		return noMissingImages.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoFailedImages() {
+		return noFailedImages.get();
+	}
+
+	/**
+	 * @return the size that is currently loaded, or null if loading has not started yet
+	 * @methodtype get
+	 */
+	public PhotoSize getCurrentPhotoSize() {
+		return currentPhotoSize;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return "photos: " + getNoPhotos() + ", loaded images: " + getNoLoadedImages() + ", missing images: " +
+				getNoMissingImages() + ", failed images: " + getNoFailedImages() + ", current size: " +
+				((currentPhotoSize == null) ? "none" : currentPhotoSize.asString()) + (isDone() ? ", done" : "");
+	}
+
+}
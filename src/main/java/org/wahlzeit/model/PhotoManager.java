@@ -20,9 +20,14 @@
 
 package org.wahlzeit.model;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.images.Image;
+import com.google.apphosting.api.ApiProxy;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
+import org.wahlzeit.model.cache.Cache;
+import org.wahlzeit.model.cache.LruCache;
+import org.wahlzeit.model.cache.Weigher;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
@@ -31,6 +36,14 @@ import org.wahlzeit.services.Persistent;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -46,15 +59,52 @@ public class PhotoManager extends ObjectManager {
 	private static final Logger log = Logger.getLogger(PhotoManager.class.getName());
 
 	/**
-	 * In-memory cache for photos
+	 * Default upper bound for the image bytes held in memory
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	public static final long DEFAULT_IMAGE_CACHE_SIZE = 32 * 1024 * 1024;
+
+	/**
+	 * Number of photos read from the datastore per call when loading all photos
+	 */
+	public static final int PHOTO_CHUNK_SIZE = 100;
+
+	/**
+	 * In-memory cache for photos; only holds the (small) meta data, images are cached separately
+	 */
+	protected Map<PhotoId, Photo> photoCache = new ConcurrentHashMap<PhotoId, Photo>();
+
+	/**
+	 * In-memory cache for the scaled images of all photos, bounded by the number of image bytes. Evicted images are
+	 * transparently reloaded from the ImageStorage.
+	 */
+	protected Cache<String, Image> imageCache = new LruCache<String, Image>(DEFAULT_IMAGE_CACHE_SIZE,
+			new Weigher<Image>() {
+				@Override
+				public int weigh(Image image) {
+					return image.getImageData().length;
+				}
+			});
 
 	/**
 	 *
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
 
+	/**
+	 * In-memory index of the tags of all persisted photos, kept in sync with the Tag entities in the datastore
+	 */
+	protected PhotoTagIndex photoTagIndex = new PhotoTagIndex();
+
+	/**
+	 * Loads the images of the photos in the background after startup
+	 */
+	protected PhotoImageLoader imageLoader = null;
+
+	/**
+	 * Reads from the ImageStorage that are in progress, by image key
+	 */
+	protected ConcurrentMap<String, FutureTask<Image>> imageLoads = new ConcurrentHashMap<String, FutureTask<Image>>();
+
 	/**
 	 *
 	 */
@@ -110,6 +160,41 @@ public class PhotoManager extends ObjectManager {
 		return result;
 	}
 
+	/**
+	 * Returns the photos with the given ids in the order of the ids, skipping unknown ids. Cached photos are taken from
+	 * the photo cache; all misses are handed to the PhotoFactory at once.
+	 *
+	 * @methodtype get
+	 */
+	public Map<PhotoId, Photo> getPhotosFromIds(Collection<PhotoId> ids) {
+		Map<PhotoId, Photo> result = new LinkedHashMap<PhotoId, Photo>();
+		List<PhotoId> missingIds = new ArrayList<PhotoId>();
+		for (PhotoId id : ids) {
+			Photo photo = doGetPhotoFromId(id);
+			result.put(id, photo);
+			if (photo == null) {
+				missingIds.add(id);
+			}
+		}
+
+		if (!missingIds.isEmpty()) {
+			Map<PhotoId, Photo> loadedPhotos = PhotoFactory.getInstance().loadPhotos(missingIds);
+			for (Photo photo : loadedPhotos.values()) {
+				doAddPhoto(photo);
+			}
+			for (PhotoId id : missingIds) {
+				Photo photo = loadedPhotos.get(id);
+				if (photo != null) {
+					result.put(id, photo);
+				} else {
+					result.remove(id);
+				}
+			}
+		}
+
+		return result;
+	}
+
 	/**
 	 * @methodtype get
 	 * @methodproperties primitive
@@ -143,31 +228,76 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Load all persisted photos. Executed when Wahlzeit is restarted.
+	 * Load all persisted photos. Executed when Wahlzeit is restarted. The meta data is streamed from the datastore in
+	 * chunks and each photo is available as soon as its chunk has arrived; the images are loaded in the background.
 	 */
 	public void loadPhotos() {
-		Collection<Photo> existingPhotos = ObjectifyService.run(new Work<Collection<Photo>>() {
+		final List<Photo> loadedPhotos = ObjectifyService.run(new Work<List<Photo>>() {
 			@Override
-			public Collection<Photo> run() {
-				Collection<Photo> existingPhotos = new ArrayList<Photo>();
-				readObjects(existingPhotos, Photo.class);
-				return existingPhotos;
+			public List<Photo> run() {
+				List<Photo> result = new ArrayList<Photo>();
+				for (Photo photo : readObjectsInChunks(Photo.class, PHOTO_CHUNK_SIZE)) {
+					if (!doHasPhoto(photo.getId())) {
+						LogBuilder.createSystemMessage(log, Level.CONFIG).
+								addParameter("Load Photo with ID", photo.getIdAsString()).log();
+						doAddPhoto(photo);
+						indexTags(photo);
+						result.add(photo);
+					} else {
+						LogBuilder.createSystemMessage(log, Level.CONFIG).
+								addParameter("Already loaded Photo", photo.getIdAsString()).log();
+					}
+				}
+				return result;
 			}
 		});
 
-		for (Photo photo : existingPhotos) {
-			if (!doHasPhoto(photo.getId())) {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Load Photo with ID", photo.getIdAsString()).toString());
-				loadScaledImages(photo);
-				doAddPhoto(photo);
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Already loaded Photo", photo.getIdAsString()).toString());
-			}
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("All photos loaded.").
+				addParameter("number of photos", loadedPhotos.size()).log();
+
+		startImageLoader(loadedPhotos);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected synchronized void startImageLoader(Collection<Photo> photos) {
+		if (imageLoader != null) {
+			imageLoader.stop();
 		}
 
-		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").toString());
+		imageLoader = new PhotoImageLoader(this, PhotoImageLoader.DEFAULT_NO_WORKERS, createThreadFactory());
+		imageLoader.start(photos);
+	}
+
+	/**
+	 * On App Engine, threads must be created via the ThreadManager; they end with the request that created them.
+	 *
+	 * @methodtype factory
+	 */
+	protected ThreadFactory createThreadFactory() {
+		if (ApiProxy.getCurrentEnvironment() != null) {
+			return ThreadManager.currentRequestThreadFactory();
+		}
+		return Executors.defaultThreadFactory();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized PhotoImageLoader getImageLoader() {
+		return imageLoader;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean hasImageCacheRoom() {
+		if (imageCache instanceof LruCache) {
+			LruCache<String, Image> lruCache = (LruCache<String, Image>) imageCache;
+			return lruCache.getEvictionCount() == 0 && lruCache.getWeight() < lruCache.getMaxWeight();
+		}
+		return true;
 	}
 
 	/**
@@ -179,36 +309,133 @@ public class PhotoManager extends ObjectManager {
 	}
 
 	/**
-	 * @methodtype command
+	 * Returns the image of the photo in the given size from the image cache; reloads it from the ImageStorage if it
+	 * has been evicted. Returns null if there is no such image. Concurrent requests for the same image that is not
+	 * cached share a single read from the ImageStorage.
 	 *
-	 * Loads all scaled Images of this Photo from Google Cloud Storage
+	 * @methodtype get
 	 */
-	protected void loadScaledImages(Photo photo) {
-		String photoIdAsString = photo.getId().asString();
-		ImageStorage imageStorage = ImageStorage.getInstance();
+	public Image getImage(PhotoId id, PhotoSize photoSize) {
+		if (id == null || id.isNullId()) {
+			return null;
+		}
 
-		for (PhotoSize photoSize : PhotoSize.values()) {
-			log.config(LogBuilder.createSystemMessage().
-					addAction("loading image").
-					addParameter("image size", photoSize.asString()).
-					addParameter("photo ID", photoIdAsString).toString());
-			if (imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-				try {
-					Serializable rawImage = imageStorage.readImage(photoIdAsString, photoSize.asInt());
-					if (rawImage != null && rawImage instanceof Image) {
-						photo.setImage(photoSize, (Image) rawImage);
+		Image result = doGetImage(id, photoSize);
+
+		if (result == null) {
+			result = loadImageOnce(id, photoSize);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Reads the image from the ImageStorage and adds it to the image cache. If the same image is already being read
+	 * by another thread, waits for that read instead of starting another one.
+	 *
+	 * @methodtype command
+	 */
+	protected Image loadImageOnce(final PhotoId id, final PhotoSize photoSize) {
+		final String key = asImageKey(id, photoSize);
+		FutureTask<Image> load = new FutureTask<Image>(new Callable<Image>() {
+			@Override
+			public Image call() {
+				// it may have been added while this task was created
+				Image result = doGetImage(id, photoSize);
+				if (result == null) {
+					result = loadImage(id, photoSize);
+					if (result != null) {
+						result = doAddImage(id, photoSize, result);
 					}
-				} catch (IOException e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addParameter("size", photoSize.asString()).
-							addParameter("photo ID", photoIdAsString).
-							addException("Could not load image although it exists", e).toString());
 				}
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Size does not exist", photoSize.asString()).toString());
+				return result;
+			}
+		});
+
+		FutureTask<Image> runningLoad = imageLoads.putIfAbsent(key, load);
+		if (runningLoad == null) {
+			try {
+				load.run();
+			} finally {
+				imageLoads.remove(key, load);
+			}
+			runningLoad = load;
+		}
+
+		try {
+			return runningLoad.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException("Could not load image " + key, cause);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 * @methodproperties primitive
+	 */
+	protected Image doGetImage(PhotoId id, PhotoSize photoSize) {
+		return imageCache.find(asImageKey(id, photoSize));
+	}
+
+	/**
+	 * Adds the image to the image cache unless another thread was faster; returns the cached image.
+	 *
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected Image doAddImage(PhotoId id, PhotoSize photoSize, Image image) {
+		String key = asImageKey(id, photoSize);
+		synchronized (imageCache) {
+			Image result = imageCache.find(key);
+			if (result == null) {
+				result = imageCache.insert(key, image);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Reads the image from the ImageStorage; returns null if it does not exist or can not be read.
+	 *
+	 * @methodtype helper
+	 */
+	protected Image loadImage(PhotoId id, PhotoSize photoSize) {
+		String photoIdAsString = id.asString();
+		try {
+			Serializable rawImage = ImageStorage.getInstance().readImage(photoIdAsString, photoSize.asInt());
+			if (rawImage instanceof Image) {
+				return (Image) rawImage;
 			}
+		} catch (IOException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("size", photoSize.asString()).
+					addParameter("photo ID", photoIdAsString).
+					addException("Could not load image", e).toString());
 		}
+		return null;
+	}
+
+	/**
+	 * Same naming scheme as used by the ImageStorage adapters
+	 *
+	 * @methodtype conversion
+	 */
+	protected String asImageKey(PhotoId id, PhotoSize photoSize) {
+		return id.asString() + photoSize.asInt();
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setImageCache(Cache<String, Image> newImageCache) {
+		imageCache = newImageCache;
 	}
 
 	/**
@@ -230,14 +457,6 @@ public class PhotoManager extends ObjectManager {
 		}
 	}
 
-	/**
-	 * @methodtype helper
-	 */
-	public List<Tag> addTagsThatMatchCondition(List<Tag> tags, String condition) {
-		readObjects(tags, Tag.class, Tag.TEXT, condition);
-		return tags;
-	}
-
 	/**
 	 * @methodtype command
 	 *
@@ -253,20 +472,23 @@ public class PhotoManager extends ObjectManager {
 		do{
 			photoSize = PhotoSize.values()[it];
 			it++;
-			Image image = photo.getImage(photoSize);
+			Image image = photo.getLocalImage(photoSize);
 			if (image != null) {
 				try {
 					if (!imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
 						imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
 					}
+					// persisted, so the bounded image cache may take it over
+					doAddImage(photo.getId(), photoSize, image);
+					photo.releaseImage(photoSize);
 				} catch (Exception e) {
 					log.warning(LogBuilder.createSystemMessage().
 							addException("Problem when storing image", e).toString());
 					moreSizesExist = false;
 				}
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("No image for size", photoSize.asString()).toString());
+			} else if (doGetImage(photo.getId(), photoSize) == null) {
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("No image for size", photoSize.asString()).log();
 				moreSizesExist = false;
 			}
 		} while (it < PhotoSize.values().length && moreSizesExist);
@@ -285,9 +507,27 @@ public class PhotoManager extends ObjectManager {
 		photoTagCollector.collect(tags, photo);
 		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
 			Tag tag = new Tag(i.next(), photo.getId().asString());
-			log.config(LogBuilder.createSystemMessage().addParameter("Writing Tag", tag.asString()).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Writing Tag", tag.asString()).log();
 			writeObject(tag);
 		}
+
+		photoTagIndex.update(photo.getId(), tags);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void indexTags(Photo photo) {
+		Set<String> tags = new HashSet<String>();
+		photoTagCollector.collect(tags, photo);
+		photoTagIndex.update(photo.getId(), tags);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoTagIndex getPhotoTagIndex() {
+		return photoTagIndex;
 	}
 
 	/**
@@ -308,11 +548,19 @@ public class PhotoManager extends ObjectManager {
 	 *
 	 */
 	public Set<Photo> findPhotosByOwner(String ownerName) {
-		Set<Photo> result = new HashSet<Photo>();
-		readObjects(result, Photo.class, Photo.OWNER_ID, ownerName);
+		List<Photo> photos = new ArrayList<Photo>();
+		readObjects(photos, Photo.class, Photo.OWNER_ID, ownerName);
 
-		for (Iterator<Photo> i = result.iterator(); i.hasNext(); ) {
-			doAddPhoto(i.next());
+		// keep the cached copies, they may have changes that are not persisted yet
+		Set<Photo> result = new HashSet<Photo>();
+		for (Photo photo : photos) {
+			Photo cached = doGetPhotoFromId(photo.getId());
+			if (cached == null) {
+				doAddPhoto(photo);
+				indexTags(photo);
+				cached = photo;
+			}
+			result.add(cached);
 		}
 
 		return result;
@@ -343,8 +591,6 @@ public class PhotoManager extends ObjectManager {
 		PhotoId id = photo.getId();
 		assertIsNewPhoto(id);
 		doAddPhoto(photo);
-
-		GlobalsManager.getInstance().saveGlobals();
 	}
 
 	/**
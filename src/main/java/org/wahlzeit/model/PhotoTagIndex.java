@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory inverted index from tag conditions (as produced by the {@link PhotoTagCollector}, e.g. "un:name" or
+ * "tg:tag") to the ids of the photos that carry them. Each condition maps to a sorted array of photo ids (a posting
+ * list). Posting lists are never modified in place but replaced on update, so queries need no locking.
+ */
+public class PhotoTagIndex {
+
+	/**
+	 *
+	 */
+	protected static final int[] EMPTY_POSTINGS = new int[0];
+
+	/**
+	 * Maps a condition to the sorted ids of all photos matching it
+	 */
+	protected Map<String, int[]> postings = new ConcurrentHashMap<String, int[]>();
+
+	/**
+	 * Maps a photo id to the conditions it is currently indexed under; only accessed while holding the index lock
+	 */
+	protected Map<Integer, Set<String>> photoConditions = new HashMap<Integer, Set<String>>();
+
+	/**
+	 * Replaces all conditions of the photo with the given ones.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void update(PhotoId photoId, Set<String> conditions) {
+		int id = photoId.asInt();
+		Set<String> oldConditions = photoConditions.get(id);
+		if (oldConditions == null) {
+			oldConditions = Collections.emptySet();
+		}
+
+		for (String condition : oldConditions) {
+			if (!conditions.contains(condition)) {
+				postings.put(condition, doRemove(postings.get(condition), id));
+			}
+		}
+
+		for (String condition : conditions) {
+			if (!oldConditions.contains(condition)) {
+				postings.put(condition, doAdd(postings.get(condition), id));
+			}
+		}
+
+		if (conditions.isEmpty()) {
+			photoConditions.remove(id);
+		} else {
+			photoConditions.put(id, new HashSet<String>(conditions));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void remove(PhotoId photoId) {
+		update(photoId, Collections.<String>emptySet());
+	}
+
+	/**
+	 * Returns the sorted ids of all photos matching the condition. The result must not be modified.
+	 *
+	 * @methodtype get
+	 */
+	public int[] getPhotoIds(String condition) {
+		int[] result = postings.get(condition);
+		return (result == null) ? EMPTY_POSTINGS : result;
+	}
+
+	/**
+	 * Returns the sorted ids of all photos matching at least one of the conditions.
+	 *
+	 * @methodtype get
+	 */
+	public int[] getPhotoIdsMatchingAny(Collection<String> conditions) {
+		int[] result = EMPTY_POSTINGS;
+		for (String condition : conditions) {
+			result = union(result, getPhotoIds(condition));
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoConditions() {
+		int result = 0;
+		for (int[] ids : postings.values()) {
+			if (ids.length > 0) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static int[] doAdd(int[] ids, int id) {
+		if (ids == null) {
+			return new int[]{id};
+		}
+
+		int index = Arrays.binarySearch(ids, id);
+		if (index >= 0) {
+			return ids;
+		}
+
+		int insertionPoint = -(index + 1);
+		int[] result = new int[ids.length + 1];
+		System.arraycopy(ids, 0, result, 0, insertionPoint);
+		result[insertionPoint] = id;
+		System.arraycopy(ids, insertionPoint, result, insertionPoint + 1, ids.length - insertionPoint);
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static int[] doRemove(int[] ids, int id) {
+		if (ids == null) {
+			return EMPTY_POSTINGS;
+		}
+
+		int index = Arrays.binarySearch(ids, id);
+		if (index < 0) {
+			return ids;
+		}
+
+		int[] result = new int[ids.length - 1];
+		System.arraycopy(ids, 0, result, 0, index);
+		System.arraycopy(ids, index + 1, result, index, ids.length - index - 1);
+		return result;
+	}
+
+	/**
+	 * Merges two sorted posting lists.
+	 *
+	 * @methodtype helper
+	 */
+	protected static int[] union(int[] a, int[] b) {
+		if (a.length == 0) {
+			return b;
+		} else if (b.length == 0) {
+			return a;
+		}
+
+		int[] result = new int[a.length + b.length];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				result[k++] = a[i++];
+			} else if (a[i] > b[j]) {
+				result[k++] = b[j++];
+			} else {
+				result[k++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length) {
+			result[k++] = a[i++];
+		}
+		while (j < b.length) {
+			result[k++] = b[j++];
+		}
+		return (k == result.length) ? result : Arrays.copyOf(result, k);
+	}
+
+}
@@ -38,6 +38,10 @@ public class Tag extends DataObject {
 		incWriteCount();
 	}
 
+	public Long getId() {
+		return id;
+	}
+
 	public String getText() {
 		return text;
 	}
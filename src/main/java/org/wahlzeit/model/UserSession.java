@@ -26,8 +26,6 @@ import org.wahlzeit.utils.HtmlUtil;
 
 import javax.servlet.http.HttpSession;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -35,12 +33,20 @@ import java.util.logging.Logger;
 /**
  * Wrapper class for {@link HttpSession} to provide a readable interface for Wahlzeit.
  *
- * {@link HttpSession}s are managed automatically by Google App Engine.
+ * {@link HttpSession}s are managed automatically by Google App Engine, which writes a session to the datastore in
+ * every request that sets one of its attributes. Therefore, all properties are kept in one {@link UserSessionState}
+ * and changed there; flush() sets it in the <code>HttpSession</code> at the end of the request, and only if it has
+ * changed.
  */
 public class UserSession extends Session implements Serializable {
 
 	/**
-	 * Keys to store the according properties in the <code>HttpSession</code>
+	 * Key to store the UserSessionState in the <code>HttpSession</code>
+	 */
+	public static final String STATE = "state";
+
+	/**
+	 * Keys of the properties in <code>HttpSession</code>s that were created before the UserSessionState
 	 */
 	public static final String PHOTO_CASE = "photoCase";
 	public static final String PHOTO_FILTER = "photoFilter";
@@ -53,20 +59,31 @@ public class UserSession extends Session implements Serializable {
 	public static final String INITIALIZED = "initialized";
 	public static final String ANONYMOUS_CLIENT = "anon";
 
-
 	private static Logger log = Logger.getLogger(UserSession.class.getName());
 
 	protected HttpSession httpSession;
 
+	/**
+	 *
+	 */
+	protected UserSessionState state;
+
 	/**
 	 *
 	 */
 	public UserSession(String myName, String mySiteUrl, HttpSession myHttpSession, String myLanguage) {
 		httpSession = myHttpSession;
 		initialize(myName);
-		if (httpSession.getAttribute(INITIALIZED) == null) {
-			httpSession.setAttribute(SITE_URL, mySiteUrl);
-			httpSession.setAttribute(PHOTO_FILTER, PhotoFactory.getInstance().createPhotoFilter());
+
+		state = (UserSessionState) httpSession.getAttribute(STATE);
+		if (state == null && httpSession.getAttribute(INITIALIZED) != null) {
+			state = readLegacyState();
+		}
+
+		if (state == null) {
+			state = new UserSessionState();
+			state.setSiteUrl(mySiteUrl);
+			state.setPhotoFilter(PhotoFactory.getInstance().createPhotoFilter());
 
 			setClient(new Guest());
 			try {
@@ -75,25 +92,71 @@ public class UserSession extends Session implements Serializable {
 			} catch (IllegalArgumentException e) {
 				// default language of guest is english
 			}
+		}
+	}
+
+	/**
+	 * Reads the properties of a session that was created before the UserSessionState, one attribute each.
+	 *
+	 * @methodtype factory
+	 */
+	protected UserSessionState readLegacyState() {
+		UserSessionState result = new UserSessionState();
+		result.siteUrl = (String) httpSession.getAttribute(SITE_URL);
+		result.clientId = (String) httpSession.getAttribute(CLIENT_ID);
+
+		PhotoFilter photoFilter = (PhotoFilter) httpSession.getAttribute(PHOTO_FILTER);
+		result.photoFilter = (photoFilter != null) ? photoFilter : PhotoFactory.getInstance().createPhotoFilter();
+
+		Set<Photo> praisedPhotos = (Set<Photo>) httpSession.getAttribute(PRAISED_PHOTOS);
+		if (praisedPhotos != null) {
+			for (Photo photo : praisedPhotos) {
+				result.praisedPhotoIds.add(photo.getId());
+			}
+		}
+		Map<String, Object> savedArgs = (Map<String, Object>) httpSession.getAttribute(SAVED_ARGS);
+		if (savedArgs != null) {
+			result.savedArgs = savedArgs;
+		}
+
+		result.message = (String) httpSession.getAttribute(MESSAGE);
+		result.heading = (String) httpSession.getAttribute(HEADING);
+		result.photoId = (PhotoId) httpSession.getAttribute(Photo.ID);
+		result.photoCase = (PhotoCase) httpSession.getAttribute(PHOTO_CASE);
 
-			clearDisplayedPhotos();
-			clearPraisedPhotos();
-			clearSavedArgs();
-			httpSession.setAttribute(INITIALIZED, INITIALIZED);
+		// written as a whole at the end of the request
+		result.incWriteCount();
+		return result;
+	}
 
+	/**
+	 * Sets the state in the <code>HttpSession</code> if it has changed during this request.
+	 *
+	 * @methodtype command
+	 */
+	public void flush() {
+		if (state.isDirty()) {
+			httpSession.setAttribute(STATE, state);
+			state.resetWriteCount();
 		}
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public UserSessionState getState() {
+		return state;
+	}
+
 	/**
 	 *
 	 */
 	public void clearDisplayedPhotos() {
-		PhotoFilter photoFilter = (PhotoFilter) httpSession.getAttribute(PHOTO_FILTER);
+		PhotoFilter photoFilter = state.getPhotoFilter();
 		if (photoFilter != null) {
 			photoFilter.clear();
-			httpSession.setAttribute(PHOTO_FILTER, photoFilter);
 		} else {
-			log.warning("No PhotoFilter found in HttpSession to clear.");
+			log.warning("No PhotoFilter found in UserSession to clear.");
 		}
 	}
 
@@ -101,14 +164,14 @@ public class UserSession extends Session implements Serializable {
 	 *
 	 */
 	public void clearPraisedPhotos() {
-		httpSession.setAttribute(PRAISED_PHOTOS, new HashSet<Photo>());
+		state.clearPraisedPhotos();
 	}
 
 	/**
 	 * @methodtype init
 	 */
 	public void clearSavedArgs() {
-		httpSession.setAttribute(SAVED_ARGS, new HashMap<String, Object>());
+		state.clearSavedArgs();
 	}
 
 	/**
@@ -123,39 +186,28 @@ public class UserSession extends Session implements Serializable {
 	 * @methodtype get
 	 */
 	public String getSiteUrl() {
-		return (String) httpSession.getAttribute(SITE_URL);
-	}
-
-	@Override
-	protected void notifyNameChanged() {
-		httpSession.setAttribute(Session.NAME, super.getName());
+		return state.getSiteUrl();
 	}
 
 	/**
 	 * @methodtype convert Returns some signifier of current user
 	 */
 	public String getClientId() {
-		return (String) httpSession.getAttribute(CLIENT_ID);
-	}
-
-	@Override
-	protected void notifyProcessingTimeChanged() {
-		httpSession.setAttribute(Session.PROCESSING_TIME, super.getProcessingTime());
+		return state.getClientId();
 	}
 
 	/**
 	 * @methodtype get
 	 */
 	public Client getClient() {
-		String clientName = (String) httpSession.getAttribute(CLIENT_ID);
-		return UserManager.getInstance().getClientById(clientName);
+		return UserManager.getInstance().getClientById(state.getClientId());
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setClient(Client newClient) {
-		String previousClientId = (String) httpSession.getAttribute(CLIENT_ID);
+		String previousClientId = state.getClientId();
 		if (previousClientId != null) {
 			Client previousClient = UserManager.getInstance().getClientById(previousClientId);
 			if (previousClient instanceof Guest) {
@@ -163,7 +215,7 @@ public class UserSession extends Session implements Serializable {
 			}
 		}
 
-		httpSession.setAttribute(CLIENT_ID, newClient.getId());
+		state.setClientId(newClient.getId());
 		UserManager.getInstance().addHttpSessionIdToClientMapping(httpSession.getId(), newClient);
 	}
 
@@ -171,32 +223,25 @@ public class UserSession extends Session implements Serializable {
 	 *
 	 */
 	public PhotoFilter getPhotoFilter() {
-		return (PhotoFilter) httpSession.getAttribute(PHOTO_FILTER);
+		return state.getPhotoFilter();
 	}
 
 	/**
 	 * @methodtype boolean query
 	 */
 	public boolean hasPraisedPhoto(Photo photo) {
-		Set praisedPhotos = (Set) httpSession.getAttribute(PRAISED_PHOTOS);
-		if (praisedPhotos != null) {
-			return praisedPhotos.contains(photo);
-		} else {
-			log.warning("Found no set of praised Photos to search for Photo.");
-			return false;
-		}
+		return state.hasPraisedPhoto(photo);
 	}
 
 	/**
 	 *
 	 */
 	public void addProcessedPhoto(Photo photo) {
-		PhotoFilter photoFilter = (PhotoFilter) httpSession.getAttribute(PHOTO_FILTER);
+		PhotoFilter photoFilter = state.getPhotoFilter();
 		if (photoFilter != null) {
 			photoFilter.addProcessedPhoto(photo);
-			httpSession.setAttribute(PHOTO_FILTER, photoFilter);
 		} else {
-			log.warning("No PhotoFilter found in HttpSession to add Photo.");
+			log.warning("No PhotoFilter found in UserSession to add Photo.");
 		}
 	}
 
@@ -204,70 +249,70 @@ public class UserSession extends Session implements Serializable {
 	 * @methodtype get
 	 */
 	public String getHeading() {
-		return (String) httpSession.getAttribute(HEADING);
+		return state.getHeading();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setHeading(String myHeading) {
-		httpSession.setAttribute(HEADING, myHeading);
+		state.setHeading(myHeading);
 	}
 
 	/**
 	 * @methodtype get
 	 */
 	public String getMessage() {
-		return (String) httpSession.getAttribute(MESSAGE);
+		return state.getMessage();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setMessage(String myMessage) {
-		httpSession.setAttribute(MESSAGE, HtmlUtil.asP(myMessage));
+		state.setMessage(HtmlUtil.asP(myMessage));
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setTwoLineMessage(String msg1, String msg2) {
-		httpSession.setAttribute(MESSAGE, HtmlUtil.asP(msg1) + HtmlUtil.asP(msg2));
+		state.setMessage(HtmlUtil.asP(msg1) + HtmlUtil.asP(msg2));
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setThreeLineMessage(String msg1, String msg2, String msg3) {
-		httpSession.setAttribute(MESSAGE, HtmlUtil.asP(msg1) + HtmlUtil.asP(msg2) + HtmlUtil.asP(msg3));
+		state.setMessage(HtmlUtil.asP(msg1) + HtmlUtil.asP(msg2) + HtmlUtil.asP(msg3));
 	}
 
 	/**
 	 * @methodtype get
 	 */
 	public PhotoId getPhotoId() {
-		return (PhotoId) httpSession.getAttribute(Photo.ID);
+		return state.getPhotoId();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setPhotoId(PhotoId newPhotoId) {
-		httpSession.setAttribute(Photo.ID, newPhotoId);
+		state.setPhotoId(newPhotoId);
 	}
 
 	/**
 	 * @methodtype get
 	 */
 	public PhotoCase getPhotoCase() {
-		return (PhotoCase) httpSession.getAttribute(PHOTO_CASE);
+		return state.getPhotoCase();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setPhotoCase(PhotoCase photoCase) {
-		httpSession.setAttribute(PHOTO_CASE, photoCase);
+		state.setPhotoCase(photoCase);
 	}
 
 	/**
@@ -287,8 +332,7 @@ public class UserSession extends Session implements Serializable {
 	 * @methodtype get
 	 */
 	public Object getSavedArg(String key) {
-		Map<String, Object> savedArgs = (Map<String, Object>) httpSession.getAttribute(SAVED_ARGS);
-		return savedArgs.get(key);
+		return state.getSavedArg(key);
 	}
 
 	/**
@@ -333,16 +377,14 @@ public class UserSession extends Session implements Serializable {
 	 * @methodtype set
 	 */
 	public void setSavedArg(String key, Object value) {
-		Map<String, Object> savedArgs = getSavedArgs();
-		savedArgs.put(key, value);
-		httpSession.setAttribute(SAVED_ARGS, savedArgs);
+		state.setSavedArg(key, value);
 	}
 
 	/**
 	 * @methodtype get
 	 */
 	public Map<String, Object> getSavedArgs() {
-		return (Map<String, Object>) httpSession.getAttribute(SAVED_ARGS);
+		return state.getSavedArgs();
 	}
 
 }
@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.utils.CompactDataInput;
+import org.wahlzeit.utils.CompactDataOutput;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The state of a UserSession, kept as a single attribute of the HttpSession. App Engine writes the HttpSession to
+ * the datastore in every request that sets an attribute, so the state tracks its modifications like a DataObject,
+ * and the UserSession sets it once at the end of a request, and only if it is dirty.
+ *
+ * The PhotoFilter is handed out to handlers that modify it; it tracks its own modifications.
+ *
+ * Sessions are serialized on every write, so the state uses a compact format instead of default serialization: a
+ * format version, then photo ids as variable length ints and strings through a dictionary, see CompactDataOutput.
+ * Saved arguments that are not strings and the photo case are rare and use default serialization.
+ */
+public class UserSessionState implements Externalizable {
+
+	/**
+	 * Fixed, so that stored sessions stay readable when the class changes; FORMAT_VERSION tracks the format
+	 */
+	private static final long serialVersionUID = -1711854186809664164L;
+
+	/**
+	 * Version of the serialized format; increase it and keep reading older versions when the format changes
+	 */
+	public static final int FORMAT_VERSION = 2;
+
+	/**
+	 * Type codes of saved arguments
+	 */
+	protected static final int NULL_ARG = 0;
+	protected static final int STRING_ARG = 1;
+	protected static final int OBJECT_ARG = 2;
+
+	/**
+	 *
+	 */
+	protected String siteUrl = "";
+	protected String clientId = null;
+
+	/**
+	 *
+	 */
+	protected PhotoFilter photoFilter = null;
+	protected PhotoIdSet praisedPhotoIds = new PhotoIdSet();
+	protected Map<String, Object> savedArgs = new HashMap<String, Object>();
+
+	/**
+	 *
+	 */
+	protected String message = null;
+	protected String heading = null;
+	protected PhotoId photoId = null;
+	protected PhotoCase photoCase = null;
+
+	/**
+	 *
+	 */
+	protected transient int writeCount = 0;
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isDirty() {
+		return (writeCount != 0) || ((photoFilter != null) && photoFilter.isDirty());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void incWriteCount() {
+		writeCount++;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void resetWriteCount() {
+		writeCount = 0;
+		if (photoFilter != null) {
+			photoFilter.resetWriteCount();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getSiteUrl() {
+		return siteUrl;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setSiteUrl(String newSiteUrl) {
+		siteUrl = newSiteUrl;
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setClientId(String newClientId) {
+		clientId = newClientId;
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoFilter getPhotoFilter() {
+		return photoFilter;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setPhotoFilter(PhotoFilter newPhotoFilter) {
+		photoFilter = newPhotoFilter;
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasPraisedPhoto(Photo photo) {
+		return praisedPhotoIds.contains(photo.getId());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clearPraisedPhotos() {
+		if (!praisedPhotoIds.isEmpty()) {
+			praisedPhotoIds = new PhotoIdSet();
+			incWriteCount();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Object getSavedArg(String key) {
+		return savedArgs.get(key);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setSavedArg(String key, Object value) {
+		savedArgs.put(key, value);
+		incWriteCount();
+	}
+
+	/**
+	 * @return a read-only view of the saved arguments
+	 * @methodtype get
+	 */
+	public Map<String, Object> getSavedArgs() {
+		return Collections.unmodifiableMap(savedArgs);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clearSavedArgs() {
+		if (!savedArgs.isEmpty()) {
+			savedArgs = new HashMap<String, Object>();
+			incWriteCount();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setMessage(String newMessage) {
+		message = newMessage;
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getHeading() {
+		return heading;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setHeading(String newHeading) {
+		heading = newHeading;
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoId getPhotoId() {
+		return photoId;
+	}
+
+	/**
+	 * Setting the same photo id again does not make the state dirty; guests request the same photo repeatedly.
+	 *
+	 * @methodtype set
+	 */
+	public void setPhotoId(PhotoId newPhotoId) {
+		if ((photoId == null) ? (newPhotoId != null) : !photoId.equals(newPhotoId)) {
+			photoId = newPhotoId;
+			incWriteCount();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoCase getPhotoCase() {
+		return photoCase;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setPhotoCase(PhotoCase newPhotoCase) {
+		photoCase = newPhotoCase;
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeByte(FORMAT_VERSION);
+		CompactDataOutput cout = new CompactDataOutput(out);
+
+		cout.writeString(siteUrl);
+		cout.writeString(clientId);
+		cout.writeString(message);
+		cout.writeString(heading);
+		cout.writeVarInt((photoId == null) ? 0 : photoId.asInt() + 1);
+		cout.writeSortedInts(praisedPhotoIds.toIntArray());
+
+		out.writeBoolean(photoFilter != null);
+		if (photoFilter != null) {
+			photoFilter.writeCompact(cout);
+		}
+
+		cout.writeVarInt(savedArgs.size());
+		for (Map.Entry<String, Object> savedArg : savedArgs.entrySet()) {
+			cout.writeString(savedArg.getKey());
+			Object value = savedArg.getValue();
+			if (value == null) {
+				cout.writeVarInt(NULL_ARG);
+			} else if (value instanceof String) {
+				cout.writeVarInt(STRING_ARG);
+				cout.writeString((String) value);
+			} else {
+				cout.writeVarInt(OBJECT_ARG);
+				out.writeObject(value);
+			}
+		}
+
+		out.writeObject(photoCase);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		int version = in.readUnsignedByte();
+		if ((version < 1) || (version > FORMAT_VERSION)) {
+			throw new InvalidClassException(UserSessionState.class.getName(), "Unknown format version " + version);
+		}
+		CompactDataInput cin = new CompactDataInput(in);
+
+		siteUrl = cin.readString();
+		clientId = cin.readString();
+		message = cin.readString();
+		heading = cin.readString();
+		int photoIdAsInt = cin.readVarInt();
+		photoId = (photoIdAsInt == 0) ? null : PhotoId.getIdFromInt(photoIdAsInt - 1);
+		praisedPhotoIds = PhotoFilter.asPhotoIdSet(cin.readSortedInts());
+
+		photoFilter = null;
+		if (in.readBoolean()) {
+			photoFilter = new PhotoFilter();
+			photoFilter.readCompact(cin, version);
+		}
+
+		int noSavedArgs = cin.readLength();
+		savedArgs = new HashMap<String, Object>(noSavedArgs * 2);
+		for (int i = 0; i < noSavedArgs; i++) {
+			String key = cin.readString();
+			int type = cin.readVarInt();
+			if (type == STRING_ARG) {
+				savedArgs.put(key, cin.readString());
+			} else if (type == OBJECT_ARG) {
+				savedArgs.put(key, in.readObject());
+			} else {
+				savedArgs.put(key, null);
+			}
+		}
+
+		photoCase = (PhotoCase) in.readObject();
+		writeCount = 0;
+	}
+
+}
@@ -6,6 +6,8 @@ public interface Cache<Key, Value> {
 
     Value get(Key key);
 
+    Value find(Key key);
+
     Value insert(Key key, Value value);
 
     Value getOrInsert(Key key, Value value);
@@ -0,0 +1,163 @@
+package org.wahlzeit.model.cache;
+
+import org.wahlzeit.utils.AssertUtil;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe cache that is bounded by the total weight of its values. When the bound is exceeded, the least
+ * recently used values are evicted. The weight of a value is determined by a pluggable {@link Weigher}; by default
+ * every value weighs 1, so the bound is the number of entries.
+ */
+public class LruCache<Key, Value> implements Cache<Key, Value> {
+
+    private final LinkedHashMap<Key, Value> values;
+    private final Weigher<Value> weigher;
+    private final long maxWeight;
+
+    private long weight = 0;
+    private long evictionCount = 0;
+
+    public LruCache(long maxSize) {
+        this(maxSize, new Weigher<Value>() {
+            @Override
+            public int weigh(Value value) {
+                return 1;
+            }
+        });
+    }
+
+    public LruCache(long maxWeight, Weigher<Value> weigher) {
+        AssertUtil.assertArgumentIsNotNull(weigher, "weigher");
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Maximum weight must be positive");
+        }
+
+        this.values = new LinkedHashMap<>(16, 0.75f, true);
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+    }
+
+    @Override
+    public synchronized boolean contains(Key key) {
+        AssertUtil.assertArgumentIsNotNull(key, "key");
+
+        return values.containsKey(key);
+    }
+
+    @Override
+    public synchronized Value get(Key key) {
+        AssertUtil.assertArgumentIsNotNull(key, "key");
+
+        final Value value = values.get(key);
+        if (value == null) {
+            throw new NullPointerException("Key not found");
+        }
+
+        return value;
+    }
+
+    @Override
+    public synchronized Value find(Key key) {
+        AssertUtil.assertArgumentIsNotNull(key, "key");
+
+        return values.get(key);
+    }
+
+    @Override
+    public synchronized Value insert(Key key, Value value) {
+        AssertUtil.assertArgumentIsNotNull(key, "key");
+        AssertUtil.assertArgumentIsNotNull(value, "value");
+
+        if (values.containsKey(key)) {
+            throw new IllegalStateException("Key already exists");
+        }
+
+        doInsert(key, value);
+        return value;
+    }
+
+    @Override
+    public synchronized Value getOrInsert(Key key, Value value) {
+        AssertUtil.assertArgumentIsNotNull(key, "key");
+        AssertUtil.assertArgumentIsNotNull(value, "value");
+
+        final Value val = values.get(key);
+        if (val != null) {
+            if (!value.equals(val)) {
+                throw new IllegalArgumentException("Parameter and stored value are different");
+            }
+
+            return val;
+        }
+
+        doInsert(key, value);
+        return value;
+    }
+
+    @Override
+    public synchronized void delete(Key key) {
+        AssertUtil.assertArgumentIsNotNull(key, "key");
+
+        if (!values.containsKey(key)) {
+            throw new IllegalArgumentException("The key " + key + " does not exist");
+        }
+
+        weight -= weigher.weigh(values.remove(key));
+    }
+
+    /**
+     * @methodtype get
+     */
+    public synchronized int size() {
+        return values.size();
+    }
+
+    /**
+     * @methodtype get
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * @methodtype get
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @methodtype get
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @methodtype command
+     * @methodproperty primitive
+     */
+    private void doInsert(Key key, Value value) {
+        values.put(key, value);
+        weight += weigher.weigh(value);
+        evict();
+    }
+
+    /**
+     * Removes the least recently used values until the cache is within its bound again. A single value that is
+     * heavier than the bound is not kept at all.
+     *
+     * @methodtype command
+     */
+    private void evict() {
+        Iterator<Map.Entry<Key, Value>> eldest = values.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= weigher.weigh(eldest.next().getValue());
+            eldest.remove();
+            evictionCount++;
+        }
+    }
+}
@@ -31,6 +31,13 @@ public class ObjectCache<Key, Value> implements Cache<Key, Value> {
         return values.get(key);
     }
 
+    @Override
+    public synchronized Value find(Key key) {
+        AssertUtil.assertArgumentIsNotNull(key, "key");
+
+        return values.get(key);
+    }
+
     @Override
     public synchronized Value insert(Key key, Value value) {
         if (!values.containsKey(key)) {
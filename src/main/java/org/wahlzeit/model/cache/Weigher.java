@@ -0,0 +1,9 @@
+package org.wahlzeit.model.cache;
+
+/**
+ * Calculates how much of the capacity of a bounded cache a value occupies, e.g. the number of bytes of an image.
+ */
+public interface Weigher<Value> {
+
+    int weigh(Value value);
+}
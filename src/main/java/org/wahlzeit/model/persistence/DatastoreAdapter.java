@@ -22,6 +22,7 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Entity;
@@ -33,6 +34,7 @@ import org.wahlzeit.utils.PatternInstance;
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -64,7 +66,7 @@ public class DatastoreAdapter extends ImageStorage {
 				}
 			});
 
-			log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully written").log();
 		} else {
 			log.warning(LogBuilder.createSystemMessage().
 					addMessage("did not get an Image type to store").
@@ -84,11 +86,11 @@ public class DatastoreAdapter extends ImageStorage {
 		});
 
 		if (imageWrapper == null) {
-			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).addMessage("does not exist!").log();
 		} else {
 			result = imageWrapper.getImage();
 			if (result != null) {
-				log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully read").log();
 			} else {
 				log.warning(LogBuilder.createSystemMessage().addMessage("ImageWrapper contains no Image").toString());
 			}
@@ -97,20 +99,16 @@ public class DatastoreAdapter extends ImageStorage {
 	}
 
 	@Override
-	protected boolean doDoesImageExist(String photoIdAsString, int size) {
-		Image image = null;
-		boolean result = false;
-		try {
-			image = doReadImage(photoIdAsString, size);
-		} catch (IOException e) {
-			log.warning(
-					LogBuilder.createSystemMessage().addException("IOException when checking for Image existance", e)
-							.toString());
-		}
-		if (image != null) {
-			result = true;
-		}
-		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
+	protected boolean doDoesImageExist(final String photoIdAsString, final int size) {
+		// a get by key is strongly consistent, unlike a query for the key
+		boolean result = ObjectifyService.run(new Work<Boolean>() {
+			@Override
+			public Boolean run() {
+				Key<ImageWrapper> key = Key.create(ImageWrapper.class, photoIdAsString + size);
+				return OfyService.ofy().load().key(key).now() != null;
+			}
+		});
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("does image exist", result).log();
 		return result;
 	}
 
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Adapter for the local file system, for self-hosted installations. Images are stored below the photos directory of
+ * the {@link SysConfig} in two levels of shard directories, so that no directory holds too many files:
+ *
+ * photosDir/ab/cd/photoIdAsString-size
+ *
+ * where ab and cd are derived from a hash of the photo id. A new image is written to a temporary file next to its
+ * target and then renamed, so that readers never see a partially written image. Images are read through memory-mapped
+ * channels, and {@link #openImageChannel(String, int)} lets callers send the file with FileChannel.transferTo() without
+ * loading it into the heap.
+ *
+ * @review
+ */
+public class FileSystemAdapter extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(FileSystemAdapter.class.getName());
+
+	/**
+	 *
+	 */
+	protected static final String TEMP_FILE_SUFFIX = ".tmp";
+
+	/**
+	 *
+	 */
+	private final Path rootDir;
+
+	/**
+	 * Stores the images in the photos directory of the SysConfig.
+	 */
+	public FileSystemAdapter() {
+		this(Paths.get(SysConfig.getPhotosDir().asString()));
+	}
+
+	/**
+	 *
+	 */
+	public FileSystemAdapter(Path rootDir) {
+		this.rootDir = rootDir;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Path getRootDir() {
+		return rootDir;
+	}
+
+
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+
+		if (!(image instanceof Image)) {
+			throw new InvalidParameterException("not an Image object!");
+		}
+
+		Path target = getImagePath(photoIdAsString, size);
+		Files.createDirectories(target.getParent());
+
+		Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), TEMP_FILE_SUFFIX);
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				ByteBuffer data = ByteBuffer.wrap(((Image) image).getImageData());
+				while (data.hasRemaining()) {
+					channel.write(data);
+				}
+				channel.force(false);
+			}
+			moveAtomically(temp, target);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addMessage("image successfully written").
+				addParameter("path", target).log();
+	}
+
+	/**
+	 * Renames the file to the target, replacing an existing one. Falls back to a non-atomic move if the file system
+	 * does not support atomic ones.
+	 *
+	 * @methodtype command
+	 */
+	protected void moveAtomically(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Override
+	protected Image doReadImage(String photoIdAsString, int size) throws IOException {
+		Path path = getImagePath(photoIdAsString, size);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			// the Image API only accepts byte arrays
+			byte[] imageData = new byte[buffer.remaining()];
+			buffer.get(imageData);
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully read").log();
+			return ImagesServiceFactory.makeImage(imageData);
+		} catch (NoSuchFileException ex) {
+			LogBuilder.createSystemMessage(log, Level.INFO).addMessage("does not exist!").log();
+			return null;
+		}
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		boolean result = Files.isRegularFile(getImagePath(photoIdAsString, size));
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("does image exist", result).log();
+		return result;
+	}
+
+	@Override
+	protected FileChannel doOpenImageChannel(String photoIdAsString, int size) throws IOException {
+		try {
+			return FileChannel.open(getImagePath(photoIdAsString, size), StandardOpenOption.READ);
+		} catch (NoSuchFileException ex) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * @methodtype get
+	 */
+	protected Path getImagePath(String photoIdAsString, int size) {
+		int hash = Hashing.murmur3_32().hashString(photoIdAsString, Charsets.UTF_8).asInt();
+		String firstShard = String.format("%02x", hash & 0xff);
+		String secondShard = String.format("%02x", (hash >>> 8) & 0xff);
+		return rootDir.resolve(firstShard).resolve(secondShard).resolve(photoIdAsString + "-" + size);
+	}
+}
@@ -0,0 +1,315 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.common.hash.Hashing;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.OfyService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Index of the images in an {@link ImageStorage}, so that existence checks and reads of missing images need no blob
+ * I/O. For each photo, it records which sizes are known to exist or not to exist, and the byte length and content
+ * hash of each written image. The index is kept in memory and persisted in the Google Datastore, one small Entity
+ * per photo, independent of where the images themselves are stored.
+ *
+ * Images written before the index existed are unknown to it; their existence is checked in the storage until it is
+ * found, and then recorded.
+ *
+ * @review
+ */
+public class ImageIndex {
+
+	private static final Logger log = Logger.getLogger(ImageIndex.class.getName());
+
+	/**
+	 *
+	 */
+	public static final long UNKNOWN_LENGTH = -1;
+
+	/**
+	 * Time in milliseconds after which an entry that says an image does not exist is read from the datastore again
+	 */
+	public static final long MAX_NEGATIVE_AGE = 60 * 1000;
+
+	/**
+	 * Index entries by photo id; entries are loaded from the datastore on first access
+	 */
+	protected ConcurrentMap<String, ImageIndexEntry> entries = new ConcurrentHashMap<String, ImageIndexEntry>();
+
+	/**
+	 * @return TRUE or FALSE if the existence of the image is known, null otherwise
+	 * @methodtype get
+	 */
+	public Boolean doesImageExist(String photoIdAsString, int size) {
+		ImageIndexEntry entry = getEntry(photoIdAsString);
+		if (!entry.exists(size) && entry.isOlderThan(MAX_NEGATIVE_AGE)) {
+			// the image may have been written by another instance meanwhile
+			entry = reloadEntry(photoIdAsString);
+		}
+
+		synchronized (entry) {
+			if (!entry.isKnown(size)) {
+				return null;
+			}
+			return entry.exists(size);
+		}
+	}
+
+	/**
+	 * @return the number of bytes of the image or UNKNOWN_LENGTH
+	 * @methodtype get
+	 */
+	public long getByteLength(String photoIdAsString, int size) {
+		ImageIndexEntry entry = getEntry(photoIdAsString);
+		synchronized (entry) {
+			return entry.getByteLength(size);
+		}
+	}
+
+	/**
+	 * @return the content hash of the image or null if it is unknown
+	 * @methodtype get
+	 */
+	public String getContentHash(String photoIdAsString, int size) {
+		ImageIndexEntry entry = getEntry(photoIdAsString);
+		synchronized (entry) {
+			return entry.getContentHash(size);
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasContent(String photoIdAsString, int size, byte[] data) {
+		String contentHash = getContentHash(photoIdAsString, size);
+		return contentHash != null && contentHash.equals(asContentHash(data));
+	}
+
+	/**
+	 * Records that the image has been written to the storage.
+	 *
+	 * @methodtype command
+	 */
+	public void addImage(String photoIdAsString, int size, byte[] data) {
+		ImageIndexEntry entry = reloadEntry(photoIdAsString);
+		synchronized (entry) {
+			entry.setImage(size, data.length, asContentHash(data));
+			saveEntry(entry);
+		}
+	}
+
+	/**
+	 * Records the result of an existence check in the storage itself, e.g. for images written before the index.
+	 *
+	 * @methodtype command
+	 */
+	public void addExistence(String photoIdAsString, int size, boolean exists) {
+		ImageIndexEntry entry = reloadEntry(photoIdAsString);
+		synchronized (entry) {
+			if (exists) {
+				entry.setImage(size, UNKNOWN_LENGTH, null);
+			} else {
+				entry.setMissing(size);
+			}
+			saveEntry(entry);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected ImageIndexEntry getEntry(String photoIdAsString) {
+		ImageIndexEntry result = entries.get(photoIdAsString);
+		if (result == null) {
+			result = loadEntry(photoIdAsString);
+			ImageIndexEntry other = entries.putIfAbsent(photoIdAsString, result);
+			if (other != null) {
+				result = other;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the entry from the datastore again, so that changes by other instances are not overwritten.
+	 *
+	 * @methodtype command
+	 */
+	protected ImageIndexEntry reloadEntry(String photoIdAsString) {
+		ImageIndexEntry result = loadEntry(photoIdAsString);
+		entries.put(photoIdAsString, result);
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected ImageIndexEntry loadEntry(final String photoIdAsString) {
+		ImageIndexEntry result = null;
+		try {
+			result = ObjectifyService.run(new Work<ImageIndexEntry>() {
+				@Override
+				public ImageIndexEntry run() {
+					return OfyService.ofy().load().type(ImageIndexEntry.class).id(photoIdAsString).now();
+				}
+			});
+		} catch (RuntimeException ex) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("photo id", photoIdAsString).
+					addException("Could not load image index entry", ex).toString());
+			// keep what this instance knows
+			result = entries.get(photoIdAsString);
+		}
+
+		if (result == null) {
+			result = new ImageIndexEntry(photoIdAsString);
+		}
+		result.loadTime = System.currentTimeMillis();
+		return result;
+	}
+
+	/**
+	 * An index that can not be persisted still works for this instance, so failures are only logged.
+	 *
+	 * @methodtype helper
+	 */
+	protected void saveEntry(final ImageIndexEntry entry) {
+		try {
+			ObjectifyService.run(new Work<Void>() {
+				@Override
+				public Void run() {
+					OfyService.ofy().save().entity(entry).now();
+					return null;
+				}
+			});
+		} catch (RuntimeException ex) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("photo id", entry.id).
+					addException("Could not save image index entry", ex).toString());
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String asContentHash(byte[] data) {
+		return Hashing.sha1().hashBytes(data).toString();
+	}
+
+	/**
+	 * The index data of all sizes of one photo.
+	 */
+	@Entity
+	public static class ImageIndexEntry {
+
+		@Id
+		protected String id;
+
+		/**
+		 * Bit i is set if the existence of the image of size i is known
+		 */
+		protected int knownSizes = 0;
+
+		/**
+		 * Bit i is set if the image of size i exists
+		 */
+		protected int existingSizes = 0;
+
+		/**
+		 * Indexed by size; unknown values are UNKNOWN_LENGTH and "" respectively
+		 */
+		protected List<Long> byteLengths = new ArrayList<Long>();
+		protected List<String> contentHashes = new ArrayList<String>();
+
+		@Ignore
+		protected long loadTime = 0;
+
+		public ImageIndexEntry() {
+			// just for Objectify to load it from Datastore
+		}
+
+		public ImageIndexEntry(String id) {
+			this.id = id;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected long getByteLength(int size) {
+			return (exists(size) && size < byteLengths.size()) ? byteLengths.get(size) : UNKNOWN_LENGTH;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected String getContentHash(int size) {
+			String result = (exists(size) && size < contentHashes.size()) ? contentHashes.get(size) : "";
+			return "".equals(result) ? null : result;
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected boolean isOlderThan(long age) {
+			return System.currentTimeMillis() - loadTime > age;
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected boolean isKnown(int size) {
+			return (knownSizes & (1 << size)) != 0;
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected boolean exists(int size) {
+			return (existingSizes & (1 << size)) != 0;
+		}
+
+		/**
+		 * @methodtype set
+		 */
+		protected void setImage(int size, long byteLength, String contentHash) {
+			ensureAllSizes();
+			knownSizes |= 1 << size;
+			existingSizes |= 1 << size;
+			byteLengths.set(size, byteLength);
+			contentHashes.set(size, (contentHash == null) ? "" : contentHash);
+		}
+
+		/**
+		 * @methodtype set
+		 */
+		protected void setMissing(int size) {
+			ensureAllSizes();
+			knownSizes |= 1 << size;
+			existingSizes &= ~(1 << size);
+			byteLengths.set(size, UNKNOWN_LENGTH);
+			contentHashes.set(size, "");
+		}
+
+		/**
+		 * @methodtype helper
+		 */
+		protected void ensureAllSizes() {
+			while (byteLengths.size() < PhotoSize.values().length) {
+				byteLengths.add(UNKNOWN_LENGTH);
+			}
+			while (contentHashes.size() < PhotoSize.values().length) {
+				contentHashes.add("");
+			}
+		}
+	}
+}
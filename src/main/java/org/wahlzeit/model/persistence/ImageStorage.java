@@ -1,11 +1,14 @@
 package org.wahlzeit.model.persistence;
 
+import com.google.appengine.api.images.Image;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
 import java.security.InvalidParameterException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -34,18 +37,37 @@ public abstract class ImageStorage {
 	 * @methodtype set
 	 */
 	public static void setInstance(ImageStorage newInstance) {
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("set ImageStorage instance").
-				addParameter("instance", newInstance).toString());
+				addParameter("instance", newInstance).log();
 		instance = newInstance;
 	}
 
+	/**
+	 * Knows which images exist, so that most existence checks and reads of missing images need no storage access
+	 */
+	protected ImageIndex imageIndex = new ImageIndex();
+
+	/**
+	 * @methodtype get
+	 */
+	public ImageIndex getImageIndex() {
+		return imageIndex;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setImageIndex(ImageIndex newImageIndex) {
+		imageIndex = newImageIndex;
+	}
+
 
 	// write-methods ---------------------------------------------------------------------------------------------------
 
 	/**
 	 * Writes the image to the storage, so you can access it via photoId and size again. An existing file with that
-	 * parameter is overwritten.
+	 * parameter is overwritten, unless it has the same content.
 	 *
 	 * @methodtype command
 	 * @methodproperty wrapper
@@ -57,13 +79,23 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("write image to storage").
 				addParameter("image", image).
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
+
+		byte[] imageData = (image instanceof Image) ? ((Image) image).getImageData() : null;
+		if (imageData != null && imageIndex.hasContent(photoIdAsString, size, imageData)) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image is unchanged, skip writing").log();
+			return;
+		}
 
 		doWriteImage(image, photoIdAsString, size);
+
+		if (imageData != null) {
+			imageIndex.addImage(photoIdAsString, size, imageData);
+		}
 	}
 
 	/**
@@ -90,10 +122,14 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("read image from storage").
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
+
+		if (Boolean.FALSE.equals(imageIndex.doesImageExist(photoIdAsString, size))) {
+			return null;
+		}
 
 		return doReadImage(photoIdAsString, size);
 	}
@@ -108,10 +144,42 @@ public abstract class ImageStorage {
 			throws IOException;
 
 
+	/**
+	 * Opens a channel to the bytes of the stored image, so that it can be sent without loading it into memory, e.g.
+	 * with FileChannel.transferTo(). The caller has to close the channel. Returns null if the image is not found or the
+	 * storage does not support channels; callers then fall back to readImage().
+	 *
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public FileChannel openImageChannel(String photoIdAsString, int size)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		return doOpenImageChannel(photoIdAsString, size);
+	}
+
+	/**
+	 * Opens a channel to the specified image, if the storage supports it. Returns null by default.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected FileChannel doOpenImageChannel(String photoIdAsString, int size)
+			throws IOException {
+
+		return null;
+	}
+
+
 	// exist method ----------------------------------------------------------------------------------------------------
 
 	/**
-	 * Checks if the specified image already exists in the storage
+	 * Checks if the specified image already exists in the storage. Only asks the storage itself if the image index
+	 * does not know yet. Only a positive answer is recorded: an image that is missing now may still be written, and
+	 * the index would never ask the storage again.
 	 *
 	 * @methodtype boolean query
 	 * @methodproperty wrapper
@@ -122,12 +190,19 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("check if image exists in storage").
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
-
-		return doDoesImageExist(photoIdAsString, size);
+				addParameter("size", size).log();
+
+		Boolean result = imageIndex.doesImageExist(photoIdAsString, size);
+		if (result == null) {
+			result = doDoesImageExist(photoIdAsString, size);
+			if (result) {
+				imageIndex.addExistence(photoIdAsString, size, true);
+			}
+		}
+		return result;
 	}
 
 
@@ -21,6 +21,7 @@
 package org.wahlzeit.services;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A simple abstract implementation of Persistent with write count and dirty bit.
@@ -33,11 +34,21 @@ public abstract class DataObject implements Persistent, Serializable {
 	 */
 	public static final String ID = "id";
 
+	/**
+	 * Source of versions; a version is never handed out twice within one instance of the application
+	 */
+	private static final AtomicLong lastVersion = new AtomicLong();
+
 	/**
 	 *
 	 */
 	protected transient int writeCount = 0;
 
+	/**
+	 * Changes with every modification; 0 until first requested
+	 */
+	protected transient volatile long version = 0;
+
 	/**
 	 *
 	 */
@@ -57,6 +68,27 @@ public abstract class DataObject implements Persistent, Serializable {
 	 */
 	public final void incWriteCount() {
 		writeCount++;
+		version = nextVersion();
+	}
+
+	/**
+	 * Versions are not persisted; objects that are loaded or deserialized get a version that no other object had.
+	 *
+	 * @methodtype get
+	 */
+	public final long getVersion() {
+		if (version == 0) {
+			version = nextVersion();
+		}
+		return version;
+	}
+
+	/**
+	 * @return a version that has not been handed out before
+	 * @methodtype factory
+	 */
+	public static long nextVersion() {
+		return lastVersion.incrementAndGet();
 	}
 
 	/**
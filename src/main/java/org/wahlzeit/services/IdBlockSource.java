@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+/**
+ * An IdBlockSource leases blocks of consecutive ids that no one else hands out, so that several instances can hand out
+ * ids of the same kind without coordinating on every id.
+ */
+public interface IdBlockSource {
+
+	/**
+	 * Number of ids leased at a time, unless a kind of id needs a different size
+	 */
+	int DEFAULT_BLOCK_SIZE = 64;
+
+	/**
+	 * @return the first of size consecutive ids
+	 */
+	int leaseBlock(int size);
+
+	/**
+	 * @return the highest id leased so far by anyone
+	 */
+	int getLastLeasedId();
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes each log event as a JSON object on a line of its own, e.g.
+ * <code>{"time":1500000000000,"severity":"CONFIG","logger":"org.wahlzeit.services.ObjectManager",
+ * "source":"org.wahlzeit.services.ObjectManager","type":"sl","session":"42","client":"anon",
+ * "messages":["..."],"actions":["..."],"parameters":{"name":"value"},"exceptions":[{"reason":"...",
+ * "stacktrace":"..."}]}</code>. Empty lists are left out.
+ */
+public class JsonLinesLogEventSink implements LogEventSink {
+
+	/**
+	 *
+	 */
+	protected Writer out;
+
+	/**
+	 *
+	 */
+	public JsonLinesLogEventSink(Writer myOut) {
+		out = myOut;
+	}
+
+	/**
+	 *
+	 */
+	public void write(LogEvent event) throws IOException {
+		StringBuilder line = new StringBuilder(256);
+		line.append("{\"time\":").append(event.getTime());
+		appendMember(line, "severity", (event.getLevel() != null) ? event.getLevel().getName() : null);
+		appendMember(line, "logger", event.getLoggerName());
+		if (event.getSourceMethodName() != null) {
+			appendMember(line, "source", event.getSourceClassName() + "." + event.getSourceMethodName());
+		} else if (event.getSourceClassName() != null) {
+			appendMember(line, "source", event.getSourceClassName());
+		}
+		appendMember(line, "type", event.getMessageLevel());
+		appendMember(line, "session", event.getSessionName());
+		appendMember(line, "client", event.getClientName());
+		appendParts(line, event, LogEvent.MESSAGE, "messages");
+		appendParts(line, event, LogEvent.ACTION, "actions");
+		appendParts(line, event, LogEvent.PARAMETER, "parameters");
+		appendParts(line, event, LogEvent.EXCEPTION, "exceptions");
+		line.append("}\n");
+
+		out.write(line.toString());
+	}
+
+	/**
+	 *
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Appends all parts of the kind; parameters as an object, the others as an array.
+	 *
+	 * @methodtype helper
+	 */
+	protected void appendParts(StringBuilder sb, LogEvent event, int kind, String name) {
+		boolean isFirst = true;
+		for (LogEvent.Part part : event.getParts()) {
+			if (part.getKind() != kind) {
+				continue;
+			}
+
+			if (isFirst) {
+				sb.append(",\"").append(name).append("\":").append((kind == LogEvent.PARAMETER) ? '{' : '[');
+				isFirst = false;
+			} else {
+				sb.append(',');
+			}
+
+			if (kind == LogEvent.PARAMETER) {
+				appendString(sb, part.getName());
+				sb.append(':');
+				appendString(sb, (String) part.getValue());
+			} else if (kind == LogEvent.EXCEPTION) {
+				sb.append("{\"reason\":");
+				appendString(sb, part.getName());
+				sb.append(",\"stacktrace\":");
+				appendString(sb, LogEvent.asStackTrace((Throwable) part.getValue()));
+				sb.append('}');
+			} else {
+				appendString(sb, (String) part.getValue());
+			}
+		}
+
+		if (!isFirst) {
+			sb.append((kind == LogEvent.PARAMETER) ? '}' : ']');
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void appendMember(StringBuilder sb, String name, String value) {
+		sb.append(",\"").append(name).append("\":");
+		appendString(sb, value);
+	}
+
+	/**
+	 * Appends the value as a JSON string, or null.
+	 *
+	 * @methodtype helper
+	 */
+	protected void appendString(StringBuilder sb, String value) {
+		if (value == null) {
+			sb.append("null");
+			return;
+		}
+
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		sb.append('"');
+	}
+
+}
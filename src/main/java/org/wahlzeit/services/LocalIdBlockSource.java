@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Leases blocks from an in-memory counter, for a single instance and for tests.
+ */
+public class LocalIdBlockSource implements IdBlockSource {
+
+	/**
+	 *
+	 */
+	protected final AtomicInteger lastLeasedId;
+
+	/**
+	 *
+	 */
+	public LocalIdBlockSource(int lastExistingId) {
+		lastLeasedId = new AtomicInteger(lastExistingId);
+	}
+
+	/**
+	 *
+	 */
+	public int leaseBlock(int size) {
+		return lastLeasedId.getAndAdd(size) + 1;
+	}
+
+	/**
+	 *
+	 */
+	public int getLastLeasedId() {
+		return lastLeasedId.get();
+	}
+
+}
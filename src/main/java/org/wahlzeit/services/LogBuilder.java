@@ -4,8 +4,8 @@ import org.wahlzeit.model.Client;
 import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Builder class for log messages, that ensures that log messages are all formatted equally.
@@ -14,6 +14,11 @@ import java.io.StringWriter;
  * <code>Formatter</code> could not be used
  *
  * (see https://stackoverflow.com/questions/30345665/how-to-customize-logging-for-google-app-engine-java).
+ *
+ * On hot paths, use the factory methods that take a logger and a level, and log() instead of toString(), e.g.
+ * <code>LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("photo id", id).log()</code>. If the level
+ * is disabled, they neither resolve the session and client nor build the message. Messages are collected as a typed
+ * LogEvent; if the LogEventBuffer is enabled, log() only queues the event and its text is built by the drainer.
  * 
  * @review
  */
@@ -31,11 +36,25 @@ public class LogBuilder {
 	protected static final String EXCEPTION_REASON = "exception reason";
 	protected static final String STACKTRACE = "stacktrace";
 
-	protected StringBuilder logMessage;
+	/**
+	 * Stands in for all messages whose level is disabled
+	 */
+	protected static final LogBuilder DISABLED = new DisabledLogBuilder();
+
+	/**
+	 * The content of the message, null if it is discarded
+	 */
+	protected LogEvent event;
+
+	/**
+	 * The logger and level used by log(), or null if the message is logged by the caller
+	 */
+	protected Logger logger;
+	protected Level logLevel;
 
 
 	protected LogBuilder() {
-		logMessage = new StringBuilder();
+		event = new LogEvent();
 	}
 
 
@@ -51,6 +70,40 @@ public class LogBuilder {
 		return doCreateMessage(USER_LEVEL);
 	}
 
+	/**
+	 * @methodtype factory
+	 *
+	 * Like createUserMessage(), but returns a LogBuilder that ignores everything added to it if the logger does not log
+	 * the level.
+	 */
+	public static LogBuilder createUserMessage(Logger logger, Level level) {
+		return doCreateMessage(logger, level, USER_LEVEL);
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Like createSystemMessage(), but returns a LogBuilder that ignores everything added to it if the logger does not
+	 * log the level.
+	 */
+	public static LogBuilder createSystemMessage(Logger logger, Level level) {
+		return doCreateMessage(logger, level, SYSTEM_LEVEL);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static LogBuilder doCreateMessage(Logger logger, Level level, String messageLevel) {
+		if (!logger.isLoggable(level)) {
+			return DISABLED;
+		}
+
+		LogBuilder result = doCreateMessage(messageLevel);
+		result.logger = logger;
+		result.logLevel = level;
+		return result;
+	}
+
 	/**
 	 * @methodtype factory
 	 *
@@ -75,29 +128,11 @@ public class LogBuilder {
 			clientName = UserSession.ANONYMOUS_CLIENT;
 		}
 
-		result.add(LEVEL + NAME_VALUE_SEPARATOR + level);
-		result.add(SESSION + NAME_VALUE_SEPARATOR + sessionName);
-		result.add(CLIENT + NAME_VALUE_SEPARATOR + clientName);
+		result.event.setHeader(level, sessionName, clientName);
 
 		return result;
 	}
 
-	/**
-	 * @methodtype set
-	 */
-	protected void add(String logMessagePart) {
-
-		assert logMessage != null;
-
-		if (logMessage.length() == 0) {
-			logMessage.append(logMessagePart);
-		} else {
-			logMessage.append(INFO_SEPARATOR);
-			logMessage.append(logMessagePart);
-		}
-	}
-
-
 	// add-methods -----------------------------------------------------------------------------------------------------
 
 	/**
@@ -116,7 +151,7 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, int value) {
-		add(name + NAME_VALUE_SEPARATOR + String.valueOf(value));
+		event.addParameter(name, String.valueOf(value));
 		return this;
 	}
 
@@ -126,7 +161,7 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, boolean value) {
-		add(name + NAME_VALUE_SEPARATOR + String.valueOf(value));
+		event.addParameter(name, String.valueOf(value));
 		return this;
 	}
 
@@ -136,7 +171,7 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, String value) {
-		add(name + NAME_VALUE_SEPARATOR + value);
+		event.addParameter(name, value);
 		return this;
 	}
 
@@ -146,7 +181,7 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>.toString()".
 	 */
 	public LogBuilder addParameter(String name, Object value) {
-		add(name + NAME_VALUE_SEPARATOR + value.toString());
+		event.addParameter(name, value.toString());
 		return this;
 	}
 
@@ -156,7 +191,7 @@ public class LogBuilder {
 	 * Adds the message to the LogMessage: ", <message>".
 	 */
 	public LogBuilder addMessage(String message) {
-		add(message);
+		event.addMessage(message);
 		return this;
 	}
 
@@ -166,10 +201,7 @@ public class LogBuilder {
 	 * Adds the stacktrace and the <code>exceptionMessage</code> to the log message.
 	 */
 	public LogBuilder addException(String exceptionMessage, Throwable throwable) {
-		add(EXCEPTION_REASON + NAME_VALUE_SEPARATOR + exceptionMessage);
-		StringWriter sw = new StringWriter();
-		throwable.printStackTrace(new PrintWriter(sw));
-		add(STACKTRACE + NAME_VALUE_SEPARATOR + sw.toString());
+		event.addException(exceptionMessage, throwable);
 		return this;
 	}
 
@@ -182,11 +214,42 @@ public class LogBuilder {
 	 * Adds the info that the action is performed the log message: "action=<action>".
 	 */
 	public LogBuilder addAction(String action) {
-		add(ACTION + NAME_VALUE_SEPARATOR + action);
+		event.addAction(action);
 		return this;
 	}
 
 
+	// log-methods -----------------------------------------------------------------------------------------------------
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Returns false if the message is discarded anyway, so that callers can skip expensive computations.
+	 */
+	public boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Logs the message with the logger and level it has been created with, via the LogEventBuffer if it accepts the
+	 * event. The logger name, which by convention is the name of the logging class, is the source of the log record;
+	 * the caller's stack is not walked, so that an enabled message costs no more than a plain Logger call.
+	 */
+	public void log() {
+		if (logger == null) {
+			throw new IllegalStateException("message has been created without logger");
+		}
+
+		event.setSource(System.currentTimeMillis(), logLevel, logger.getName(), logger.getName(), null);
+
+		if (!LogEventBuffer.getInstance().publish(event)) {
+			logger.log(event.asLogRecord());
+		}
+	}
+
+
 	// hidden setter and getter methods --------------------------------------------------------------------------------
 
 	/**
@@ -197,9 +260,69 @@ public class LogBuilder {
 	@Override
 	public String toString() {
 
-		assert logMessage != null;
-		assert logMessage.length() > 0;
+		assert event != null;
+
+		return event.getMessage();
+	}
+
+
+	/**
+	 * A LogBuilder for disabled levels, which ignores everything added to it.
+	 */
+	protected static class DisabledLogBuilder extends LogBuilder {
+
+		protected DisabledLogBuilder() {
+			event = null;
+		}
+
+		@Override
+		public LogBuilder addParameter(String name, int value) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addParameter(String name, boolean value) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addParameter(String name, String value) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addParameter(String name, Object value) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addMessage(String message) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addException(String exceptionMessage, Throwable throwable) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addAction(String action) {
+			return this;
+		}
 
-		return logMessage.toString();
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+
+		@Override
+		public void log() {
+			// do nothing
+		}
+
+		@Override
+		public String toString() {
+			return "";
+		}
 	}
 }
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A LogEvent holds the typed content of a log message: the level, session and client it was created with, and the
+ * messages, parameters, actions and exceptions in the order they were added. The text is only built when the event is
+ * written, possibly by another thread; stack traces of exceptions, too.
+ *
+ * Events are reused by the LogEventBuffer, so copyFrom() replaces all content.
+ */
+public class LogEvent {
+
+	/**
+	 * Kinds of parts
+	 */
+	public static final int MESSAGE = 0;
+	public static final int PARAMETER = 1;
+	public static final int ACTION = 2;
+	public static final int EXCEPTION = 3;
+
+	/**
+	 * Header of the message
+	 */
+	protected String messageLevel;
+	protected String sessionName;
+	protected String clientName;
+
+	/**
+	 * Parts of the message in the order they were added
+	 */
+	protected List<Part> parts = new ArrayList<Part>();
+
+	/**
+	 * Set when the event is logged; the level is null until then
+	 */
+	protected long time;
+	protected Level level;
+	protected String loggerName;
+	protected String sourceClassName;
+	protected String sourceMethodName;
+
+	/**
+	 *
+	 */
+	public LogEvent() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setHeader(String newMessageLevel, String newSessionName, String newClientName) {
+		messageLevel = newMessageLevel;
+		sessionName = newSessionName;
+		clientName = newClientName;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setSource(long newTime, Level newLevel, String newLoggerName, String newSourceClassName,
+			String newSourceMethodName) {
+		time = newTime;
+		level = newLevel;
+		loggerName = newLoggerName;
+		sourceClassName = newSourceClassName;
+		sourceMethodName = newSourceMethodName;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void addMessage(String message) {
+		parts.add(new Part(MESSAGE, null, message));
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void addParameter(String name, String value) {
+		parts.add(new Part(PARAMETER, name, value));
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void addAction(String action) {
+		parts.add(new Part(ACTION, null, action));
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void addException(String reason, Throwable throwable) {
+		parts.add(new Part(EXCEPTION, reason, throwable));
+	}
+
+	/**
+	 * Replaces the content of this event with the content of the other one. Parts are immutable, so they are shared.
+	 *
+	 * @methodtype set
+	 */
+	public void copyFrom(LogEvent other) {
+		setHeader(other.messageLevel, other.sessionName, other.clientName);
+		setSource(other.time, other.level, other.loggerName, other.sourceClassName, other.sourceMethodName);
+		parts.clear();
+		parts.addAll(other.parts);
+	}
+
+	/**
+	 * Drops all references, so that a reused event does not keep messages or exceptions alive.
+	 *
+	 * @methodtype set
+	 */
+	public void clear() {
+		setHeader(null, null, null);
+		setSource(0, null, null, null, null);
+		parts.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getMessageLevel() {
+		return messageLevel;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getSessionName() {
+		return sessionName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getClientName() {
+		return clientName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<Part> getParts() {
+		return parts;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getLoggerName() {
+		return loggerName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getSourceClassName() {
+		return sourceClassName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getSourceMethodName() {
+		return sourceMethodName;
+	}
+
+	/**
+	 * Formats the message as before structured logging: "level=<level>, session=<session>, client=<client>, ...".
+	 *
+	 * @methodtype conversion
+	 */
+	public String getMessage() {
+		StringBuilder result = new StringBuilder();
+		append(result, LogBuilder.LEVEL, messageLevel);
+		append(result, LogBuilder.SESSION, sessionName);
+		append(result, LogBuilder.CLIENT, clientName);
+		for (Part part : parts) {
+			switch (part.kind) {
+				case MESSAGE:
+					append(result, part.value);
+					break;
+				case ACTION:
+					append(result, LogBuilder.ACTION, part.value);
+					break;
+				case EXCEPTION:
+					append(result, LogBuilder.EXCEPTION_REASON, part.name);
+					append(result, LogBuilder.STACKTRACE, asStackTrace((Throwable) part.value));
+					break;
+				default:
+					append(result, part.name, part.value);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public LogRecord asLogRecord() {
+		LogRecord result = new LogRecord(level, getMessage());
+		result.setMillis(time);
+		result.setLoggerName(loggerName);
+		result.setSourceClassName(sourceClassName);
+		result.setSourceMethodName(sourceMethodName);
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String asStackTrace(Throwable throwable) {
+		StringWriter sw = new StringWriter();
+		throwable.printStackTrace(new PrintWriter(sw));
+		return sw.toString();
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static void append(StringBuilder sb, String name, Object value) {
+		append(sb, name + LogBuilder.NAME_VALUE_SEPARATOR + value);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static void append(StringBuilder sb, Object part) {
+		if (sb.length() > 0) {
+			sb.append(LogBuilder.INFO_SEPARATOR);
+		}
+		sb.append(part);
+	}
+
+	/**
+	 * A message, parameter, action or exception of a LogEvent. For exceptions, the name is the reason and the value
+	 * is the Throwable.
+	 */
+	public static class Part {
+
+		protected final int kind;
+		protected final String name;
+		protected final Object value;
+
+		/**
+		 *
+		 */
+		public Part(int kind, String name, Object value) {
+			this.kind = kind;
+			this.name = name;
+			this.value = value;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public int getKind() {
+			return kind;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public Object getValue() {
+			return value;
+		}
+	}
+
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+/**
+ * A LogEventBuffer decouples request threads from log output. LogBuilder#log() copies its event into one of a fixed
+ * number of preallocated slots of a ring buffer and returns; the events are written to the LogEventSink, by default
+ * the java.util.logging handlers, when the buffer is drained. The ring buffer is not lock-free: publishing and
+ * draining synchronize on the buffer's monitor, but the lock is only held to copy an event into or out of its slot,
+ * never while an event is written to the sink.
+ *
+ * The buffer is meant to be drained continuously by the background thread of startDraining(), so it is only enabled
+ * where threads beyond a request are allowed. App Engine frontends keep it disabled and log directly, as draining on
+ * the request thread would still add the log I/O to the response time and write other requests' events under the
+ * wrong request. If the buffer is full, events are dropped and counted, or with the BLOCK policy, the caller waits
+ * for the drainer or drains the buffer itself. Events of level WARNING and above are never dropped, the caller logs
+ * them directly instead.
+ */
+public class LogEventBuffer {
+
+	/**
+	 *
+	 */
+	public enum OverflowPolicy {
+		DROP, BLOCK
+	}
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * In milliseconds
+	 */
+	public static final long DEFAULT_MAX_BLOCK_TIME = 100;
+
+	/**
+	 *
+	 */
+	protected static LogEventBuffer instance = new LogEventBuffer(DEFAULT_CAPACITY);
+
+	/**
+	 *
+	 */
+	public static LogEventBuffer getInstance() {
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	protected volatile boolean isEnabled = false;
+	protected volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+	protected volatile long maxBlockTime = DEFAULT_MAX_BLOCK_TIME;
+	protected volatile LogEventSink sink = new JulLogEventSink();
+
+	/**
+	 * The ring buffer; events between head (inclusive) and tail (exclusive) are waiting to be written. Slots are only
+	 * reused after the drainer has written them and advanced head.
+	 */
+	protected final LogEvent[] slots;
+	protected final int mask;
+	protected long head = 0;
+	protected long tail = 0;
+
+	/**
+	 * Serializes drains, so that events are written in the order they were published
+	 */
+	protected final Object drainLock = new Object();
+
+	/**
+	 * The background thread, or null if the buffer is only drained by explicit calls to drain()
+	 */
+	protected Thread drainer = null;
+
+	/**
+	 *
+	 */
+	protected long noPublishedEvents = 0;
+	protected long noDroppedEvents = 0;
+	protected long noWrittenEvents = 0;
+	protected long noFailedEvents = 0;
+
+	/**
+	 * @param capacity is rounded up to the next power of two
+	 */
+	protected LogEventBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+
+		slots = new LogEvent[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new LogEvent();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEnabled() {
+		return isEnabled;
+	}
+
+	/**
+	 * Disabling the buffer writes all pending events.
+	 *
+	 * @methodtype set
+	 */
+	public void setEnabled(boolean enabled) {
+		isEnabled = enabled;
+		if (!enabled) {
+			drain();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setOverflowPolicy(OverflowPolicy newOverflowPolicy) {
+		if (newOverflowPolicy == null) {
+			throw new IllegalArgumentException("Overflow policy must not be null");
+		}
+		overflowPolicy = newOverflowPolicy;
+	}
+
+	/**
+	 * @param newMaxBlockTime in milliseconds
+	 * @methodtype set
+	 */
+	public void setMaxBlockTime(long newMaxBlockTime) {
+		if (newMaxBlockTime < 0) {
+			throw new IllegalArgumentException("Block time must not be negative");
+		}
+		maxBlockTime = newMaxBlockTime;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public LogEventSink getSink() {
+		return sink;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setSink(LogEventSink newSink) {
+		if (newSink == null) {
+			throw new IllegalArgumentException("Sink must not be null");
+		}
+		sink = newSink;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoPendingEvents() {
+		return (int) (tail - head);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoPublishedEvents() {
+		return noPublishedEvents;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoDroppedEvents() {
+		return noDroppedEvents;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoWrittenEvents() {
+		return noWrittenEvents;
+	}
+
+	/**
+	 * @return the number of events the sink could not write
+	 * @methodtype get
+	 */
+	public synchronized long getNoFailedEvents() {
+		return noFailedEvents;
+	}
+
+	/**
+	 * Copies the event into the buffer.
+	 *
+	 * @return false if the caller has to log the event itself, because the buffer is disabled or full
+	 * @methodtype command
+	 */
+	public boolean publish(LogEvent event) {
+		if (!isEnabled) {
+			return false;
+		}
+
+		if (!hasRoom() && (overflowPolicy == OverflowPolicy.BLOCK)) {
+			waitForRoom();
+		}
+
+		synchronized (this) {
+			if (tail - head == slots.length) {
+				if (isSevere(event)) {
+					return false;
+				}
+				noDroppedEvents++;
+				return true;
+			}
+
+			slots[(int) (tail & mask)].copyFrom(event);
+			if (tail++ == head) {
+				notifyAll();
+			}
+			noPublishedEvents++;
+			return true;
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected synchronized boolean hasRoom() {
+		return tail - head < slots.length;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isSevere(LogEvent event) {
+		return (event.getLevel() != null) && (event.getLevel().intValue() >= Level.WARNING.intValue());
+	}
+
+	/**
+	 * Waits up to maxBlockTime for the drainer, or drains the buffer if there is no drainer.
+	 *
+	 * @methodtype command
+	 */
+	protected void waitForRoom() {
+		synchronized (this) {
+			if (drainer != null) {
+				long deadline = System.currentTimeMillis() + maxBlockTime;
+				long remaining = maxBlockTime;
+				while (tail - head == slots.length && remaining > 0) {
+					try {
+						wait(remaining);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					remaining = deadline - System.currentTimeMillis();
+				}
+				return;
+			}
+		}
+		drain();
+	}
+
+	/**
+	 * Writes all pending events to the sink and returns when the sink has flushed them.
+	 *
+	 * @methodtype command
+	 */
+	public void drain() {
+		synchronized (drainLock) {
+			long first;
+			long last;
+			synchronized (this) {
+				first = head;
+				last = tail;
+			}
+
+			while (first != last) {
+				int noFailed = writeEvents(first, last);
+				synchronized (this) {
+					head = last;
+					noWrittenEvents += (last - first) - noFailed;
+					noFailedEvents += noFailed;
+					notifyAll();
+
+					first = head;
+					last = tail;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the events in the slots from first to last (exclusive), which producers do not touch until head has
+	 * been advanced. Failures cannot be logged, as that might end in the same sink, so they are only counted.
+	 *
+	 * @return the number of events the sink failed to write
+	 * @methodtype command
+	 */
+	protected int writeEvents(long first, long last) {
+		LogEventSink currentSink = sink;
+		int result = 0;
+		for (long i = first; i != last; i++) {
+			LogEvent event = slots[(int) (i & mask)];
+			try {
+				currentSink.write(event);
+			} catch (IOException | RuntimeException ex) {
+				result++;
+			}
+			event.clear();
+		}
+
+		try {
+			currentSink.flush();
+		} catch (IOException | RuntimeException ex) {
+			// the events have been handed over, failures are counted by the sink if at all
+		}
+		return result;
+	}
+
+	/**
+	 * Starts a background thread that drains the buffer whenever events are published. Only for environments that
+	 * allow threads beyond a request, e.g. the development server or App Engine backends.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void startDraining(ThreadFactory threadFactory) {
+		if (drainer != null) {
+			return;
+		}
+
+		drainer = threadFactory.newThread(new Runnable() {
+			@Override
+			public void run() {
+				drainContinuously();
+			}
+		});
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/**
+	 * Stops the background thread and drains the remaining events.
+	 *
+	 * @methodtype command
+	 */
+	public void stopDraining() throws InterruptedException {
+		Thread oldDrainer;
+		synchronized (this) {
+			oldDrainer = drainer;
+			drainer = null;
+			notifyAll();
+		}
+
+		if (oldDrainer != null) {
+			oldDrainer.join();
+		}
+		drain();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isDraining() {
+		return drainer != null;
+	}
+
+	/**
+	 * Runs until stopDraining() is called.
+	 *
+	 * @methodtype command
+	 */
+	protected void drainContinuously() {
+		Thread self = Thread.currentThread();
+		while (true) {
+			synchronized (this) {
+				while (tail == head && drainer == self) {
+					try {
+						wait();
+					} catch (InterruptedException ex) {
+						self.interrupt();
+						return;
+					}
+				}
+				if (drainer != self) {
+					return;
+				}
+			}
+			drain();
+		}
+	}
+
+}
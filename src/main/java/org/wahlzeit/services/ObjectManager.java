@@ -24,7 +24,11 @@ import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -48,8 +52,10 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load entity of type", type.getName()).
+				addParameter("id", id).log();
+		flushPendingWrites(type);
 		return OfyService.ofy().load().type(type).id(id).now();
 	}
 
@@ -69,8 +75,10 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load entity of type", type.getName()).
+				addParameter("id", id).log();
+		flushPendingWrites(type);
 		return OfyService.ofy().load().type(type).id(id).now();
 	}
 
@@ -83,14 +91,35 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(parameterName, "parameterName");
 		assertIsNonNullArgument(value, "value");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with parameter " +
-						parameterName + " == " + value + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load entity of type", type.getName()).
+				addParameter(parameterName, value).log();
 
+		flushPendingWrites(type);
 		return OfyService.ofy().load().type(type).ancestor(applicationRootKey).filter(parameterName, value).first()
 				.now();
 	}
 
+	/**
+	 * Reads all Entities of the specified type with the given ids in a single datastore call, e.g.
+	 * readObjects(Client.class, ids) to get the clients with the given names. Ids without an Entity are not contained
+	 * in the result.
+	 */
+	protected <E, I> Map<I, E> readObjects(Class<E> type, Collection<I> ids) {
+		assertIsNonNullArgument(type, "type");
+		assertIsNonNullArgument(ids, "ids");
+
+		if (ids.isEmpty()) {
+			return new HashMap<I, E>();
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: batch load entities of type", type.getName()).
+				addParameter("number of ids", ids.size()).log();
+		flushPendingWrites(type);
+		return new HashMap<I, E>(OfyService.ofy().load().type(type).parent(applicationRootKey).ids(ids));
+	}
+
 	/**
 	 * Reads all Entities of the specified type, e.g. readObject(User.class) to get a list of all clients
 	 */
@@ -98,14 +127,29 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(result, "result");
 		assertIsNonNullArgument(type, "type");
 
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: load all entities of type", type.getName()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load all entities of type", type.getName()).log();
+		flushPendingWrites(type);
 		List<E> objects = OfyService.ofy().load().type(type).ancestor(applicationRootKey).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", objects.size()).log();
 		result.addAll(objects);
 	}
 
+	/**
+	 * Reads all Entities of the specified type lazily while the result is iterated, fetching chunkSize Entities per
+	 * datastore call. The result must be iterated within the current Objectify context.
+	 */
+	protected <E> Iterable<E> readObjectsInChunks(Class<E> type, int chunkSize) {
+		assertIsNonNullArgument(type, "type");
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: stream all entities of type", type.getName()).
+				addParameter("chunk size", chunkSize).log();
+		flushPendingWrites(type);
+		return OfyService.ofy().load().type(type).ancestor(applicationRootKey).chunk(chunkSize).iterable();
+	}
+
 	/**
 	 * Reads all Entities of the specified type, where the given property matches the wanted value e.g.
 	 * readObject(User.class) to get a list of all clients
@@ -116,22 +160,40 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
-				addMessage("Datastore: Load all Entities of type " + type.toString() + " where parameter "
-						+ propertyName + " = " + value.toString() + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("Datastore: load all entities of type", type.getName()).
+				addParameter(propertyName, value).log();
+		flushPendingWrites(type);
 		List<E> objects = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", objects.size()).log();
 		result.addAll(objects);
 	}
 
 	/**
-	 * Updates all entities of the given collection in the datastore.
+	 * Updates all entities of the given collection in the datastore. Dirty entities are saved with multi-entity saves
+	 * instead of one datastore call per entity.
 	 */
 	protected void updateObjects(Collection<? extends Persistent> collection) {
+		assertIsNonNullArgument(collection, "collection");
+
+		WriteBehindBuffer buffer = WriteBehindBuffer.getInstance();
+		Map<Persistent, ObjectManager> dirtyObjects = new IdentityHashMap<Persistent, ObjectManager>();
 		for (Persistent object : collection) {
-			updateObject(object);
+			if (object.isDirty()) {
+				if (buffer.isEnabled()) {
+					buffer.add(object, this);
+				} else {
+					dirtyObjects.put(object, this);
+				}
+			}
+		}
+
+		if (!dirtyObjects.isEmpty()) {
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: Write objects", dirtyObjects.size()).log();
+			WriteBehindBuffer.writeObjects(dirtyObjects);
 		}
 	}
 
@@ -143,20 +205,38 @@ public abstract class ObjectManager {
 	}
 
 	/**
-	 * Writes the given entity to the datastore.
+	 * Writes the given entity to the datastore. If the WriteBehindBuffer is enabled, the entity is only queued and
+	 * written with the next flush.
 	 */
 	protected void writeObject(Persistent object) {
 		assertIsNonNullArgument(object, "object");
 
 		if (object.isDirty()) {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: Write object of type", object).toString());
-			OfyService.ofy().save().entity(object).now();
-			updateDependents(object);
-			object.resetWriteCount();
+			WriteBehindBuffer buffer = WriteBehindBuffer.getInstance();
+			if (buffer.isEnabled()) {
+				buffer.add(object, this);
+			} else {
+				LogBuilder.createSystemMessage(log, Level.INFO).
+						addParameter("Datastore: Write object of type", object).log();
+				OfyService.ofy().save().entity(object).now();
+				updateDependents(object);
+				object.resetWriteCount();
+			}
 		} else {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: No need to update object", object).toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: No need to update object", object).log();
+		}
+	}
+
+	/**
+	 * Writes the queued entities of the type, so that reads, queries, and deletes do not overtake pending writes. All
+	 * of them call this first. Without unwritten objects this is a volatile read; otherwise it waits for a flush that
+	 * is in progress, and then writes only the entities of the type.
+	 */
+	protected void flushPendingWrites(Class<?> type) {
+		WriteBehindBuffer buffer = WriteBehindBuffer.getInstance();
+		if (buffer.isEnabled()) {
+			buffer.flush(type);
 		}
 	}
 
@@ -173,7 +253,8 @@ public abstract class ObjectManager {
 	protected <E> void deleteObject(E object) {
 		assertIsNonNullArgument(object, "object");
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Datastore: delete entity", object).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Datastore: delete entity", object).log();
+		flushPendingWrites(object.getClass());
 		OfyService.ofy().delete().entity(object).now();
 	}
 
@@ -186,9 +267,10 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
-				addMessage("Datastore: delete entities of type " + type
-						+ " where property " + propertyName + " == " + value).toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("Datastore: delete entities of type", type.getName()).
+				addParameter(propertyName, value).log();
+		flushPendingWrites(type);
 		List<com.googlecode.objectify.Key<E>> keys = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).keys().list();
 		OfyService.ofy().delete().keys(keys);
@@ -5,6 +5,7 @@ import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
 import org.wahlzeit.model.*;
 import org.wahlzeit.model.persistence.DatastoreAdapter.ImageWrapper;
+import org.wahlzeit.model.persistence.ImageIndex;
 
 /**
  * A badly named class, to be renamed to ObjectifyService first, something better later.
@@ -28,6 +29,7 @@ public class OfyService {
 		factory().register(Guest.class);
 		factory().register(PhotoCase.class);
 		factory().register(ImageWrapper.class);
+		factory().register(ImageIndex.ImageIndexEntry.class);
 	}
 
 	public static Objectify ofy() {
@@ -22,7 +22,7 @@ package org.wahlzeit.services;
 
 /**
  * A Persistent object is an object that can be read from and written to some storage.
- * Also, it has a write count, which serves as a dirty flag.
+ * Also, it has a write count, which serves as a dirty flag, and a version that changes with every write.
  */
 public interface Persistent {
 
@@ -41,4 +41,9 @@ public interface Persistent {
 	 */
 	void resetWriteCount();
 
+	/**
+	 * Returns a version that changes whenever the object is modified, e.g. to key caches of data derived from it.
+	 */
+	long getVersion();
+
 }
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A WriteBehindBuffer collects dirty Persistent objects instead of writing each of them to the datastore right away.
+ * An object that is written several times before the next flush is only saved once. A flush saves all pending
+ * objects with a few asynchronous multi-entity saves, then lets the responsible ObjectManager update the dependents.
+ *
+ * A flush happens when the buffer holds maxBatchSize objects, or on the first write after flushInterval has passed.
+ * App Engine frontends must not run background threads and need not call contextDestroyed() before an instance goes
+ * away, so nothing may stay queued beyond a request: servlets call flushAfterRequest() at the end of each request,
+ * which coalesces writes within that request only. ObjectManagers flush the pending objects of a type before every
+ * read, query, or delete of that type, so those never miss a pending write. Whether anything is unwritten at all is
+ * checked without a lock, so reads only wait for flush I/O if objects are pending or being flushed.
+ */
+public class WriteBehindBuffer {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+	/**
+	 * In milliseconds
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 5000;
+
+	/**
+	 * Maximum number of entities the datastore accepts in a single save
+	 */
+	public static final int MAX_ENTITIES_PER_SAVE = 500;
+
+	private static final Logger log = Logger.getLogger(WriteBehindBuffer.class.getName());
+
+	/**
+	 *
+	 */
+	protected static WriteBehindBuffer instance = new WriteBehindBuffer();
+
+	/**
+	 *
+	 */
+	public static WriteBehindBuffer getInstance() {
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	protected volatile boolean isEnabled = false;
+	protected volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	protected volatile long flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+	/**
+	 * Pending objects and their managers; an object is identified by reference, not by equals()
+	 */
+	protected Map<Persistent, ObjectManager> pending = new IdentityHashMap<Persistent, ObjectManager>();
+	protected long oldestPendingTime = 0;
+
+	/**
+	 * Objects taken from pending that have not been written yet
+	 */
+	protected int noFlushingObjects = 0;
+
+	/**
+	 * Pending plus flushing objects; written under the buffer's lock, read without it
+	 */
+	protected volatile int noUnwrittenObjects = 0;
+
+	/**
+	 * Serializes flushes, so batches reach the datastore in the order they were taken from the buffer
+	 */
+	protected final Object flushLock = new Object();
+
+	/**
+	 *
+	 */
+	protected long noFlushes = 0;
+	protected long noWrittenObjects = 0;
+	protected long noCoalescedWrites = 0;
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEnabled() {
+		return isEnabled;
+	}
+
+	/**
+	 * Disabling the buffer flushes all pending objects.
+	 *
+	 * @methodtype set
+	 */
+	public void setEnabled(boolean enabled) {
+		isEnabled = enabled;
+		if (!enabled) {
+			flush();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setMaxBatchSize(int newMaxBatchSize) {
+		if (newMaxBatchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		maxBatchSize = newMaxBatchSize;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * @param newFlushInterval in milliseconds
+	 * @methodtype set
+	 */
+	public void setFlushInterval(long newFlushInterval) {
+		if (newFlushInterval < 0) {
+			throw new IllegalArgumentException("Flush interval must not be negative");
+		}
+		flushInterval = newFlushInterval;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoPendingObjects() {
+		return pending.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoFlushes() {
+		return noFlushes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoWrittenObjects() {
+		return noWrittenObjects;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoCoalescedWrites() {
+		return noCoalescedWrites;
+	}
+
+	/**
+	 * Queues the object for writing by the given manager; flushes if the batch is full or the interval has passed.
+	 *
+	 * @methodtype command
+	 */
+	public void add(Persistent object, ObjectManager manager) {
+		boolean isFlushDue;
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			if (pending.isEmpty()) {
+				oldestPendingTime = now;
+			}
+			if (pending.put(object, manager) != null) {
+				noCoalescedWrites++;
+			}
+			updateNoUnwrittenObjects();
+			isFlushDue = (pending.size() >= maxBatchSize) || (now - oldestPendingTime >= flushInterval);
+		}
+
+		if (isFlushDue) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes all pending objects at the end of a request. A failed write must not fail the request that happens to
+	 * flush it, so the problem is only logged; the objects stay queued and are written with the next flush.
+	 *
+	 * @methodtype command
+	 */
+	public void flushAfterRequest() {
+		try {
+			flush();
+		} catch (RuntimeException ex) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("pending objects", getNoPendingObjects()).
+					addException("Problem flushing pending writes", ex).toString());
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasUnwrittenObjects() {
+		return noUnwrittenObjects > 0;
+	}
+
+	/**
+	 * Writes all pending objects and returns when the datastore has accepted them. Objects that become dirty while
+	 * dependents are updated are written in the same call.
+	 *
+	 * @methodtype command
+	 */
+	public void flush() {
+		flush(Object.class);
+	}
+
+	/**
+	 * Writes the pending objects of the given type, e.g. before it is read, and returns when the datastore has
+	 * accepted them as well as any objects another thread is flushing. Returns right away, without locking, if no
+	 * object is pending or being flushed.
+	 *
+	 * @methodtype command
+	 */
+	public void flush(Class<?> type) {
+		if (!hasUnwrittenObjects()) {
+			return;
+		}
+
+		synchronized (flushLock) {
+			Map<Persistent, ObjectManager> batch = takePending(type);
+			while (!batch.isEmpty()) {
+				doFlush(batch);
+				batch = takePending(type);
+			}
+		}
+	}
+
+	/**
+	 * @return the pending objects of the given type, which are flushing from now on
+	 * @methodtype helper
+	 */
+	protected synchronized Map<Persistent, ObjectManager> takePending(Class<?> type) {
+		if (pending.isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		Map<Persistent, ObjectManager> result;
+		if (type == Object.class) {
+			result = pending;
+			pending = new IdentityHashMap<Persistent, ObjectManager>();
+		} else {
+			result = new IdentityHashMap<Persistent, ObjectManager>();
+			for (Iterator<Map.Entry<Persistent, ObjectManager>> i = pending.entrySet().iterator(); i.hasNext(); ) {
+				Map.Entry<Persistent, ObjectManager> entry = i.next();
+				if (type.isInstance(entry.getKey())) {
+					result.put(entry.getKey(), entry.getValue());
+					i.remove();
+				}
+			}
+		}
+
+		noFlushingObjects += result.size();
+		updateNoUnwrittenObjects();
+		return result;
+	}
+
+	/**
+	 * Callers hold the buffer's lock.
+	 *
+	 * @methodtype command
+	 */
+	protected void updateNoUnwrittenObjects() {
+		noUnwrittenObjects = pending.size() + noFlushingObjects;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doFlush(final Map<Persistent, ObjectManager> batch) {
+		try {
+			ObjectifyService.run(new Work<Void>() {
+				@Override
+				public Void run() {
+					writeObjects(batch);
+					return null;
+				}
+			});
+		} catch (RuntimeException ex) {
+			requeue(batch);
+			throw ex;
+		}
+
+		synchronized (this) {
+			noFlushes++;
+			noWrittenObjects += batch.size();
+			noFlushingObjects -= batch.size();
+			updateNoUnwrittenObjects();
+		}
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: flushed objects", batch.size()).log();
+	}
+
+	/**
+	 * Puts a batch that could not be written back into the buffer, unless newer writes have been queued meanwhile.
+	 *
+	 * @methodtype command
+	 */
+	protected synchronized void requeue(Map<Persistent, ObjectManager> batch) {
+		if (pending.isEmpty()) {
+			oldestPendingTime = System.currentTimeMillis();
+		}
+		for (Map.Entry<Persistent, ObjectManager> entry : batch.entrySet()) {
+			if (!pending.containsKey(entry.getKey())) {
+				pending.put(entry.getKey(), entry.getValue());
+			}
+		}
+		noFlushingObjects -= batch.size();
+		updateNoUnwrittenObjects();
+	}
+
+	/**
+	 * Saves the objects in chunks the datastore accepts, waits for all chunks, then updates the dependents of each
+	 * object and resets its write count. Requires an Objectify context.
+	 *
+	 * @methodtype command
+	 */
+	public static void writeObjects(Map<? extends Persistent, ObjectManager> objects) {
+		List<Persistent> entities = new ArrayList<Persistent>(objects.keySet());
+		List<Result<?>> results = new ArrayList<Result<?>>();
+		for (int i = 0; i < entities.size(); i += MAX_ENTITIES_PER_SAVE) {
+			List<Persistent> chunk = entities.subList(i, Math.min(i + MAX_ENTITIES_PER_SAVE, entities.size()));
+			results.add(OfyService.ofy().save().entities(chunk));
+		}
+		for (Result<?> result : results) {
+			result.now();
+		}
+
+		for (Map.Entry<? extends Persistent, ObjectManager> entry : objects.entrySet()) {
+			entry.getValue().updateDependents(entry.getKey());
+			entry.getKey().resetWriteCount();
+		}
+	}
+
+}
@@ -25,8 +25,12 @@ import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.Session;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.WriteBehindBuffer;
+import org.wahlzeit.utils.HttpUtil;
 import org.wahlzeit.utils.StringUtil;
+import org.wahlzeit.webparts.CompressibleWritable;
 import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.Writable;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -34,10 +38,13 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -47,6 +54,12 @@ public abstract class AbstractServlet extends HttpServlet {
 
 	private static final Logger log = Logger.getLogger(AbstractServlet.class.getName());
 	private static final long serialVersionUID = 42L; // any does; class never serialized
+
+	/**
+	 * Shown instead of the processing time on pages that are served from the WebPageCache
+	 */
+	protected static final String NO_PROCESSING_TIME = "-";
+
 	/**
 	 *
 	 */
@@ -83,13 +96,15 @@ public abstract class AbstractServlet extends HttpServlet {
 		UserSession us = ensureUserSession(request);
 		SessionManager.setThreadLocalSession(us);
 
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myGet(request, response);
+		try {
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, response);
+			} else {
+				myGet(request, response);
+			}
+		} finally {
+			endRequest(us);
 		}
-
-		SessionManager.dropThreadLocalSession();
 	}
 
 	/**
@@ -102,13 +117,29 @@ public abstract class AbstractServlet extends HttpServlet {
 		UserSession us = ensureUserSession(request);
 		SessionManager.setThreadLocalSession(us);
 
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myPost(request, response);
+		try {
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, response);
+			} else {
+				myPost(request, response);
+			}
+		} finally {
+			endRequest(us);
 		}
+	}
 
-		SessionManager.dropThreadLocalSession();
+	/**
+	 * Writes the session state and all queued writes of the request, also if handling the request failed.
+	 */
+	protected void endRequest(UserSession us) {
+		try {
+			if (us != null) {
+				us.flush(); // the only write of the session state in this request
+			}
+		} finally {
+			WriteBehindBuffer.getInstance().flushAfterRequest();
+			SessionManager.dropThreadLocalSession();
+		}
 	}
 
 	/**
@@ -170,26 +201,66 @@ public abstract class AbstractServlet extends HttpServlet {
 	protected void redirectRequest(HttpServletResponse response, String link) throws IOException {
 		response.setContentType("text/html");
 		String newTarget = new String("/" + link + ".html");
-		log.config(LogBuilder.createSystemMessage().addParameter("Redirect to", newTarget).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Redirect to", newTarget).log();
 		response.sendRedirect(newTarget);
 	}
 
 	/**
 	 *
 	 */
-	protected void configureResponse(Session ctx, HttpServletResponse response, WebPart result) throws IOException {
+	protected void configureResponse(Session ctx, HttpServletRequest request, HttpServletResponse response,
+			WebPart result) throws IOException {
+		configurePage(ctx, result);
+		writeResponse(request, response, result);
+	}
+
+	/**
+	 *
+	 */
+	protected void configurePage(Session ctx, WebPart result) {
 		long processingTime = ctx.getProcessingTime();
 		result.addString("processingTime", StringUtil.asStringInSeconds((processingTime == 0) ? 1 : processingTime));
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("proctime", String.valueOf(processingTime)).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("proctime", String.valueOf(processingTime)).log();
+	}
+
+	/**
+	 * A cacheable page is replayed to other requests, so it must not show the processing time of the request that
+	 * rendered it.
+	 */
+	protected void configureCacheablePage(Session ctx, WebPart result) {
+		result.addString("processingTime", NO_PROCESSING_TIME);
+	}
 
+	/**
+	 * Writes the page gzip compressed if the client accepts it. A CompressibleWritable is sent as is, with its
+	 * compressed representation computed only once; all other pages are compressed while they are written.
+	 */
+	protected void writeResponse(HttpServletRequest request, HttpServletResponse response, Writable result)
+			throws IOException {
+		response.setStatus(HttpServletResponse.SC_OK);
 		response.setContentType("text/html");
+		response.setHeader("Vary", "Accept-Encoding");
 
-		PrintWriter out = response.getWriter();
-		result.writeOn(out);
-		out.close();
+		boolean isGzip = HttpUtil.acceptsGzip(request.getHeader("Accept-Encoding"));
+		if (isGzip) {
+			response.setHeader("Content-Encoding", HttpUtil.GZIP_ENCODING);
+		}
 
-		response.setStatus(HttpServletResponse.SC_OK);
+		OutputStream out = response.getOutputStream();
+		if (result instanceof CompressibleWritable) {
+			CompressibleWritable compressible = (CompressibleWritable) result;
+			byte[] data = isGzip ? compressible.getGzipBytes() : compressible.getBytes();
+			response.setContentLength(data.length);
+			out.write(data);
+		} else {
+			if (isGzip) {
+				out = HttpUtil.createGzipOutputStream(out, Deflater.DEFAULT_COMPRESSION);
+			}
+			// the templates are pre-encoded as UTF-8, so they are written as bytes
+			result.writeOn(out);
+		}
+		out.close();
 	}
 
 	/**
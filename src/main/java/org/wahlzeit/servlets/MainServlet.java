@@ -31,11 +31,16 @@ import org.wahlzeit.handlers.PartUtil;
 import org.wahlzeit.handlers.WebFormHandler;
 import org.wahlzeit.handlers.WebPageHandler;
 import org.wahlzeit.handlers.WebPartHandlerManager;
+import org.wahlzeit.model.Client;
+import org.wahlzeit.model.Guest;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.utils.StringUtil;
+import org.wahlzeit.webparts.WebPageCache;
 import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.Writable;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -46,6 +51,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -75,11 +81,13 @@ public class MainServlet extends AbstractServlet {
 		} else {
 			link = PartUtil.NULL_FORM_NAME;
 		}
-		log.info(LogBuilder.createUserMessage().addParameter("posted to", link).toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addParameter("posted to", link).log();
 
 		Map args = getRequestArgs(request, us);
-		log.info(LogBuilder.createSystemMessage().
-				addParameter("POST arguments", getRequestArgsAsString(us, args)).toString());
+		LogBuilder argsMessage = LogBuilder.createSystemMessage(log, Level.INFO);
+		if (argsMessage.isEnabled()) {
+			argsMessage.addParameter("POST arguments", getRequestArgsAsString(us, args)).log();
+		}
 
 		WebFormHandler formHandler = WebPartHandlerManager.getWebFormHandler(link);
 		link = PartUtil.DEFAULT_PAGE_NAME;
@@ -89,7 +97,6 @@ public class MainServlet extends AbstractServlet {
 
 		redirectRequest(response, link);
 		us.addProcessingTime(System.currentTimeMillis() - startTime);
-		SessionManager.dropThreadLocalSession();
 	}
 
 	/**
@@ -107,29 +114,62 @@ public class MainServlet extends AbstractServlet {
 		}
 
 		link = link.substring(linkStart, linkEnd);
-		log.info(LogBuilder.createUserMessage().addParameter("requested URI", request.getRequestURI()).toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addParameter("requested URI", request.getRequestURI()).log();
 
 
 		WebPageHandler handler = WebPartHandlerManager.getWebPageHandler(link);
 		String newLink = PartUtil.DEFAULT_PAGE_NAME;
 		if (handler != null) {
 			Map args = getRequestArgs(request, us);
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("GET arguments", getRequestArgsAsString(us, args)).toString());
+			LogBuilder argsMessage = LogBuilder.createSystemMessage(log, Level.INFO);
+			if (argsMessage.isEnabled()) {
+				argsMessage.addParameter("GET arguments", getRequestArgsAsString(us, args)).log();
+			}
 			newLink = handler.handleGet(us, link, args);
 		}
 
 		if (newLink.equals(link)) { // no redirect necessary
-			WebPart result = handler.makeWebPart(us);
-			us.addProcessingTime(System.currentTimeMillis() - startTime);
-			configureResponse(us, response, result);
+			String pageKey = getPageCacheKey(us, link);
+			String pageVariant = (pageKey != null) ? handler.getPageCacheVariant(us) : null;
+			Writable cachedPage = (pageVariant != null) ? WebPageCache.getInstance().get(pageKey, pageVariant) : null;
+			if (cachedPage != null) {
+				writeResponse(request, response, cachedPage);
+			} else {
+				WebPart result = handler.makeWebPart(us);
+				us.addProcessingTime(System.currentTimeMillis() - startTime);
+				if (pageVariant != null) {
+					configureCacheablePage(us, result);
+					writeResponse(request, response, WebPageCache.getInstance().put(pageKey, pageVariant, result));
+				} else {
+					configureResponse(us, request, response, result);
+				}
+			}
 			us.clearSavedArgs(); // saved args go from post to next get
 			us.resetProcessingTime();
 		} else {
 			redirectRequest(response, newLink);
 			us.addProcessingTime(System.currentTimeMillis() - startTime);
 		}
-		SessionManager.dropThreadLocalSession();
+	}
+
+	/**
+	 * Only pages for guests without a pending message are cached; the key contains everything else about the
+	 * request a page depends on.
+	 *
+	 * @return the key of the page in the WebPageCache, or null if the page must not be cached
+	 */
+	protected String getPageCacheKey(UserSession us, String link) {
+		if (!WebPageCache.getInstance().isEnabled()) {
+			return null;
+		}
+
+		Client client = us.getClient();
+		if (!(client instanceof Guest) || !StringUtil.isNullOrEmptyString(us.getMessage())) {
+			return null;
+		}
+
+		return link + "|" + client.getLanguage().asIsoCode() + "|" + client.getPhotoSize().asInt() + "|" +
+				client.getAccessRights().asInt() + "|" + us.getSiteUrl();
 	}
 
 	/**
@@ -166,15 +206,15 @@ public class MainServlet extends AbstractServlet {
 					User user = (User) us.getClient();
 					user.setUploadedImage(image);
 					result.put("fileName", filename);
-					log.config(LogBuilder.createSystemMessage().addParameter("Uploaded image", filename).toString());
+					LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Uploaded image", filename).log();
 				} else {
 					String key = fileItemStream.getFieldName();
 					InputStream is = fileItemStream.openStream();
 					String value = CharStreams.toString(new InputStreamReader(is, Charsets.UTF_8));
 					result.put(key, value);
-					log.config(LogBuilder.createSystemMessage().
+					LogBuilder.createSystemMessage(log, Level.CONFIG).
 							addParameter("Key of uploaded parameter", key).
-							addParameter("value", value).toString());
+							addParameter("value", value).log();
 				}
 			}
 		} catch (Exception ex) {
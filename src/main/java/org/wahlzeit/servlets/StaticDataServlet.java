@@ -3,15 +3,24 @@ package org.wahlzeit.servlets;
 import com.google.appengine.api.images.Image;
 import org.apache.http.HttpStatus;
 import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.utils.HttpUtil;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -26,6 +35,11 @@ public class StaticDataServlet extends AbstractServlet {
 
 	Logger log = Logger.getLogger(StaticDataServlet.class.getName());
 
+	/**
+	 * Size of the chunks an image is written in, so that clients receive the first bytes early
+	 */
+	protected static final int CHUNK_SIZE = 64 * 1024;
+
 	@Override
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		try {
@@ -33,18 +47,34 @@ public class StaticDataServlet extends AbstractServlet {
 			String photoId = request.getParameter("photoId");
 			String sizeString = request.getParameter("size");
 			int size = Integer.valueOf(sizeString);
-			log.info(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.INFO).
 					addAction("Provide static resource").
 					addParameter("type", type).
 					addParameter("photoId", photoId).
-					addParameter("size", size).toString());
+					addParameter("size", size).log();
 
 			if ("image".equals(type)) {
-				Image image = getImage(photoId, size);
-				if (image != null) {
-					response.getOutputStream().write(image.getImageData());
-					response.getOutputStream().flush();
-					response.setStatus(HttpStatus.SC_OK);
+				Photo photo = PhotoManager.getInstance().getPhoto(photoId);
+				String entityTag = null;
+				long lastModified = -1;
+				if (photo != null) {
+					entityTag = getEntityTag(photo, size);
+					lastModified = photo.getCreationTime();
+					if (isNotModified(request, entityTag, lastModified)) {
+						setCacheHeaders(response, entityTag, lastModified);
+						response.setStatus(HttpStatus.SC_NOT_MODIFIED);
+						return;
+					}
+				}
+
+				ImageContent content = getImageContent(photo, photoId, size);
+				if (content != null) {
+					try {
+						setCacheHeaders(response, entityTag, lastModified);
+						sendImage(request, response, content, entityTag, lastModified);
+					} finally {
+						content.close();
+					}
 				} else {
 					log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
 					response.setStatus(HttpStatus.SC_NOT_FOUND);
@@ -60,32 +90,223 @@ public class StaticDataServlet extends AbstractServlet {
 		}
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the content hash of the scaled image as known by the <@link>ImageIndex</@link>. Images of a photo never
+	 * change, so if the hash is unknown, photo id, size and creation time identify the content as well.
+	 */
+	private String getEntityTag(Photo photo, int size) {
+		String photoId = photo.getId().asString();
+		String contentHash = ImageStorage.getInstance().getImageIndex().getContentHash(photoId, size);
+		if (contentHash == null) {
+			contentHash = photoId + "-" + size + "-" + Long.toHexString(photo.getCreationTime());
+		}
+		return HttpUtil.asEntityTag(contentHash);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	private boolean isNotModified(HttpServletRequest request, String entityTag, long lastModified) {
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException ex) {
+			ifModifiedSince = -1; // malformed dates are ignored
+		}
+		return HttpUtil.isNotModified(request.getHeader("If-None-Match"), ifModifiedSince, entityTag, lastModified);
+	}
+
 	/**
 	 * @methodtype command
+	 */
+	private void setCacheHeaders(HttpServletResponse response, String entityTag, long lastModified) {
+		if (entityTag == null) {
+			return;
+		}
+		response.setHeader("ETag", entityTag);
+		response.setDateHeader("Last-Modified", lastModified);
+		response.setHeader("Cache-Control", HttpUtil.IMMUTABLE_CACHE_CONTROL);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Sends the whole image or, for a valid Range request, the requested byte ranges. Several ranges are sent as
+	 * multipart/byteranges.
+	 */
+	private void sendImage(HttpServletRequest request, HttpServletResponse response, ImageContent content,
+						   String entityTag, long lastModified) throws IOException {
+		long length = content.getLength();
+		response.setHeader("Accept-Ranges", "bytes");
+
+		List<long[]> ranges = null;
+		if (isRangeApplicable(request, entityTag, lastModified)) {
+			ranges = HttpUtil.parseRanges(request.getHeader("Range"), length);
+		}
+
+		OutputStream out = response.getOutputStream();
+		if (ranges == null) {
+			response.setStatus(HttpStatus.SC_OK);
+			response.setContentLength((int) length);
+			content.writeTo(out, 0, length);
+		} else if (ranges.isEmpty()) {
+			response.setStatus(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.setContentLength(0);
+		} else if (ranges.size() == 1) {
+			long[] range = ranges.get(0);
+			response.setStatus(HttpStatus.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", HttpUtil.asContentRange(range, length));
+			response.setContentLength((int) (range[1] - range[0] + 1));
+			content.writeTo(out, range[0], range[1] - range[0] + 1);
+		} else {
+			String boundary = Long.toHexString(System.nanoTime()) + Long.toHexString(length);
+			List<byte[]> partHeaders = new ArrayList<byte[]>(ranges.size());
+			long multipartLength = 0;
+			for (long[] range : ranges) {
+				byte[] partHeader = HttpUtil.asMultipartHeader(boundary, HttpUtil.asContentRange(range, length));
+				partHeaders.add(partHeader);
+				multipartLength += partHeader.length + range[1] - range[0] + 1;
+			}
+			byte[] trailer = HttpUtil.asMultipartTrailer(boundary);
+			multipartLength += trailer.length;
+
+			response.setStatus(HttpStatus.SC_PARTIAL_CONTENT);
+			response.setContentType("multipart/byteranges; boundary=" + boundary);
+			response.setContentLength((int) multipartLength);
+			for (int i = 0; i < ranges.size(); i++) {
+				long[] range = ranges.get(i);
+				out.write(partHeaders.get(i));
+				content.writeTo(out, range[0], range[1] - range[0] + 1);
+			}
+			out.write(trailer);
+		}
+		out.flush();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	private boolean isRangeApplicable(HttpServletRequest request, String entityTag, long lastModified) {
+		String ifRange = request.getHeader("If-Range");
+		long ifRangeDate = -1;
+		if (ifRange != null && !HttpUtil.isEntityTag(ifRange)) {
+			try {
+				ifRangeDate = request.getDateHeader("If-Range");
+			} catch (IllegalArgumentException ex) {
+				return false;
+			}
+		}
+		return HttpUtil.isRangeApplicable(ifRange, ifRangeDate, entityTag, lastModified);
+	}
+
+	/**
+	 * @methodtype factory
 	 *
-	 * Loads image either from the <@link>PhotoManager</@link> or from the <@link>ImageStorage</@link>. If image does
+	 * Prefers a channel of the <@link>ImageStorage</@link>, which is streamed with FileChannel.transferTo() and avoids
+	 * copying the image into a byte array. Otherwise, loads the image either from the <@link>Photo</@link> or from the
+	 * image cache of the <@link>PhotoManager</@link>, which falls back to the <@link>ImageStorage</@link>. If image does
 	 * not exist, null is returned.
 	 */
-	private Image getImage(String photoId, int size) {
-		Image image = null;
-		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
+	private ImageContent getImageContent(Photo photo, String photoId, int size) throws IOException {
+		FileChannel channel = ImageStorage.getInstance().openImageChannel(photoId, size);
+		if (channel != null) {
+			return new ChannelImageContent(channel);
+		}
+
+		PhotoManager photoManager = PhotoManager.getInstance();
+		PhotoSize photoSize = PhotoSize.getFromInt(size);
+		Image image;
 		if (photo != null) {
-			PhotoSize photoSize = PhotoSize.getFromInt(size);
 			image = photo.getImage(photoSize);
+		} else {
+			image = photoManager.getImage(PhotoId.getIdFromString(photoId), photoSize);
 		}
-		// if not in cache load from Google Cloud Storage
-		if (image == null) {
-			Serializable rawImage = null;
-			try {
-				rawImage = ImageStorage.getInstance().readImage(photoId, size);
-			} catch (IOException e) {
-				log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
+		return (image == null) ? null : new ByteArrayImageContent(image.getImageData());
+	}
+
+	/**
+	 * The bytes of an image that can be written in parts.
+	 */
+	protected interface ImageContent extends Closeable {
+
+		/**
+		 *
+		 */
+		long getLength() throws IOException;
+
+		/**
+		 * Writes count bytes starting at position to the stream, in chunks of at most CHUNK_SIZE bytes.
+		 */
+		void writeTo(OutputStream out, long position, long count) throws IOException;
+	}
+
+	/**
+	 * An image in a channel of the <@link>ImageStorage</@link>, sent with FileChannel.transferTo().
+	 */
+	protected static class ChannelImageContent implements ImageContent {
+
+		protected final FileChannel channel;
+
+		public ChannelImageContent(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public long getLength() throws IOException {
+			return channel.size();
+		}
+
+		@Override
+		public void writeTo(OutputStream out, long position, long count) throws IOException {
+			WritableByteChannel target = Channels.newChannel(out);
+			long end = position + count;
+			while (position < end) {
+				long transferred = channel.transferTo(position, Math.min(CHUNK_SIZE, end - position), target);
+				if (transferred <= 0) {
+					throw new IOException("Image file ended before " + end + " bytes");
+				}
+				position += transferred;
 			}
-			if (rawImage != null && rawImage instanceof Image) {
-				image = (Image) rawImage;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/**
+	 * An image that has been loaded into memory.
+	 */
+	protected static class ByteArrayImageContent implements ImageContent {
+
+		protected final byte[] data;
+
+		public ByteArrayImageContent(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public long getLength() {
+			return data.length;
+		}
+
+		@Override
+		public void writeTo(OutputStream out, long position, long count) throws IOException {
+			long end = position + count;
+			while (position < end) {
+				int chunkSize = (int) Math.min(CHUNK_SIZE, end - position);
+				out.write(data, (int) position, chunkSize);
+				position += chunkSize;
 			}
 		}
-		return image;
+
+		@Override
+		public void close() {
+			// nothing to release
+		}
 	}
 }
-
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A CompactDataInput reads what a CompactDataOutput has written.
+ */
+public class CompactDataInput {
+
+	/**
+	 * Upper bound for lengths, so that corrupt input does not allocate huge arrays
+	 */
+	public static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 *
+	 */
+	protected final DataInput in;
+
+	/**
+	 * The strings read so far, by index of their first occurrence
+	 */
+	protected final List<String> dictionary = new ArrayList<String>();
+
+	/**
+	 *
+	 */
+	public CompactDataInput(DataInput in) {
+		this.in = in;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public int readVarInt() throws IOException {
+		int result = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int next = in.readUnsignedByte();
+			result |= (next & 0x7F) << shift;
+			if ((next & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new StreamCorruptedException("Variable length int is too long");
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public String readString() throws IOException {
+		int code = readVarInt();
+		if (code == CompactDataOutput.NULL_STRING) {
+			return null;
+		}
+
+		if (code == CompactDataOutput.NEW_STRING) {
+			byte[] bytes = new byte[readLength()];
+			in.readFully(bytes);
+			String result = new String(bytes, StandardCharsets.UTF_8);
+			dictionary.add(result);
+			return result;
+		}
+
+		int index = code - CompactDataOutput.FIRST_REFERENCE;
+		if (index < 0 || index >= dictionary.size()) {
+			throw new StreamCorruptedException("Unknown string reference " + index);
+		}
+		return dictionary.get(index);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public int[] readInts() throws IOException {
+		int[] result = new int[readLength()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = readVarInt();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public int[] readSortedInts() throws IOException {
+		int[] result = new int[readLength()];
+		int previous = 0;
+		for (int i = 0; i < result.length; i++) {
+			previous += readVarInt();
+			result[i] = previous;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public int readLength() throws IOException {
+		int result = readVarInt();
+		if (result < 0 || result > MAX_LENGTH) {
+			throw new StreamCorruptedException("Illegal length " + result);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A CompactDataOutput writes ints as variable length quantities, seven bits per byte, and strings with a dictionary:
+ * a string that has been written before is written as the index of its first occurrence. Sorted ints are written as
+ * differences to their predecessors, which keeps them small. A CompactDataInput reads the result.
+ */
+public class CompactDataOutput {
+
+	/**
+	 * Codes that precede a string; all larger codes are dictionary references
+	 */
+	protected static final int NULL_STRING = 0;
+	protected static final int NEW_STRING = 1;
+	protected static final int FIRST_REFERENCE = 2;
+
+	/**
+	 *
+	 */
+	protected final DataOutput out;
+
+	/**
+	 * The index of each string written so far
+	 */
+	protected final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+	/**
+	 *
+	 */
+	public CompactDataOutput(DataOutput out) {
+		this.out = out;
+	}
+
+	/**
+	 * Writes the value as an unsigned variable length quantity; negative values take five bytes.
+	 *
+	 * @methodtype command
+	 */
+	public void writeVarInt(int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * @param value may be null
+	 * @methodtype command
+	 */
+	public void writeString(String value) throws IOException {
+		if (value == null) {
+			writeVarInt(NULL_STRING);
+			return;
+		}
+
+		Integer index = dictionary.get(value);
+		if (index != null) {
+			writeVarInt(FIRST_REFERENCE + index);
+			return;
+		}
+
+		dictionary.put(value, dictionary.size());
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(NEW_STRING);
+		writeVarInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void writeInts(int[] values) throws IOException {
+		writeVarInt(values.length);
+		for (int value : values) {
+			writeVarInt(value);
+		}
+	}
+
+	/**
+	 * @param values non-negative and in ascending order
+	 * @methodtype command
+	 */
+	public void writeSortedInts(int[] values) throws IOException {
+		writeVarInt(values.length);
+		int previous = 0;
+		for (int value : values) {
+			writeVarInt(value - previous);
+			previous = value;
+		}
+	}
+
+}
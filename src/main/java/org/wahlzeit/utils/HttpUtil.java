@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A set of utility functions for HTTP caching headers, conditional requests, range requests and compression.
+ */
+public class HttpUtil {
+
+	/**
+	 * Cache-Control value for resources whose content never changes under the same URL
+	 */
+	public static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+	/**
+	 * Range requests with more ranges are answered with the whole resource
+	 */
+	public static final int MAX_RANGES = 16;
+
+	/**
+	 *
+	 */
+	public static final String GZIP_ENCODING = "gzip";
+
+	/**
+	 *
+	 */
+	protected static final String CRLF = "\r\n";
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String asEntityTag(String value) {
+		return "\"" + value + "\"";
+	}
+
+	/**
+	 * Decides whether a conditional GET can be answered with 304 Not Modified. As in RFC 7232, If-None-Match takes
+	 * precedence over If-Modified-Since, which only has a resolution of seconds.
+	 *
+	 * @param ifNoneMatch header value or null
+	 * @param ifModifiedSince header value in milliseconds or -1
+	 * @param entityTag quoted entity tag of the resource or null
+	 * @param lastModified in milliseconds or -1
+	 * @methodtype boolean-query
+	 */
+	public static boolean isNotModified(String ifNoneMatch, long ifModifiedSince, String entityTag, long lastModified) {
+		if (ifNoneMatch != null) {
+			return (entityTag != null) && matchesEntityTag(ifNoneMatch, entityTag);
+		}
+
+		if (ifModifiedSince >= 0 && lastModified >= 0) {
+			return lastModified / 1000 <= ifModifiedSince / 1000;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Weak comparison, as required for If-None-Match.
+	 *
+	 * @param header comma-separated list of entity tags or "*"
+	 * @methodtype boolean-query
+	 */
+	public static boolean matchesEntityTag(String header, String entityTag) {
+		String opaqueTag = stripWeakPrefix(entityTag);
+		for (String candidate : header.split(",")) {
+			candidate = candidate.trim();
+			if ("*".equals(candidate) || opaqueTag.equals(stripWeakPrefix(candidate))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public static boolean isEntityTag(String value) {
+		return value.startsWith("\"") || value.startsWith("W/\"");
+	}
+
+	/**
+	 * Decides whether the Range header is to be applied, given the If-Range header. If-Range requires a strong match
+	 * of the entity tag or an exact match of the date.
+	 *
+	 * @param ifRange header value or null
+	 * @param ifRangeDate header value in milliseconds if it is a date, -1 otherwise
+	 * @methodtype boolean-query
+	 */
+	public static boolean isRangeApplicable(String ifRange, long ifRangeDate, String entityTag, long lastModified) {
+		if (ifRange == null) {
+			return true;
+		}
+
+		ifRange = ifRange.trim();
+		if (isEntityTag(ifRange)) {
+			return (entityTag != null) && !ifRange.startsWith("W/") && ifRange.equals(entityTag);
+		}
+
+		return (ifRangeDate >= 0) && (lastModified >= 0) && (ifRangeDate / 1000 == lastModified / 1000);
+	}
+
+	/**
+	 * Parses a Range header of the form "bytes=0-99,200-,-50" for a resource of the given length.
+	 *
+	 * @return null if the whole resource is to be sent, because the header is missing, malformed or has too many
+	 * ranges; an empty list if no range is satisfiable; otherwise the satisfiable ranges as {first, last} byte
+	 * positions, inclusive, in the order requested
+	 * @methodtype conversion
+	 */
+	public static List<long[]> parseRanges(String header, long length) {
+		if (header == null) {
+			return null;
+		}
+
+		header = header.trim();
+		if (!header.startsWith("bytes=")) {
+			return null;
+		}
+
+		String[] rangeSpecs = header.substring("bytes=".length()).split(",");
+		if (rangeSpecs.length > MAX_RANGES) {
+			return null;
+		}
+
+		List<long[]> result = new ArrayList<long[]>(rangeSpecs.length);
+		for (String rangeSpec : rangeSpecs) {
+			rangeSpec = rangeSpec.trim();
+			int dash = rangeSpec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+
+			long first;
+			long last;
+			try {
+				String firstString = rangeSpec.substring(0, dash).trim();
+				String lastString = rangeSpec.substring(dash + 1).trim();
+				if (firstString.isEmpty()) {
+					// suffix range: the last n bytes
+					long suffixLength = Long.parseLong(lastString);
+					first = Math.max(0, length - suffixLength);
+					last = (suffixLength == 0) ? -1 : length - 1;
+				} else {
+					first = Long.parseLong(firstString);
+					last = lastString.isEmpty() ? length - 1 : Long.parseLong(lastString);
+					if (last < first) {
+						return null;
+					}
+					last = Math.min(last, length - 1);
+				}
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+
+			if (first < 0) {
+				return null;
+			}
+			if (first < length && first <= last) {
+				result.add(new long[]{first, last});
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String asContentRange(long[] range, long length) {
+		return "bytes " + range[0] + "-" + range[1] + "/" + length;
+	}
+
+	/**
+	 * @return the delimiter and headers that precede a part of a multipart/byteranges response
+	 * @methodtype conversion
+	 */
+	public static byte[] asMultipartHeader(String boundary, String contentRange) {
+		String result = CRLF + "--" + boundary + CRLF + "Content-Range: " + contentRange + CRLF + CRLF;
+		return result.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return the delimiter that closes a multipart/byteranges response
+	 * @methodtype conversion
+	 */
+	public static byte[] asMultipartTrailer(String boundary) {
+		String result = CRLF + "--" + boundary + "--" + CRLF;
+		return result.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @param header the value of the Accept-Encoding header, may be null
+	 * @return true if the client accepts gzip encoded responses
+	 * @methodtype boolean-query
+	 */
+	public static boolean acceptsGzip(String header) {
+		if (header == null) {
+			return false;
+		}
+
+		float gzipQuality = -1;
+		float anyQuality = -1;
+		for (String element : header.split(",")) {
+			String[] parameters = element.split(";");
+			String coding = parameters[0].trim().toLowerCase();
+			float quality = 1;
+			for (int i = 1; i < parameters.length; i++) {
+				String parameter = parameters[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						quality = Float.parseFloat(parameter.substring(2).trim());
+					} catch (NumberFormatException ex) {
+						quality = 0;
+					}
+				}
+			}
+
+			if (coding.equals(GZIP_ENCODING) || coding.equals("x-gzip")) {
+				gzipQuality = Math.max(gzipQuality, quality);
+			} else if (coding.equals("*")) {
+				anyQuality = Math.max(anyQuality, quality);
+			}
+		}
+
+		return (gzipQuality >= 0) ? (gzipQuality > 0) : (anyQuality > 0);
+	}
+
+	/**
+	 * Compresses with the best compression, for output that is compressed once and sent many times.
+	 *
+	 * @methodtype conversion
+	 */
+	public static byte[] asGzip(byte[] data) {
+		ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 4 + 64);
+		try (OutputStream out = createGzipOutputStream(result, Deflater.BEST_COMPRESSION)) {
+			out.write(data);
+		} catch (IOException ex) {
+			// a ByteArrayOutputStream does not throw
+			throw new IllegalStateException(ex);
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static OutputStream createGzipOutputStream(OutputStream out, final int level) throws IOException {
+		return new GZIPOutputStream(out, 8192) {
+			{
+				def.setLevel(level);
+			}
+		};
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static String stripWeakPrefix(String entityTag) {
+		return entityTag.startsWith("W/") ? entityTag.substring(2) : entityTag;
+	}
+
+}
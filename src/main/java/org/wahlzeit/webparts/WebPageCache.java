@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.wahlzeit.model.cache.LruCache;
+import org.wahlzeit.model.cache.Weigher;
+import org.wahlzeit.utils.HttpUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The WebPageCache keeps complete rendered pages for requests whose output depends only on the request itself and
+ * on model objects, e.g. guest requests for info pages or for a specific photo. A page is identified by a key that
+ * contains everything about the request the page depends on, e.g. link, language and photo size. The variant
+ * identifies the model state the page shows, typically ids and versions of model objects; a page is only used if
+ * its variant is still current and it is younger than the time to live. All pages are dropped when a template is
+ * reloaded.
+ *
+ * A page is gzip compressed before it is cached, so that clients that accept gzip get the compressed page without
+ * further work. The size bound counts both the uncompressed and the compressed page.
+ */
+public class WebPageCache {
+
+	/**
+	 * Maximum total size of the cached pages in bytes
+	 */
+	public static final long DEFAULT_MAX_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * In milliseconds
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE = 60 * 1000;
+
+	/**
+	 *
+	 */
+	protected static final WebPageCache instance = new WebPageCache(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE);
+
+	/**
+	 * Convenience method...
+	 */
+	public static WebPageCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	protected final long maxSize;
+	protected volatile long timeToLive;
+	protected volatile boolean isEnabled = true;
+	protected volatile LruCache<String, CachedWebPage> pages;
+
+	/**
+	 *
+	 */
+	protected final AtomicLong noHits = new AtomicLong();
+	protected final AtomicLong noMisses = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public WebPageCache(long maxSize, long timeToLive) {
+		if (timeToLive < 0) {
+			throw new IllegalArgumentException("Time to live must not be negative");
+		}
+
+		this.maxSize = maxSize;
+		this.timeToLive = timeToLive;
+		pages = createPages();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEnabled() {
+		return isEnabled;
+	}
+
+	/**
+	 * Disabling the cache drops all pages.
+	 *
+	 * @methodtype set
+	 */
+	public void setEnabled(boolean enabled) {
+		isEnabled = enabled;
+		if (!enabled) {
+			clear();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * @param newTimeToLive in milliseconds
+	 * @methodtype set
+	 */
+	public void setTimeToLive(long newTimeToLive) {
+		if (newTimeToLive < 0) {
+			throw new IllegalArgumentException("Time to live must not be negative");
+		}
+		timeToLive = newTimeToLive;
+	}
+
+	/**
+	 * @return the rendered page or null if no current page is cached
+	 * @methodtype get
+	 */
+	public Writable get(String key, String variant) {
+		if (!isEnabled) {
+			return null;
+		}
+
+		LruCache<String, CachedWebPage> currentPages = pages;
+		CachedWebPage result = currentPages.find(key);
+		if (result == null) {
+			noMisses.incrementAndGet();
+			return null;
+		}
+
+		if (!result.variant.equals(variant) || result.isOlderThan(timeToLive)) {
+			synchronized (currentPages) {
+				if (currentPages.find(key) == result) {
+					currentPages.delete(key);
+				}
+			}
+			noMisses.incrementAndGet();
+			return null;
+		}
+
+		noHits.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Renders the page and caches the output if the cache is enabled.
+	 *
+	 * @return the rendered page, to be used instead of the page
+	 * @methodtype command
+	 */
+	public Writable put(String key, String variant, Writable page) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		page.writeOn(out);
+		CachedWebPage result = new CachedWebPage(variant, out.toByteArray());
+
+		if (isEnabled) {
+			// the weight of a cached page must not change, so it is compressed before insertion
+			result.getGzipBytes();
+			LruCache<String, CachedWebPage> currentPages = pages;
+			synchronized (currentPages) {
+				if (currentPages.contains(key)) {
+					currentPages.delete(key);
+				}
+				currentPages.insert(key, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		pages = createPages();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return pages.size();
+	}
+
+	/**
+	 * @return the total size of the cached pages in bytes, compressed and uncompressed
+	 * @methodtype get
+	 */
+	public long getWeight() {
+		return pages.getWeight();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoHits() {
+		return noHits.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoMisses() {
+		return noMisses.get();
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected LruCache<String, CachedWebPage> createPages() {
+		return new LruCache<String, CachedWebPage>(maxSize, new Weigher<CachedWebPage>() {
+			@Override
+			public int weigh(CachedWebPage value) {
+				byte[] gzipData = value.gzipData;
+				return value.data.length + ((gzipData == null) ? 0 : gzipData.length);
+			}
+		});
+	}
+
+	/**
+	 * The UTF-8 encoded output of a rendered page.
+	 */
+	protected static class CachedWebPage implements CompressibleWritable {
+
+		protected final String variant;
+		protected final byte[] data;
+		protected final long creationTime = System.currentTimeMillis();
+
+		/**
+		 * Computed before the page is cached, or on first use for pages that are not cached; computing it twice
+		 * concurrently is harmless
+		 */
+		protected volatile byte[] gzipData = null;
+
+		public CachedWebPage(String variant, byte[] data) {
+			this.variant = variant;
+			this.data = data;
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected boolean isOlderThan(long age) {
+			return System.currentTimeMillis() - creationTime > age;
+		}
+
+		@Override
+		public byte[] getBytes() {
+			return data;
+		}
+
+		@Override
+		public byte[] getGzipBytes() {
+			byte[] result = gzipData;
+			if (result == null) {
+				result = HttpUtil.asGzip(data);
+				gzipData = result;
+			}
+			return result;
+		}
+
+		@Override
+		public void writeOn(Writer writer) throws IOException {
+			writer.write(new String(data, StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public void writeOn(OutputStream out) throws IOException {
+			out.write(data);
+		}
+	}
+
+}
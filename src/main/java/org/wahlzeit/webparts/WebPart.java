@@ -24,6 +24,7 @@ import org.wahlzeit.utils.EnumValue;
 import org.wahlzeit.utils.HtmlUtil;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
@@ -41,19 +42,36 @@ public class WebPart implements Writable {
 	protected WebPartTemplate template = null;
 
 	/**
-	 *
+	 * Values of the template's keys, indexed by slot index
+	 */
+	protected Object[] values;
+
+	/**
+	 * Values of keys the template does not have; they are never written, but can be read
 	 */
-	protected Map<String, Object> parts = new HashMap<String, Object>();
+	protected Map<String, Object> otherParts = null;
 
 	/**
 	 *
 	 */
 	public WebPart(WebPartTemplate myTemplate) {
 		template = myTemplate;
+		values = new Object[(template == null) ? 0 : template.getNoSlotKeys()];
+	}
+
+	/**
+	 *
+	 */
+	public WebPartTemplate getTemplate() {
+		return template;
 	}
 
 	public Object getValue(String key) {
-		return parts.get(key);
+		int slotIndex = getSlotIndex(key);
+		if (slotIndex >= 0) {
+			return values[slotIndex];
+		}
+		return (otherParts == null) ? null : otherParts.get(key);
 	}
 
 	/**
@@ -169,42 +187,40 @@ public class WebPart implements Writable {
 	 *
 	 */
 	protected void putValue(String key, Object value) {
-		if (value != null) {
-			parts.put(key, value);
+		if (value == null) {
+			return;
+		}
+
+		int slotIndex = getSlotIndex(key);
+		if (slotIndex >= 0) {
+			values[slotIndex] = value;
+		} else {
+			if (otherParts == null) {
+				otherParts = new HashMap<String, Object>();
+			}
+			otherParts.put(key, value);
 		}
 	}
 
+	/**
+	 * @methodtype helper
+	 */
+	protected int getSlotIndex(String key) {
+		return (template == null) ? -1 : template.getSlotIndex(key);
+	}
+
 	/**
 	 *
 	 */
 	public void writeOn(Writer out) throws IOException {
-		String tmpl = template.asString();
-		String[] keys = template.getKeys();
-		int[] slots = template.getSlots();
-
-		int start = 0;
-		for (int i = 0; i < keys.length; i++) {
-			int index = slots[i];
-			out.write(tmpl, start, index - start);
-
-			String key = keys[i];
-			if (key != null) {
-				Object object = parts.get(key);
-				if (object != null) {
-					if (object instanceof Writable) {
-						Writable part = (Writable) object;
-						part.writeOn(out);
-					} else {
-						String value = object.toString();
-						out.write(value);
-					}
-				}
-			}
-
-			start = index;
-		}
+		template.writeOn(out, values);
+	}
 
-		out.write(tmpl, start, tmpl.length() - start);
+	/**
+	 *
+	 */
+	public void writeOn(OutputStream out) throws IOException {
+		template.writeOn(out, values);
 	}
 
 }
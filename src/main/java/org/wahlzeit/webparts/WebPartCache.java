@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.wahlzeit.model.cache.LruCache;
+import org.wahlzeit.model.cache.Weigher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The WebPartCache keeps the rendered output of Writables that are the same for many users, e.g. info pages or
+ * sidebars, so that they are rendered once and then replayed as bytes. A fragment is identified by its template,
+ * which includes the language, and a variant chosen by the caller. The variant must contain everything else the
+ * output depends on, typically ids and versions of the model objects shown; a changed model object then has a new
+ * variant, and the stale fragment ages out of the cache. Fragments of a template that has been reloaded are not used.
+ */
+public class WebPartCache {
+
+	/**
+	 * Maximum total size of the cached fragments in bytes
+	 */
+	public static final long DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 *
+	 */
+	protected static final WebPartCache instance = new WebPartCache(DEFAULT_MAX_SIZE);
+
+	/**
+	 * Convenience method...
+	 */
+	public static WebPartCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	protected final long maxSize;
+	protected volatile LruCache<String, CachedWebPart> fragments;
+
+	/**
+	 *
+	 */
+	protected final AtomicLong noHits = new AtomicLong();
+	protected final AtomicLong noMisses = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public WebPartCache(long maxSize) {
+		this.maxSize = maxSize;
+		fragments = createFragments();
+	}
+
+	/**
+	 * @return the rendered fragment or null if it is not cached
+	 * @methodtype get
+	 */
+	public Writable get(WebPartTemplate template, String variant) {
+		CachedWebPart result = fragments.find(asKey(template, variant));
+		if (result == null || result.template != template) {
+			noMisses.incrementAndGet();
+			return null;
+		}
+
+		noHits.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Renders the part and caches the output.
+	 *
+	 * @return the rendered fragment, to be used instead of the part
+	 * @methodtype command
+	 */
+	public Writable put(WebPartTemplate template, String variant, Writable part) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		part.writeOn(out);
+		CachedWebPart result = new CachedWebPart(template, out.toByteArray());
+
+		String key = asKey(template, variant);
+		LruCache<String, CachedWebPart> currentFragments = fragments;
+		synchronized (currentFragments) {
+			if (currentFragments.contains(key)) {
+				currentFragments.delete(key);
+			}
+			currentFragments.insert(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		fragments = createFragments();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return fragments.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoHits() {
+		return noHits.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoMisses() {
+		return noMisses.get();
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected String asKey(WebPartTemplate template, String variant) {
+		return template.getName() + "|" + variant;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected LruCache<String, CachedWebPart> createFragments() {
+		return new LruCache<String, CachedWebPart>(maxSize, new Weigher<CachedWebPart>() {
+			@Override
+			public int weigh(CachedWebPart value) {
+				return value.data.length;
+			}
+		});
+	}
+
+	/**
+	 * The UTF-8 encoded output of a rendered part.
+	 */
+	protected static class CachedWebPart implements Writable {
+
+		protected final WebPartTemplate template;
+		protected final byte[] data;
+
+		public CachedWebPart(WebPartTemplate template, byte[] data) {
+			this.template = template;
+			this.data = data;
+		}
+
+		@Override
+		public void writeOn(Writer writer) throws IOException {
+			writer.write(new String(data, StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public void writeOn(OutputStream out) throws IOException {
+			out.write(data);
+		}
+	}
+
+}
@@ -20,12 +20,22 @@
 
 package org.wahlzeit.webparts;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A WebPartTmpl is a template for a WebPart.
  * It gets initialized once and is read-only after that.
+ *
+ * Initialization compiles the template: each distinct key gets a slot index, which WebParts use to store their
+ * values in an array, and the static text between the slots is encoded to UTF-8 once, so that rendering to an
+ * OutputStream only copies bytes.
  */
 public class WebPartTemplate {
 
@@ -45,6 +55,23 @@ public class WebPartTemplate {
 	protected String[] keys = null;
 	protected int[] slots = null;
 
+	/**
+	 * Static text before, between and after the slots; one more than there are slots
+	 */
+	protected String[] segments = new String[]{""};
+	protected byte[][] encodedSegments = new byte[][]{new byte[0]};
+
+	/**
+	 * For each slot, the index of its key in slotKeys
+	 */
+	protected int[] slotIndexes = new int[0];
+
+	/**
+	 * The distinct keys of the template, indexed by slot index
+	 */
+	protected String[] slotKeys = new String[0];
+	protected Map<String, Integer> slotIndexByKey = new HashMap<String, Integer>();
+
 	/**
 	 *
 	 */
@@ -56,38 +83,56 @@ public class WebPartTemplate {
 	 * @methodtype initialization
 	 */
 	public void initialize(String source) {
-		List<String> keyList = new LinkedList<String>();
-		List<Integer> slotList = new LinkedList<Integer>();
-
-		StringBuffer buffer = new StringBuffer(source);
-
-		for (int index = 0; index != -1; ) {
-			int nextSlot = buffer.indexOf("{$", index);
-			if (nextSlot != -1) {
-				int endSlot = buffer.indexOf("}", nextSlot);
-				if (endSlot != -1) {
-					String key = buffer.substring(nextSlot + 2, endSlot);
-
-					keyList.add(key);
-					slotList.add(nextSlot);
-
-					buffer.replace(nextSlot, endSlot + 1, "");
-					index = nextSlot;
-				}
-				index = endSlot;
-			} else {
-				index = -1;
+		List<String> keyList = new ArrayList<String>();
+		List<Integer> slotList = new ArrayList<Integer>();
+		List<String> segmentList = new ArrayList<String>();
+
+		StringBuilder buffer = new StringBuilder(source.length());
+		int index = 0;
+		while (index < source.length()) {
+			int nextSlot = source.indexOf("{$", index);
+			int endSlot = (nextSlot == -1) ? -1 : source.indexOf("}", nextSlot);
+			if (endSlot == -1) {
+				break;
 			}
+
+			segmentList.add(source.substring(index, nextSlot));
+			buffer.append(source, index, nextSlot);
+			keyList.add(source.substring(nextSlot + 2, endSlot));
+			slotList.add(buffer.length());
+			index = endSlot + 1;
 		}
+		segmentList.add(source.substring(Math.min(index, source.length())));
+		buffer.append(source, Math.min(index, source.length()), source.length());
 
 		int length = keyList.size();
 		keys = new String[length];
 		slots = new int[length];
+		slotIndexes = new int[length];
+		Map<String, Integer> newSlotIndexByKey = new HashMap<String, Integer>();
+		List<String> slotKeyList = new ArrayList<String>();
 		for (int i = 0; i < length; i++) {
-			keys[i] = keyList.get(i);
+			String key = keyList.get(i).intern();
+			Integer slotIndex = newSlotIndexByKey.get(key);
+			if (slotIndex == null) {
+				slotIndex = slotKeyList.size();
+				slotKeyList.add(key);
+				newSlotIndexByKey.put(key, slotIndex);
+			}
+
+			keys[i] = key;
 			slots[i] = slotList.get(i);
+			slotIndexes[i] = slotIndex;
 		}
 
+		segments = segmentList.toArray(new String[segmentList.size()]);
+		encodedSegments = new byte[segments.length][];
+		for (int i = 0; i < segments.length; i++) {
+			encodedSegments[i] = segments[i].getBytes(StandardCharsets.UTF_8);
+		}
+
+		slotKeys = slotKeyList.toArray(new String[slotKeyList.size()]);
+		slotIndexByKey = newSlotIndexByKey;
 		template = buffer.toString();
 	}
 
@@ -119,4 +164,66 @@ public class WebPartTemplate {
 		return slots; // @FIXME needs cloning?
 	}
 
+	/**
+	 * @return the slot index of the key or -1 if the template has no such key
+	 * @methodtype get
+	 */
+	public int getSlotIndex(String key) {
+		Integer result = slotIndexByKey.get(key);
+		return (result == null) ? -1 : result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getSlotKey(int slotIndex) {
+		return slotKeys[slotIndex];
+	}
+
+	/**
+	 * @return the number of distinct keys
+	 * @methodtype get
+	 */
+	public int getNoSlotKeys() {
+		return slotKeys.length;
+	}
+
+	/**
+	 * Writes the template with the value of each slot taken from values, indexed by slot index.
+	 *
+	 * @methodtype command
+	 */
+	public void writeOn(Writer out, Object[] values) throws IOException {
+		for (int i = 0; i < slotIndexes.length; i++) {
+			out.write(segments[i]);
+
+			Object value = values[slotIndexes[i]];
+			if (value instanceof Writable) {
+				((Writable) value).writeOn(out);
+			} else if (value != null) {
+				out.write(value.toString());
+			}
+		}
+		out.write(segments[slotIndexes.length]);
+	}
+
+	/**
+	 * Writes the template as UTF-8 with the value of each slot taken from values, indexed by slot index.
+	 *
+	 * @methodtype command
+	 */
+	public void writeOn(OutputStream out, Object[] values) throws IOException {
+		for (int i = 0; i < slotIndexes.length; i++) {
+			out.write(encodedSegments[i]);
+
+			Object value = values[slotIndexes[i]];
+			if (value instanceof Writable) {
+				((Writable) value).writeOn(out);
+			} else if (value != null) {
+				out.write(value.toString().getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		out.write(encodedSegments[slotIndexes.length]);
+	}
+
 }
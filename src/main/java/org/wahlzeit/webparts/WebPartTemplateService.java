@@ -20,23 +20,69 @@
 
 package org.wahlzeit.webparts;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.Files;
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
 import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.LogBuilder;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The WebPartTemplateService creates WebPartTemplates upon request by reading them from disk.
  * It requires configuration with a template directory and uses the following naming convention: tmplDir/language/part-type/part-name.html
+ *
+ * Templates are kept in a concurrent map, so lookups need no locking. preloadTemplates() compiles all templates of
+ * the template directory in parallel, so that no request has to wait for a template to be read. startWatching()
+ * recompiles templates in the background whenever their files change; a changed template replaces the old one
+ * atomically, and WebParts that are being rendered keep using the template they were created with. A file is only
+ * recompiled once its events have settled for RELOAD_DELAY, as editors truncate a file before writing it, and an empty
+ * file never replaces a template.
  */
 public class WebPartTemplateService {
 
+	/**
+	 *
+	 */
+	public static final String TEMPLATE_FILE_EXTENSION = ".html";
+
+	/**
+	 * Time without further events after which a changed template file is recompiled, in milliseconds
+	 */
+	public static final long RELOAD_DELAY = 200;
+
 	/**
 	 *
 	 */
@@ -45,11 +91,16 @@ public class WebPartTemplateService {
 	/**
 	 *
 	 */
-	protected Map<String, WebPartTemplate> templates = new HashMap<String, WebPartTemplate>();
+	protected ConcurrentMap<String, WebPartTemplate> templates = new ConcurrentHashMap<String, WebPartTemplate>();
 	/**
 	 *
 	 */
-	protected ConfigDir templatesDir = null;
+	protected volatile ConfigDir templatesDir = null;
+
+	/**
+	 * Watches the template directories while hot reloading is enabled, null otherwise
+	 */
+	protected WatchService watchService = null;
 
 	/**
 	 *
@@ -73,46 +124,314 @@ public class WebPartTemplateService {
 		WebPartTemplate result = templates.get(shortName);
 
 		if (result == null) {
-			try {
-				loadTemplate(shortName);
-				result = templates.get(shortName);
-			} catch (IOException ioex) {
-				log.warning(LogBuilder.createSystemMessage().
-						addParameter("template name", shortName).
-						addException("Problem loading template", ioex).toString());
-			}
+			loadTemplate(shortName);
+			result = templates.get(shortName);
 		}
 
 		return result;
 	}
 
 	/**
-	 *
+	 * Reads and compiles the template, then replaces the current one, if any. A template that cannot be read is only
+	 * logged, so the current one stays in place; so is an empty file, which is most likely still being written.
 	 */
-	protected void loadTemplate(String shortName) throws IOException {
+	protected void loadTemplate(String shortName) {
 		WebPartTemplate template = new WebPartTemplate(shortName);
-		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + ".html");
-		log.config(LogBuilder.createSystemMessage().
+		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + TEMPLATE_FILE_EXTENSION);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("open html template file").
-				addParameter("file name", fileName).toString());
+				addParameter("file name", fileName).log();
 		File file = new File(fileName);
 
 		try {
-			String source = Files.toString(file, Charsets.UTF_8);
+			String source = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
 			//String source = Resources.toString(Resources.getResource(fileName), Charsets.UTF_8);
 
+			if (source.isEmpty() && templates.containsKey(shortName)) {
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("template name", shortName).
+						addMessage("Kept template, as its file is empty").toString());
+				return;
+			}
+
 			if (source != null) {
 				template.initialize(source);
-				log.config(LogBuilder.createSystemMessage().addAction("Initialize template").toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Initialize template").log();
 			}
 
 			templates.put(shortName, template);
 		} catch (IOException e) {
 			log.warning(LogBuilder.createSystemMessage().
+					addParameter("template name", shortName).
 					addException("I/O Error while reading Template file", e).toString());
 		}
 	}
 
+	/**
+	 * Compiles all templates of the template directory in parallel and returns when they are available.
+	 *
+	 * @return the number of templates
+	 */
+	public int preloadTemplates() throws InterruptedException {
+		Collection<String> shortNames = findTemplateNames();
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.max(1, Runtime.getRuntime().availableProcessors()), createThreadFactory());
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>(shortNames.size());
+			for (final String shortName : shortNames) {
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						loadTemplate(shortName);
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> result : results) {
+				try {
+					result.get();
+				} catch (ExecutionException ex) {
+					log.warning(LogBuilder.createSystemMessage().
+							addException("Problem preloading template", ex.getCause()).toString());
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("preloaded templates", shortNames.size()).log();
+		return shortNames.size();
+	}
+
+	/**
+	 * @return the short names of all templates in the default and custom directories
+	 */
+	protected Collection<String> findTemplateNames() {
+		final Set<String> result = new LinkedHashSet<String>();
+		for (final Path dir : getTemplateDirs()) {
+			if (!Files.isDirectory(dir)) {
+				continue;
+			}
+
+			try {
+				Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+						String shortName = asShortName(dir, file);
+						if (shortName != null) {
+							result.add(shortName);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} catch (IOException ex) {
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("directory", dir).
+						addException("Problem listing templates", ex).toString());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Starts recompiling templates in the background when their files are created, modified or deleted. Only meant
+	 * for development, as App Engine neither changes deployed files nor keeps threads beyond their request.
+	 */
+	public synchronized void startWatching() throws IOException {
+		if (watchService != null) {
+			return;
+		}
+
+		final WatchService newWatchService = FileSystems.getDefault().newWatchService();
+		for (Path dir : getTemplateDirs()) {
+			if (Files.isDirectory(dir)) {
+				registerAll(newWatchService, dir);
+			}
+		}
+		watchService = newWatchService;
+
+		Thread watcher = createThreadFactory().newThread(new Runnable() {
+			@Override
+			public void run() {
+				watchTemplates(newWatchService);
+			}
+		});
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 *
+	 */
+	public synchronized void stopWatching() {
+		if (watchService == null) {
+			return;
+		}
+
+		try {
+			watchService.close();
+		} catch (IOException ex) {
+			log.warning(LogBuilder.createSystemMessage().
+					addException("Problem closing template watch service", ex).toString());
+		}
+		watchService = null;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isWatching() {
+		return watchService != null;
+	}
+
+	/**
+	 * Reloads changed templates until the watch service is closed. Each changed file is reloaded once no event for it
+	 * has arrived for RELOAD_DELAY, so that a file is not read while it is being written.
+	 */
+	protected void watchTemplates(WatchService watchService) {
+		// changed files by the time of their last event, oldest first
+		Map<Path, Long> changedFiles = new LinkedHashMap<Path, Long>();
+		try {
+			while (true) {
+				WatchKey key;
+				if (changedFiles.isEmpty()) {
+					key = watchService.take();
+				} else {
+					long firstDueTime = changedFiles.values().iterator().next() + RELOAD_DELAY;
+					key = watchService.poll(Math.max(firstDueTime - System.currentTimeMillis(), 1),
+							TimeUnit.MILLISECONDS);
+				}
+
+				if (key != null) {
+					Path dir = (Path) key.watchable();
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							changedFiles.clear();
+							reloadAllTemplates();
+							continue;
+						}
+
+						Path file = dir.resolve((Path) event.context());
+						if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+							registerAll(watchService, file);
+							continue;
+						}
+
+						changedFiles.remove(file);
+						changedFiles.put(file, System.currentTimeMillis());
+					}
+					key.reset();
+				}
+
+				reloadSettledTemplates(changedFiles);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException ex) {
+			// stopped watching
+		} catch (IOException ex) {
+			log.warning(LogBuilder.createSystemMessage().
+					addException("Stopped watching templates", ex).toString());
+		}
+	}
+
+	/**
+	 * Reloads and removes the files whose last event is at least RELOAD_DELAY old.
+	 */
+	protected void reloadSettledTemplates(Map<Path, Long> changedFiles) {
+		long settledTime = System.currentTimeMillis() - RELOAD_DELAY;
+		for (Iterator<Map.Entry<Path, Long>> i = changedFiles.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<Path, Long> changedFile = i.next();
+			if (changedFile.getValue() > settledTime) {
+				break;
+			}
+			i.remove();
+			reloadTemplate(changedFile.getKey());
+		}
+	}
+
+	/**
+	 * Recompiles the template of the changed file; a deleted template falls back to the other template directory.
+	 */
+	protected void reloadTemplate(Path file) {
+		for (Path dir : getTemplateDirs()) {
+			String shortName = asShortName(dir, file);
+			if (shortName == null) {
+				continue;
+			}
+
+			if (getTemplatesDir().hasDefaultFile(shortName + TEMPLATE_FILE_EXTENSION) ||
+					getTemplatesDir().hasCustomFile(shortName + TEMPLATE_FILE_EXTENSION)) {
+				loadTemplate(shortName);
+			} else {
+				templates.remove(shortName);
+			}
+			// pages rendered from the old template must not be replayed
+			WebPageCache.getInstance().clear();
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("reloaded template", shortName).log();
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void reloadAllTemplates() {
+		for (String shortName : findTemplateNames()) {
+			loadTemplate(shortName);
+		}
+		WebPageCache.getInstance().clear();
+	}
+
+	/**
+	 * Registers the directory and all its subdirectories.
+	 */
+	protected void registerAll(final WatchService watchService, Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+				subDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * @return the default and the custom template directory
+	 */
+	protected List<Path> getTemplateDirs() {
+		List<Path> result = new ArrayList<Path>(2);
+		result.add(Paths.get(getTemplatesDir().asString(), ConfigDir.DEFAULT_DIR_NAME));
+		result.add(Paths.get(getTemplatesDir().asString(), ConfigDir.CUSTOM_DIR_NAME));
+		return result;
+	}
+
+	/**
+	 * @return the short name of the template file below the directory, or null if it is none
+	 */
+	protected String asShortName(Path dir, Path file) {
+		String fileName = file.getFileName().toString();
+		if (!file.startsWith(dir) || !fileName.endsWith(TEMPLATE_FILE_EXTENSION)) {
+			return null;
+		}
+
+		String relativeName = dir.relativize(file).toString();
+		return relativeName.substring(0, relativeName.length() - TEMPLATE_FILE_EXTENSION.length());
+	}
+
+	/**
+	 * On App Engine, threads must be created via the ThreadManager.
+	 */
+	protected ThreadFactory createThreadFactory() {
+		if (ApiProxy.getCurrentEnvironment() != null) {
+			return ThreadManager.currentRequestThreadFactory();
+		}
+		return Executors.defaultThreadFactory();
+	}
+
 	/**
 	 *
 	 */
@@ -121,10 +440,11 @@ public class WebPartTemplateService {
 	}
 
 	/**
-	 *
+	 * Templates from a previous directory are dropped.
 	 */
 	public void setTemplatesDir(ConfigDir newTemplatesDir) {
 		templatesDir = newTemplatesDir;
+		templates.clear();
 	}
 
 }
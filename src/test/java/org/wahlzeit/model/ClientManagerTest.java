@@ -0,0 +1,287 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.annotation.Id;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for the indexes of {@link ClientManager}.
+ */
+public class ClientManagerTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	@Test
+	public void testNicknameIsUnique() {
+		User user = createUser("cmt1", "uniqueNick", "cmt1@wahlzeit.org");
+		UserManager userManager = UserManager.getInstance();
+		assertTrue(userManager.isNicknameUsed("uniqueNick"));
+
+		try {
+			createUser("cmt2", "uniqueNick", "cmt2@wahlzeit.org");
+			fail("nickname must not be used twice");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+		assertNull(userManager.getClientById("cmt2"));
+		assertSame(user, userManager.getClientById("cmt1"));
+	}
+
+	@Test
+	public void testChangeNickname() {
+		final User user = createUser("cmt3", "oldNick", "cmt3@wahlzeit.org");
+		createUser("cmt4", "takenNick", "cmt4@wahlzeit.org");
+		UserManager userManager = UserManager.getInstance();
+
+		runInOfy(new Runnable() {
+			@Override
+			public void run() {
+				user.setNickName("newNick");
+			}
+		});
+		assertFalse(userManager.isNicknameUsed("oldNick"));
+		assertTrue(userManager.isNicknameUsed("newNick"));
+
+		try {
+			user.setNickName("takenNick");
+			fail("nickname must not be used twice");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+		assertEquals("newNick", user.getNickName());
+		assertTrue(userManager.isNicknameUsed("newNick"));
+	}
+
+	@Test
+	public void testEmailAddressIndex() {
+		User user = createUser("cmt5", "mailNick", "cmt5@wahlzeit.org");
+		assertSame(user, UserManager.getInstance().getUserByEmailAddress("cmt5@wahlzeit.org"));
+	}
+
+	@Test
+	public void testDeleteClientReleasesIndexes() {
+		final Guest guest = createGuest();
+		final UserManager userManager = UserManager.getInstance();
+		runInOfy(new Runnable() {
+			@Override
+			public void run() {
+				userManager.addHttpSessionIdToClientMapping("cmtSession", guest);
+			}
+		});
+		assertSame(guest, userManager.getClientByHttpSessionId("cmtSession"));
+
+		runInOfy(new Runnable() {
+			@Override
+			public void run() {
+				userManager.deleteClient(guest);
+			}
+		});
+		assertNull(userManager.getClientById(guest.getId()));
+		assertNull(userManager.getClientByHttpSessionId("cmtSession"));
+		assertFalse(userManager.isNicknameUsed(guest.getNickName()));
+	}
+
+	@Test
+	public void testGuestIsNotWrittenUntilPersisted() {
+		final Guest guest = createGuest();
+		final UserManager userManager = UserManager.getInstance();
+		runInOfy(new Runnable() {
+			@Override
+			public void run() {
+				userManager.addHttpSessionIdToClientMapping("cmtEphemeralSession", guest);
+				userManager.saveClients();
+			}
+		});
+		assertTrue(guest.isEphemeral());
+		assertNull(loadGuest(guest.getId()));
+
+		runInOfy(new Runnable() {
+			@Override
+			public void run() {
+				guest.addPraisedPhotoId(PhotoId.getNextId());
+				userManager.persistClient(guest);
+			}
+		});
+		assertFalse(guest.isEphemeral());
+		assertFalse(guest.isDirty());
+		Guest loadedGuest = loadGuest(guest.getId());
+		assertEquals("cmtEphemeralSession", loadedGuest.getHttpSessionId());
+		assertEquals(1, loadedGuest.getPraisedPhotoIds().size());
+
+		runInOfy(new Runnable() {
+			@Override
+			public void run() {
+				userManager.deleteClient(guest);
+			}
+		});
+		assertNull(loadGuest(guest.getId()));
+	}
+
+	@Test
+	public void testDeleteEphemeralGuest() {
+		final Guest guest = createGuest();
+		final UserManager userManager = UserManager.getInstance();
+		runInOfy(new Runnable() {
+			@Override
+			public void run() {
+				userManager.deleteClient(guest);
+			}
+		});
+		assertNull(userManager.getClientById(guest.getId()));
+		assertTrue(guest.isEphemeral());
+	}
+
+	@Test
+	public void testLoadGuestWithPhotoIdLists() {
+		ObjectifyService.register(LegacyClient.class);
+		final Guest guest = createGuest();
+		final int firstId = PhotoId.getNextIdAsInt();
+		final int secondId = PhotoId.getNextIdAsInt();
+
+		// rewrite the guest as it was stored when photo ids were kept in lists
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				LegacyClient legacyClient = new LegacyClient();
+				legacyClient.praisedPhotoIds.add(PhotoId.getIdFromInt(firstId));
+				legacyClient.praisedPhotoIds.add(PhotoId.getIdFromInt(secondId));
+				legacyClient.skippedPhotoIds.add(PhotoId.getIdFromInt(secondId));
+				Key<LegacyClient> legacyKey = OfyService.ofy().save().entity(legacyClient).now();
+				Key<Guest> key = OfyService.ofy().save().entity(guest).now();
+
+				DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+				try {
+					Entity legacyEntity = datastore.get(legacyKey.getRaw());
+					Entity entity = datastore.get(key.getRaw());
+					entity.removeProperty("praisedPhotoIdSet");
+					entity.removeProperty("skippedPhotoIdSet");
+					entity.setPropertiesFrom(legacyEntity);
+					datastore.put(entity);
+				} catch (EntityNotFoundException ex) {
+					fail("guest was not saved");
+				}
+				return null;
+			}
+		});
+
+		Guest loadedGuest = loadGuest(guest.getId());
+		assertArrayEquals(new int[]{firstId, secondId}, loadedGuest.getPraisedPhotoIds().toIntArray());
+		assertArrayEquals(new int[]{secondId}, loadedGuest.getSkippedPhotoIds().toIntArray());
+	}
+
+	@Test
+	public void testConcurrentNicknameReservation() throws InterruptedException {
+		final UserManager userManager = UserManager.getInstance();
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger noReservations = new AtomicInteger();
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			final Guest guest = createGuest();
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						userManager.reserveNickname("raceNick", guest);
+						noReservations.incrementAndGet();
+					} catch (IllegalArgumentException ex) {
+						// another guest was faster
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(1, noReservations.get());
+	}
+
+	protected User createUser(final String id, final String nickName, final String emailAddress) {
+		return ObjectifyService.run(new Work<User>() {
+			@Override
+			public User run() {
+				return new User(id, nickName, emailAddress);
+			}
+		});
+	}
+
+	protected Guest createGuest() {
+		return ObjectifyService.run(new Work<Guest>() {
+			@Override
+			public Guest run() {
+				return new Guest();
+			}
+		});
+	}
+
+	protected Guest loadGuest(final String id) {
+		return ObjectifyService.run(new Work<Guest>() {
+			@Override
+			public Guest run() {
+				return OfyService.ofy().load().type(Guest.class).parent(ObjectManager.applicationRootKey).id(id).now();
+			}
+		});
+	}
+
+	protected void runInOfy(final Runnable runnable) {
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				runnable.run();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * The photo id fields of a client before they were kept in PhotoIdSets
+	 */
+	@com.googlecode.objectify.annotation.Entity
+	public static class LegacyClient {
+
+		@Id
+		protected Long id;
+
+		protected List<PhotoId> praisedPhotoIds = new ArrayList<PhotoId>();
+
+		protected List<PhotoId> skippedPhotoIds = new ArrayList<PhotoId>();
+	}
+
+}
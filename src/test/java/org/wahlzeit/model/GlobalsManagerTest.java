@@ -0,0 +1,83 @@
+package org.wahlzeit.model;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.servlets.AbstractServlet;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for the id counters of {@link GlobalsManager}.
+ */
+public class GlobalsManagerTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private Long savedClientId;
+	private CaseId savedCaseId;
+	private int savedPhotoId;
+	private int savedSessionId;
+
+	@Before
+	public void saveIds() {
+		savedClientId = UserManager.getInstance().getLastClientId();
+		savedCaseId = Case.getLastCaseId();
+		savedPhotoId = PhotoId.getCurrentIdAsInt();
+		savedSessionId = AbstractServlet.getLastSessionId();
+	}
+
+	@After
+	public void restoreIds() {
+		UserManager.getInstance().setLastClientId(savedClientId);
+		Case.setLastCaseId(savedCaseId);
+		PhotoId.setCurrentIdFromInt(Math.max(savedPhotoId, PhotoId.getCurrentIdAsInt()));
+		AbstractServlet.setLastSessionId(savedSessionId);
+	}
+
+	@Test
+	public void testLeasedIdsAreNotHandedOutAfterRestart() {
+		GlobalsManager.getInstance().loadGlobals();
+		Long clientId = UserManager.getInstance().getNextClientId();
+		int caseId = Case.getNextCaseId().asInt();
+
+		// a restarted instance only sees the globals in the datastore
+		GlobalsManager.getInstance().loadGlobals();
+		assertTrue(UserManager.getInstance().getNextClientId() > clientId);
+		assertTrue(Case.getNextCaseId().asInt() > caseId);
+	}
+
+	@Test
+	public void testSaveGlobalsDoesNotLowerCounters() {
+		GlobalsManager.getInstance().loadGlobals();
+		Long clientId = UserManager.getInstance().getNextClientId();
+		int caseId = Case.getNextCaseId().asInt();
+
+		UserManager.getInstance().setLastClientId(0L);
+		Case.setLastCaseId(CaseId.NULL_ID);
+		GlobalsManager.getInstance().saveGlobals();
+
+		Globals globals = readGlobals();
+		assertTrue(globals.getLastUserId() >= clientId);
+		assertTrue(globals.getLastCaseId() >= caseId);
+	}
+
+	private Globals readGlobals() {
+		return ObjectifyService.run(new Work<Globals>() {
+			@Override
+			public Globals run() {
+				return GlobalsManager.getInstance().readGlobals();
+			}
+		});
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.cache.LruCache;
+import org.wahlzeit.model.cache.Weigher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LruCacheTest {
+
+    private static final int MAX_SIZE = 3;
+
+    private LruCache<Integer, String> cache;
+
+    @Before
+    public void setup() {
+        cache = new LruCache<>(MAX_SIZE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConstructor() {
+        new LruCache<Integer, String>(0);
+    }
+
+    @Test
+    public void testInsertAndGet() {
+        cache.insert(1, "1");
+
+        assertTrue(cache.contains(1));
+        assertEquals("1", cache.get(1));
+        assertEquals("1", cache.find(1));
+    }
+
+    @Test
+    public void testFindMissingKey() {
+        assertNull(cache.find(5));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testInvalidGet() {
+        cache.get(5);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInsertTwice() {
+        cache.insert(1, "1");
+        cache.insert(1, "1");
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        cache.insert(1, "1");
+        cache.insert(2, "2");
+        cache.insert(3, "3");
+
+        // touch 1, so 2 becomes the eldest entry
+        cache.get(1);
+        cache.insert(4, "4");
+
+        assertEquals(MAX_SIZE, cache.size());
+        assertTrue(cache.contains(1));
+        assertFalse(cache.contains(2));
+        assertTrue(cache.contains(3));
+        assertTrue(cache.contains(4));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testEvictsByWeight() {
+        LruCache<Integer, String> weightedCache = new LruCache<>(10, new Weigher<String>() {
+            @Override
+            public int weigh(String value) {
+                return value.length();
+            }
+        });
+
+        weightedCache.insert(1, "aaaa");
+        weightedCache.insert(2, "bbbb");
+        assertEquals(8, weightedCache.getWeight());
+
+        weightedCache.insert(3, "cccccc");
+        assertFalse(weightedCache.contains(1));
+        assertTrue(weightedCache.contains(2));
+        assertTrue(weightedCache.contains(3));
+        assertEquals(10, weightedCache.getWeight());
+
+        // values heavier than the bound are not kept
+        weightedCache.insert(4, "ddddddddddd");
+        assertFalse(weightedCache.contains(4));
+        assertEquals(0, weightedCache.getWeight());
+    }
+
+    @Test
+    public void testDelete() {
+        cache.insert(1, "1");
+        cache.delete(1);
+
+        assertFalse(cache.contains(1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDelete() {
+        cache.delete(1);
+    }
+}
@@ -22,7 +22,12 @@ package org.wahlzeit.model;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -35,6 +40,20 @@ public class PhotoFilterTest {
 		photoFilter = new PhotoFilter();
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testDisplayablePhotoIdsDoNotMakeFilterDirty() {
+		photoFilter.resetWriteCount();
+		photoFilter.setDisplayablePhotoIds(Arrays.asList(new PhotoId(3), new PhotoId(4)));
+		photoFilter.resetDisplayablePhotoIds();
+		assertFalse(photoFilter.isDirty());
+
+		photoFilter.setTags(new Tags("flower"));
+		assertTrue(photoFilter.isDirty());
+	}
+
 	/**
 	 *
 	 */
@@ -84,4 +103,31 @@ public class PhotoFilterTest {
 		assertTrue(photoFilter.processedPhotoIds.isEmpty());
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testIsProcessedPhotoId() {
+		assertFalse(photoFilter.isProcessedPhotoId(new PhotoId(2)));
+
+		photoFilter.processedPhotoIds.add(new PhotoId(2));
+		assertTrue(photoFilter.isProcessedPhotoId(new PhotoId(2)));
+		assertFalse(photoFilter.isProcessedPhotoId(new PhotoId(3)));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetRandomDisplayablePhotoId() {
+		assertEquals(PhotoId.NULL_ID, photoFilter.getRandomDisplayablePhotoId());
+
+		photoFilter.setDisplayablePhotoIds(Arrays.asList(new PhotoId(3), new PhotoId(4), new PhotoId(5)));
+		Set<PhotoId> chosenIds = new HashSet<PhotoId>();
+		for (int i = 0; i < 200; i++) {
+			chosenIds.add(photoFilter.getRandomDisplayablePhotoId());
+		}
+		assertEquals(new HashSet<PhotoId>(photoFilter.getDisplayablePhotoIds()), chosenIds);
+	}
+
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PhotoIdSetTest {
+
+	private PhotoIdSet set;
+
+	@Before
+	public void initSet() {
+		set = new PhotoIdSet();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddContainsRemove() {
+		assertTrue(set.isEmpty());
+
+		assertTrue(set.add(new PhotoId(PhotoId.ID_START)));
+		assertFalse(set.add(new PhotoId(PhotoId.ID_START)));
+		assertTrue(set.add(7));
+		assertEquals(2, set.size());
+
+		assertTrue(set.contains(new PhotoId(PhotoId.ID_START)));
+		assertTrue(set.contains(7));
+		assertFalse(set.contains(8));
+		assertFalse(set.contains(null));
+
+		assertTrue(set.remove(7));
+		assertFalse(set.remove(7));
+		assertEquals(1, set.size());
+		assertArrayEquals(new int[]{PhotoId.ID_START}, set.toIntArray());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAscendingOrderAcrossChunks() {
+		set.add(1 << 20);
+		set.add(5);
+		set.add((1 << 16) + 3);
+		set.add(2);
+
+		assertArrayEquals(new int[]{2, 5, (1 << 16) + 3, 1 << 20}, set.toIntArray());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDenseChunk() {
+		int noIds = PhotoIdSet.MAX_ARRAY_CHUNK_SIZE * 2;
+		for (int id = noIds; id > 0; id--) {
+			set.add(id);
+		}
+		assertEquals(noIds, set.size());
+		assertTrue(set.contains(noIds));
+		assertFalse(set.contains(noIds + 1));
+
+		for (int id = 1; id <= noIds; id += 2) {
+			assertTrue(set.remove(id));
+		}
+		assertEquals(noIds / 2, set.size());
+		assertFalse(set.contains(1));
+		assertTrue(set.contains(2));
+
+		int[] ids = set.toIntArray();
+		for (int i = 0; i < ids.length; i++) {
+			assertEquals(2 * (i + 1), ids[i]);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCopyIsIndependent() {
+		set.add(1);
+		PhotoIdSet copy = new PhotoIdSet(set);
+		copy.add(2);
+
+		assertEquals(1, set.size());
+		assertEquals(2, copy.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSerialization() throws Exception {
+		for (int id = 1; id < PhotoIdSet.MAX_ARRAY_CHUNK_SIZE + 10; id++) {
+			set.add(id);
+		}
+		set.add(PhotoId.ID_START);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(set);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		PhotoIdSet result = (PhotoIdSet) in.readObject();
+
+		assertEquals(set, result);
+		assertTrue(result.contains(PhotoId.ID_START));
+	}
+
+}
@@ -0,0 +1,231 @@
+package org.wahlzeit.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.services.IdBlockSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PhotoIdTest {
+
+    private static final int LAST_EXISTING_ID = 100;
+
+    private int savedCurrentId;
+
+    @Before
+    public void setup() {
+        savedCurrentId = PhotoId.getCurrentIdAsInt();
+        PhotoId.setCurrentIdFromInt(LAST_EXISTING_ID);
+    }
+
+    @After
+    public void tearDown() {
+        PhotoId.setCurrentIdFromInt(Math.max(savedCurrentId, PhotoId.getCurrentIdAsInt()));
+    }
+
+    @Test
+    public void testNextIdsFollowLastExistingId() {
+        assertEquals(LAST_EXISTING_ID + 1, PhotoId.getNextIdAsInt());
+        assertEquals(LAST_EXISTING_ID + 2, PhotoId.getNextIdAsInt());
+        assertEquals(LAST_EXISTING_ID + 2, PhotoId.getCurrentIdAsInt());
+    }
+
+    @Test
+    public void testNextIdsSpanBlocks() {
+        for (int i = 1; i <= 3 * PhotoId.BLOCK_SIZE; i++) {
+            assertEquals(LAST_EXISTING_ID + i, PhotoId.getNextIdAsInt());
+        }
+    }
+
+    @Test
+    public void testNextIdsFromLeasedBlocks() {
+        // another instance leases every other block
+        PhotoId.setBlockSource(new IdBlockSource() {
+            private int lastLeasedId = 1000;
+
+            public synchronized int leaseBlock(int size) {
+                int result = lastLeasedId + size + 1;
+                lastLeasedId += 2 * size;
+                return result;
+            }
+
+            public synchronized int getLastLeasedId() {
+                return lastLeasedId;
+            }
+        }, 1000);
+
+        int firstId = 1000 + PhotoId.BLOCK_SIZE + 1;
+        for (int i = 0; i < PhotoId.BLOCK_SIZE; i++) {
+            assertEquals(firstId + i, PhotoId.getNextIdAsInt());
+        }
+        assertEquals(firstId + 2 * PhotoId.BLOCK_SIZE, PhotoId.getNextIdAsInt());
+        assertEquals(firstId + 2 * PhotoId.BLOCK_SIZE, PhotoId.getCurrentIdAsInt());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidLeasedBlock() {
+        PhotoId.setBlockSource(new IdBlockSource() {
+            public int leaseBlock(int size) {
+                return 0;
+            }
+
+            public int getLastLeasedId() {
+                return LAST_EXISTING_ID;
+            }
+        }, LAST_EXISTING_ID);
+
+        PhotoId.getNextIdAsInt();
+    }
+
+    @Test
+    public void testConcurrentNextIdsAreUnique() throws InterruptedException {
+        final int noThreads = 8;
+        final int noIdsPerThread = 1000;
+        final Set<Integer> ids = Collections.synchronizedSet(new HashSet<Integer>());
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < noThreads; i++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int j = 0; j < noIdsPerThread; j++) {
+                        ids.add(PhotoId.getNextId().asInt());
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(noThreads * noIdsPerThread, ids.size());
+        assertEquals(LAST_EXISTING_ID + noThreads * noIdsPerThread, PhotoId.getCurrentIdAsInt());
+    }
+
+    @Test
+    public void testIdsAreInterned() {
+        PhotoId id = PhotoId.getNextId();
+
+        assertSame(id, PhotoId.getIdFromInt(id.asInt()));
+        assertSame(id, PhotoId.getIdFromString(id.asString()));
+        assertSame(PhotoId.getIdFromInt(1), PhotoId.getIdFromInt(1));
+    }
+
+    @Test
+    public void testUnknownIdsAreNullIds() {
+        assertTrue(PhotoId.getIdFromInt(0).isNullId());
+        assertTrue(PhotoId.getIdFromInt(-1).isNullId());
+        assertTrue(PhotoId.getIdFromInt(LAST_EXISTING_ID + 1).isNullId());
+        assertEquals(LAST_EXISTING_ID, PhotoId.getIdFromInt(LAST_EXISTING_ID).asInt());
+    }
+
+    @Test
+    public void testIdsLeasedElsewhereAreResolved() {
+        // another instance has leased ids far beyond the ones this instance knows about
+        final int lastLeasedId = LAST_EXISTING_ID + 10 * PhotoId.SEGMENT_SIZE;
+        PhotoId.setBlockSource(new IdBlockSource() {
+            public int leaseBlock(int size) {
+                throw new IllegalStateException("no block is leased to resolve ids");
+            }
+
+            public int getLastLeasedId() {
+                return lastLeasedId;
+            }
+        }, LAST_EXISTING_ID);
+
+        PhotoId id = PhotoId.getIdFromInt(lastLeasedId);
+        assertEquals(lastLeasedId, id.asInt());
+        assertSame(id, PhotoId.getIdFromInt(lastLeasedId));
+        assertEquals(LAST_EXISTING_ID + 1, PhotoId.getIdFromInt(LAST_EXISTING_ID + 1).asInt());
+        assertTrue(PhotoId.getIdFromInt(lastLeasedId + 1).isNullId());
+        assertEquals(LAST_EXISTING_ID, PhotoId.getCurrentIdAsInt());
+    }
+
+    @Test
+    public void testUnknownIdsRefreshLeasesAtMostOncePerInterval() {
+        final AtomicInteger noRefreshes = new AtomicInteger();
+        PhotoId.setBlockSource(new IdBlockSource() {
+            public int leaseBlock(int size) {
+                throw new IllegalStateException("no block is leased to resolve ids");
+            }
+
+            public int getLastLeasedId() {
+                noRefreshes.incrementAndGet();
+                return LAST_EXISTING_ID;
+            }
+        }, LAST_EXISTING_ID);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(PhotoId.getIdFromString(PhotoId.getFromInt(Integer.MAX_VALUE)).isNullId());
+        }
+        assertEquals(1, noRefreshes.get());
+    }
+
+    @Test
+    public void testStringIds() {
+        assertEquals("x1ac0", PhotoId.getFromInt(0));
+        assertEquals("x1ac1", PhotoId.getFromInt(1));
+        assertEquals("x1aca", PhotoId.getFromInt(10));
+        assertEquals("x1ad0", PhotoId.getFromInt(36));
+        assertEquals(1, PhotoId.getFromString("x1ac1"));
+        assertEquals(36, PhotoId.getFromString(new StringBuilder("x1ad0")));
+    }
+
+    @Test
+    public void testNullIdString() {
+        assertEquals("x", PhotoId.NULL_ID.asString());
+    }
+
+    @Test
+    public void testStringIdsWithBuffer() {
+        char[] buffer = new char[PhotoId.MAX_STRING_LENGTH];
+        assertEquals("x1ac1", PhotoId.getFromInt(1, buffer));
+        assertEquals("x1ad0", PhotoId.getFromInt(36, buffer));
+        assertEquals(PhotoId.getFromInt(Integer.MAX_VALUE), PhotoId.getFromInt(Integer.MAX_VALUE, buffer));
+    }
+
+    @Test
+    public void testStringIdsRoundTrip() {
+        int[] ids = {1, 35, 36, 1295, 1296, 46655, 46656, 1000000, Integer.MAX_VALUE};
+        for (int id : ids) {
+            String value = PhotoId.getFromInt(id);
+            assertTrue(value.length() <= PhotoId.MAX_STRING_LENGTH);
+            assertEquals(id, PhotoId.getFromString(value));
+        }
+    }
+
+    @Test
+    public void testMalformedStringIds() {
+        assertEquals(0, PhotoId.getFromString(null));
+        assertEquals(0, PhotoId.getFromString(""));
+        assertEquals(0, PhotoId.getFromString("x"));
+        assertEquals(0, PhotoId.getFromString("y1ac1"));
+        assertEquals(0, PhotoId.getFromString("x1AC1"));
+        assertEquals(0, PhotoId.getFromString("x1ac-"));
+        assertEquals(0, PhotoId.getFromString("x1abz"));
+        assertEquals(0, PhotoId.getFromString("xzzzzzz"));
+        assertEquals(0, PhotoId.getFromString("x1ac11111111"));
+        assertTrue(PhotoId.getIdFromString("x1AC1").isNullId());
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.cache.LruCache;
+import org.wahlzeit.model.cache.Weigher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PhotoImageLoader}.
+ */
+public class PhotoImageLoaderTest {
+
+	private TestPhotoManager manager;
+	private Photo allSizes;
+	private Photo thumbOnly;
+	private Photo noImages;
+
+	@Before
+	public void initManager() {
+		allSizes = new Photo(new PhotoId(1));
+		thumbOnly = new Photo(new PhotoId(2));
+		noImages = new Photo(new PhotoId(3));
+
+		manager = new TestPhotoManager();
+		manager.addStoredImages(allSizes.getId(), PhotoSize.values().length);
+		manager.addStoredImages(thumbOnly.getId(), 1);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLoadsExistingImagesOnly() throws InterruptedException {
+		PhotoImageLoader loader = startLoader(Arrays.asList(allSizes, thumbOnly, noImages));
+
+		assertTrue(loader.awaitCompletion(10, TimeUnit.SECONDS));
+		assertEquals(3, loader.getNoPhotos());
+		assertEquals(PhotoSize.values().length + 1, loader.getNoLoadedImages());
+		assertEquals(2, loader.getNoMissingImages());
+		assertEquals(0, loader.getNoFailedImages());
+
+		for (PhotoSize size : PhotoSize.values()) {
+			assertNotNull(manager.doGetImage(allSizes.getId(), size));
+		}
+		assertNotNull(manager.doGetImage(thumbOnly.getId(), PhotoSize.THUMB));
+		assertNull(manager.doGetImage(thumbOnly.getId(), PhotoSize.EXTRA_SMALL));
+
+		// photos that lack a size are not asked for larger ones
+		assertEquals(2, manager.getNoReads(thumbOnly.getId()));
+		assertEquals(1, manager.getNoReads(noImages.getId()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStopsWhenCacheIsFull() throws InterruptedException {
+		manager.setImageCache(new LruCache<String, Image>(1, new Weigher<Image>() {
+			@Override
+			public int weigh(Image value) {
+				return 1;
+			}
+		}));
+
+		PhotoImageLoader loader = startLoader(Collections.singletonList(allSizes));
+
+		assertTrue(loader.awaitCompletion(10, TimeUnit.SECONDS));
+		assertEquals(1, loader.getNoLoadedImages());
+		assertFalse(manager.hasImageCacheRoom());
+	}
+
+	/**
+	 *
+	 */
+	protected PhotoImageLoader startLoader(List<Photo> photos) {
+		PhotoImageLoader result = new PhotoImageLoader(manager, 2, Executors.defaultThreadFactory());
+		result.start(photos);
+		return result;
+	}
+
+	/**
+	 * A PhotoManager that reads images from memory instead of the ImageStorage.
+	 */
+	protected static class TestPhotoManager extends PhotoManager {
+
+		protected final Map<String, Image> storedImages = new HashMap<String, Image>();
+		protected final List<PhotoId> reads = Collections.synchronizedList(new ArrayList<PhotoId>());
+
+		protected void addStoredImages(PhotoId id, int noSizes) {
+			for (int i = 0; i < noSizes; i++) {
+				Image image = ImagesServiceFactory.makeImage(new byte[]{(byte) i});
+				storedImages.put(asImageKey(id, PhotoSize.getFromInt(i)), image);
+			}
+		}
+
+		protected int getNoReads(PhotoId id) {
+			return Collections.frequency(reads, id);
+		}
+
+		@Override
+		protected Image loadImage(PhotoId id, PhotoSize photoSize) {
+			reads.add(id);
+			return storedImages.get(asImageKey(id, photoSize));
+		}
+	}
+
+}
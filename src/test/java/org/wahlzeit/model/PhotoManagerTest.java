@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for the image handling of {@link PhotoManager}.
+ */
+public class PhotoManagerTest {
+
+	private static final int NO_THREADS = 8;
+
+	private final PhotoId photoId = new PhotoId(1);
+	private final CountDownLatch isReadStarted = new CountDownLatch(1);
+	private final CountDownLatch isReadAllowed = new CountDownLatch(1);
+
+	private PhotoImageLoaderTest.TestPhotoManager manager;
+
+	@Before
+	public void initManager() {
+		manager = new PhotoImageLoaderTest.TestPhotoManager() {
+			@Override
+			protected Image loadImage(PhotoId id, PhotoSize photoSize) {
+				isReadStarted.countDown();
+				try {
+					isReadAllowed.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				return super.loadImage(id, photoSize);
+			}
+		};
+		manager.addStoredImages(photoId, 1);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentLoadsShareOneRead() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(NO_THREADS);
+		List<Future<Image>> results = new ArrayList<Future<Image>>();
+		for (int i = 0; i < NO_THREADS; i++) {
+			results.add(executor.submit(new Callable<Image>() {
+				@Override
+				public Image call() {
+					return manager.getImage(photoId, PhotoSize.THUMB);
+				}
+			}));
+		}
+
+		assertTrue(isReadStarted.await(10, TimeUnit.SECONDS));
+		// give the other threads time to join the running read
+		Thread.sleep(100);
+		isReadAllowed.countDown();
+
+		Image image = results.get(0).get(10, TimeUnit.SECONDS);
+		for (Future<Image> result : results) {
+			assertSame(image, result.get(10, TimeUnit.SECONDS));
+		}
+		executor.shutdown();
+
+		assertEquals(1, manager.getNoReads(photoId));
+		assertSame(image, manager.getImage(photoId, PhotoSize.THUMB));
+		assertEquals(1, manager.getNoReads(photoId));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMissingImage() {
+		isReadAllowed.countDown();
+
+		assertNull(manager.getImage(photoId, PhotoSize.SMALL));
+		assertNull(manager.getImage(PhotoId.NULL_ID, PhotoSize.THUMB));
+		assertTrue(manager.imageLoads.isEmpty());
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PhotoTagIndexTest {
+
+	private PhotoTagIndex index;
+
+	@Before
+	public void initIndex() {
+		index = new PhotoTagIndex();
+		index.update(new PhotoId(3), asSet("un:alice", "tg:beer"));
+		index.update(new PhotoId(1), asSet("un:bob", "tg:beer", "tg:wine"));
+		index.update(new PhotoId(2), asSet("un:alice", "tg:wine"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPostingsAreSorted() {
+		assertArrayEquals(new int[]{1, 3}, index.getPhotoIds("tg:beer"));
+		assertArrayEquals(new int[]{2, 3}, index.getPhotoIds("un:alice"));
+		assertArrayEquals(new int[0], index.getPhotoIds("tg:water"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMatchingAny() {
+		assertArrayEquals(new int[]{1, 2, 3}, index.getPhotoIdsMatchingAny(Arrays.asList("tg:beer", "tg:wine")));
+		assertArrayEquals(new int[]{2, 3}, index.getPhotoIdsMatchingAny(Arrays.asList("un:alice", "tg:water")));
+		assertArrayEquals(new int[0], index.getPhotoIdsMatchingAny(Collections.<String>emptyList()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUpdateReplacesConditions() {
+		index.update(new PhotoId(1), asSet("un:bob", "tg:water"));
+
+		assertArrayEquals(new int[]{3}, index.getPhotoIds("tg:beer"));
+		assertArrayEquals(new int[]{2}, index.getPhotoIds("tg:wine"));
+		assertArrayEquals(new int[]{1}, index.getPhotoIds("tg:water"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRemove() {
+		index.remove(new PhotoId(3));
+
+		assertArrayEquals(new int[]{1}, index.getPhotoIds("tg:beer"));
+		assertArrayEquals(new int[]{2}, index.getPhotoIds("un:alice"));
+		assertEquals(4, index.getNoConditions());
+	}
+
+	/**
+	 *
+	 */
+	protected static Set<String> asSet(String... conditions) {
+		return new HashSet<String>(Arrays.asList(conditions));
+	}
+
+}
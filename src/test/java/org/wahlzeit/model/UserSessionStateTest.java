@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.utils.CompactDataInput;
+import org.wahlzeit.utils.CompactDataOutput;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the serialized format of the UserSessionState class.
+ */
+public class UserSessionStateTest {
+
+	private UserSessionState state;
+	private PhotoId[] photoIds;
+
+	@Before
+	public void setUp() {
+		photoIds = new PhotoId[5];
+		for (int i = 0; i < photoIds.length; i++) {
+			photoIds[i] = PhotoId.getNextId();
+		}
+
+		PhotoFilter photoFilter = new PhotoFilter();
+		photoFilter.setUserName("someone");
+		photoFilter.setTags(new Tags("flower, tree"));
+		photoFilter.setDisplayablePhotoIds(Arrays.asList(photoIds[3], photoIds[1]));
+		photoFilter.getProcessedPhotoIds().add(photoIds[0]);
+		photoFilter.addSkippedPhotoId(photoIds[2]);
+
+		state = new UserSessionState();
+		state.setSiteUrl("http://localhost:8080/");
+		state.setClientId("guest42");
+		state.setMessage("<p>Thank you!</p>");
+		state.setPhotoId(photoIds[4]);
+		state.setPhotoFilter(photoFilter);
+		state.praisedPhotoIds.add(photoIds[0]);
+		state.setSavedArg("userId", "someone");
+		state.setSavedArg("photoId", photoIds[1].asString());
+		state.setSavedArg("count", Integer.valueOf(3));
+		state.setSavedArg("none", null);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+		UserSessionState copy = (UserSessionState) deserialize(serialize(state));
+
+		assertEquals("http://localhost:8080/", copy.getSiteUrl());
+		assertEquals("guest42", copy.getClientId());
+		assertEquals("<p>Thank you!</p>", copy.getMessage());
+		assertNull(copy.getHeading());
+		assertEquals(photoIds[4], copy.getPhotoId());
+		assertNull(copy.getPhotoCase());
+		assertArrayEquals(state.praisedPhotoIds.toIntArray(), copy.praisedPhotoIds.toIntArray());
+
+		assertEquals(4, copy.getSavedArgs().size());
+		assertEquals("someone", copy.getSavedArg("userId"));
+		assertEquals(photoIds[1].asString(), copy.getSavedArg("photoId"));
+		assertEquals(3, copy.getSavedArg("count"));
+		assertTrue(copy.getSavedArgs().containsKey("none"));
+
+		PhotoFilter filter = copy.getPhotoFilter();
+		assertEquals("someone", filter.getUserName());
+		assertEquals(new Tags("flower, tree"), filter.getTags());
+		assertNull(filter.displayablePhotoIds);
+		assertEquals(state.getPhotoFilter().getProcessedPhotoIds(), filter.getProcessedPhotoIds());
+		assertEquals(state.getPhotoFilter().getSkippedPhotoIds(), filter.getSkippedPhotoIds());
+		assertFalse(copy.isDirty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEmptyRoundTrip() throws Exception {
+		UserSessionState copy = (UserSessionState) deserialize(serialize(new UserSessionState()));
+
+		assertEquals("", copy.getSiteUrl());
+		assertNull(copy.getClientId());
+		assertNull(copy.getPhotoId());
+		assertNull(copy.getPhotoFilter());
+		assertTrue(copy.getSavedArgs().isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFormatIsCompact() throws Exception {
+		state.setSavedArg("count", "3");
+		byte[] compact = serialize(state);
+		byte[] filterOnly = serialize(state.getPhotoFilter());
+		assertTrue(compact.length < filterOnly.length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDisplayablePhotoIdsAreNotWritten() throws Exception {
+		int length = serialize(state).length;
+
+		PhotoId[] manyPhotoIds = new PhotoId[1000];
+		Arrays.fill(manyPhotoIds, photoIds[1]);
+		state.getPhotoFilter().setDisplayablePhotoIds(Arrays.asList(manyPhotoIds));
+		assertEquals(length, serialize(state).length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadFilterOfFormatVersion1() throws Exception {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(data)) {
+			CompactDataOutput cout = new CompactDataOutput(out);
+			cout.writeString("someone");
+			cout.writeVarInt(0);
+			cout.writeInts(new int[] {photoIds[3].asInt(), photoIds[1].asInt()});
+			cout.writeSortedInts(new int[] {photoIds[0].asInt()});
+			cout.writeSortedInts(new int[0]);
+		}
+
+		PhotoFilter filter = new PhotoFilter();
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data.toByteArray()))) {
+			filter.readCompact(new CompactDataInput(in), 1);
+		}
+		assertEquals("someone", filter.getUserName());
+		assertNull(filter.displayablePhotoIds);
+		assertTrue(filter.isProcessedPhotoId(photoIds[0]));
+		assertEquals(0, filter.getSkippedPhotoIds().size());
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = InvalidClassException.class)
+	public void testUnknownFormatVersion() throws Exception {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(data)) {
+			out.writeByte(UserSessionState.FORMAT_VERSION + 1);
+		}
+
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data.toByteArray()))) {
+			new UserSessionState().readExternal(in);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected byte[] serialize(Object object) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(result)) {
+			out.writeObject(object);
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 *
+	 */
+	protected Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+			return in.readObject();
+		}
+	}
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionContext;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the UserSession class and its UserSessionState.
+ */
+public class UserSessionTest {
+
+	private RecordingHttpSession httpSession;
+	private UserSessionState state;
+
+	@Before
+	public void setUp() {
+		state = new UserSessionState();
+		state.setPhotoFilter(new PhotoFilter());
+		state.resetWriteCount();
+
+		httpSession = new RecordingHttpSession();
+		httpSession.attributes.put(UserSession.STATE, state);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnchangedStateIsNotWritten() {
+		UserSession us = createUserSession();
+		us.getMessage();
+		us.getPhotoFilter().getFilterConditions();
+		us.flush();
+
+		assertEquals(0, httpSession.noSetAttributes);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testChangedStateIsWrittenOnce() {
+		UserSession us = createUserSession();
+		us.setMessage("first");
+		us.setHeading("heading");
+		us.setSavedArg("photoId", "x1y2");
+		us.flush();
+		us.flush();
+
+		assertEquals(1, httpSession.noSetAttributes);
+		assertSame(state, httpSession.getAttribute(UserSession.STATE));
+		assertFalse(state.isDirty());
+		assertEquals("x1y2", us.getSavedArg("photoId"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testChangedPhotoFilterIsWritten() {
+		UserSession us = createUserSession();
+		us.getPhotoFilter().addSkippedPhotoId(PhotoId.getIdFromInt(42));
+		assertTrue(state.isDirty());
+
+		us.flush();
+		assertEquals(1, httpSession.noSetAttributes);
+		assertFalse(us.getPhotoFilter().isDirty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSamePhotoIdDoesNotChangeState() {
+		UserSession us = createUserSession();
+		us.setPhotoId(PhotoId.getIdFromInt(7));
+		us.flush();
+
+		us.setPhotoId(PhotoId.getIdFromInt(7));
+		us.clearSavedArgs();
+		us.clearPraisedPhotos();
+		assertFalse(state.isDirty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLegacyAttributesAreRead() {
+		PhotoFilter photoFilter = new PhotoFilter();
+		Map<String, Object> savedArgs = new HashMap<String, Object>();
+		savedArgs.put("userId", "someone");
+
+		RecordingHttpSession legacySession = new RecordingHttpSession();
+		legacySession.attributes.put(UserSession.INITIALIZED, UserSession.INITIALIZED);
+		legacySession.attributes.put(UserSession.SITE_URL, "http://localhost/");
+		legacySession.attributes.put(UserSession.PHOTO_FILTER, photoFilter);
+		legacySession.attributes.put(UserSession.SAVED_ARGS, savedArgs);
+		legacySession.attributes.put(UserSession.MESSAGE, "<p>message</p>");
+
+		UserSession us = new UserSession("legacy", "", legacySession, "en");
+		assertEquals("http://localhost/", us.getSiteUrl());
+		assertSame(photoFilter, us.getPhotoFilter());
+		assertEquals("someone", us.getSavedArg("userId"));
+		assertEquals("<p>message</p>", us.getMessage());
+
+		us.flush();
+		assertEquals(1, legacySession.noSetAttributes);
+		assertSame(us.getState(), legacySession.getAttribute(UserSession.STATE));
+	}
+
+	/**
+	 *
+	 */
+	protected UserSession createUserSession() {
+		return new UserSession("test", "", httpSession, "en");
+	}
+
+	/**
+	 * An HttpSession that keeps its attributes in a map and counts how often they are set.
+	 */
+	protected static class RecordingHttpSession implements HttpSession {
+
+		protected Map<String, Object> attributes = new HashMap<String, Object>();
+		protected int noSetAttributes = 0;
+
+		@Override
+		public Object getAttribute(String name) {
+			return attributes.get(name);
+		}
+
+		@Override
+		public void setAttribute(String name, Object value) {
+			noSetAttributes++;
+			attributes.put(name, value);
+		}
+
+		@Override
+		public void removeAttribute(String name) {
+			attributes.remove(name);
+		}
+
+		@Override
+		public Enumeration getAttributeNames() {
+			return Collections.enumeration(attributes.keySet());
+		}
+
+		@Override
+		public Object getValue(String name) {
+			return getAttribute(name);
+		}
+
+		@Override
+		public void putValue(String name, Object value) {
+			setAttribute(name, value);
+		}
+
+		@Override
+		public void removeValue(String name) {
+			removeAttribute(name);
+		}
+
+		@Override
+		public String[] getValueNames() {
+			return attributes.keySet().toArray(new String[attributes.size()]);
+		}
+
+		@Override
+		public String getId() {
+			return "recording";
+		}
+
+		@Override
+		public long getCreationTime() {
+			return 0;
+		}
+
+		@Override
+		public long getLastAccessedTime() {
+			return 0;
+		}
+
+		@Override
+		public ServletContext getServletContext() {
+			return null;
+		}
+
+		@Override
+		public void setMaxInactiveInterval(int interval) {
+			// do nothing
+		}
+
+		@Override
+		public int getMaxInactiveInterval() {
+			return 0;
+		}
+
+		@Override
+		public HttpSessionContext getSessionContext() {
+			return null;
+		}
+
+		@Override
+		public void invalidate() {
+			attributes.clear();
+		}
+
+		@Override
+		public boolean isNew() {
+			return false;
+		}
+	}
+
+}
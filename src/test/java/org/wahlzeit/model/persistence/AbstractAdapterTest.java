@@ -128,4 +128,15 @@ public abstract class AbstractAdapterTest {
 		exists = imageStorage.doesImageExist("wrong file name", 1);
 		assert !exists;
 	}
+
+	@Test
+	public void testMissingImageIsCheckedAgain() throws IOException {
+		assert !imageStorage.doesImageExist("writtenElsewhere", 1);
+
+		// written by another instance, so the image index of this one does not know
+		imageStorage.doWriteImage(smallTestImage, "writtenElsewhere", 1);
+
+		assert imageStorage.doesImageExist("writtenElsewhere", 1);
+		assert imageStorage.readImage("writtenElsewhere", 1) != null;
+	}
 }
@@ -0,0 +1,115 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link FileSystemAdapter}
+ *
+ * @review
+ */
+public class FileSystemAdapterTest extends AbstractAdapterTest {
+
+	@ClassRule
+	public static TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private Path rootDir;
+
+
+	@Override
+	protected void storageDependentSetUp() {
+		try {
+			rootDir = Files.createTempDirectory("wahlzeit-photos");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		imageStorage = new FileSystemAdapter(rootDir);
+	}
+
+	@Override
+	protected void storageDependentTearDown() {
+		try {
+			Files.walkFileTree(rootDir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			// leave it to the operating system
+		}
+	}
+
+
+	@Test
+	public void testShardedLayout() throws IOException {
+		imageStorage.writeImage(smallTestImage, "sharded", 2);
+
+		Path path = ((FileSystemAdapter) imageStorage).getImagePath("sharded", 2);
+		assertTrue(Files.isRegularFile(path));
+		assertEquals("sharded-2", path.getFileName().toString());
+		assertEquals(rootDir, path.getParent().getParent().getParent());
+		assertEquals(smallTestImage.getImageData().length, Files.size(path));
+
+		// no temporary file is left behind
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(path.getParent())) {
+			for (Path file : files) {
+				assertFalse(file.toString().endsWith(FileSystemAdapter.TEMP_FILE_SUFFIX));
+			}
+		}
+	}
+
+	@Test
+	public void testReadWrittenBytes() throws IOException {
+		imageStorage.writeImage(maxSizeTestImage, "bytes", 3);
+
+		Image image = (Image) imageStorage.readImage("bytes", 3);
+		assertArrayEquals(maxSizeTestImage.getImageData(), image.getImageData());
+	}
+
+	@Test
+	public void testOpenImageChannel() throws IOException {
+		assertNull(imageStorage.openImageChannel("channel", 1));
+
+		imageStorage.writeImage(smallTestImage, "channel", 1);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (FileChannel channel = imageStorage.openImageChannel("channel", 1)) {
+			assertEquals(smallTestImage.getImageData().length, channel.size());
+			channel.transferTo(0, channel.size(), Channels.newChannel(out));
+		}
+		assertTrue(Arrays.equals(smallTestImage.getImageData(), out.toByteArray()));
+	}
+}
@@ -0,0 +1,151 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link ImageIndex}
+ *
+ * @review
+ */
+public class ImageIndexTest {
+
+	@ClassRule
+	public static TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private ImageIndex imageIndex;
+	private CountingDatastoreAdapter imageStorage;
+	private Image testImage;
+
+	@Before
+	public void setUp() {
+		imageIndex = new ImageIndex();
+		imageStorage = new CountingDatastoreAdapter();
+		testImage = ImagesServiceFactory.makeImage(ByteBuffer.allocate(1024).array());
+	}
+
+	@Test
+	public void testUnknownImage() {
+		assertNull(imageIndex.doesImageExist("unknown", 1));
+		assertEquals(ImageIndex.UNKNOWN_LENGTH, imageIndex.getByteLength("unknown", 1));
+		assertNull(imageIndex.getContentHash("unknown", 1));
+	}
+
+	@Test
+	public void testAddImage() {
+		byte[] data = new byte[]{1, 2, 3};
+		imageIndex.addImage("added", 2, data);
+
+		assertEquals(Boolean.TRUE, imageIndex.doesImageExist("added", 2));
+		assertNull(imageIndex.doesImageExist("added", 1));
+		assertEquals(3, imageIndex.getByteLength("added", 2));
+		assertEquals(ImageIndex.asContentHash(data), imageIndex.getContentHash("added", 2));
+		assertTrue(imageIndex.hasContent("added", 2, data));
+		assertFalse(imageIndex.hasContent("added", 2, new byte[]{1, 2}));
+	}
+
+	@Test
+	public void testAddExistence() {
+		imageIndex.addExistence("checked", 0, false);
+		imageIndex.addExistence("checked", 1, true);
+
+		assertEquals(Boolean.FALSE, imageIndex.doesImageExist("checked", 0));
+		assertEquals(Boolean.TRUE, imageIndex.doesImageExist("checked", 1));
+		assertEquals(ImageIndex.UNKNOWN_LENGTH, imageIndex.getByteLength("checked", 1));
+		assertNull(imageIndex.getContentHash("checked", 1));
+	}
+
+	@Test
+	public void testIndexIsPersisted() {
+		byte[] data = new byte[]{4, 5};
+		imageIndex.addImage("persisted", 3, data);
+		imageIndex.addExistence("persisted", 4, false);
+
+		ImageIndex otherIndex = new ImageIndex();
+		assertEquals(Boolean.TRUE, otherIndex.doesImageExist("persisted", 3));
+		assertEquals(Boolean.FALSE, otherIndex.doesImageExist("persisted", 4));
+		assertEquals(2, otherIndex.getByteLength("persisted", 3));
+	}
+
+	@Test
+	public void testStorageChecksExistenceOnlyOnce() throws IOException {
+		// written before the index existed
+		imageStorage.doWriteImage(testImage, "checkedOnce", 1);
+
+		assertTrue(imageStorage.doesImageExist("checkedOnce", 1));
+		assertTrue(imageStorage.doesImageExist("checkedOnce", 1));
+		assertEquals(1, imageStorage.noExistenceChecks);
+	}
+
+	@Test
+	public void testStorageChecksMissingImageAgain() throws IOException {
+		assertFalse(imageStorage.doesImageExist("missing", 1));
+		assertFalse(imageStorage.doesImageExist("missing", 1));
+		assertEquals(2, imageStorage.noExistenceChecks);
+		assertNull(imageStorage.readImage("missing", 1));
+	}
+
+	@Test
+	public void testStorageSkipsUnchangedWrite() throws IOException {
+		imageStorage.writeImage(testImage, "unchanged", 1);
+		imageStorage.writeImage(testImage, "unchanged", 1);
+		assertEquals(1, imageStorage.noWrites);
+
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(new byte[]{1}), "unchanged", 1);
+		assertEquals(2, imageStorage.noWrites);
+
+		assertTrue(imageStorage.doesImageExist("unchanged", 1));
+		assertEquals(0, imageStorage.noExistenceChecks);
+
+		Serializable image = imageStorage.readImage("unchanged", 1);
+		assertNotNull(image);
+		assertEquals(1, imageStorage.noReads);
+	}
+
+	/**
+	 * Counts the accesses that reach the storage.
+	 */
+	protected static class CountingDatastoreAdapter extends DatastoreAdapter {
+
+		protected int noWrites = 0;
+		protected int noReads = 0;
+		protected int noExistenceChecks = 0;
+
+		@Override
+		protected void doWriteImage(Serializable image, String photoIdAsString, int size) throws IOException {
+			noWrites++;
+			super.doWriteImage(image, photoIdAsString, size);
+		}
+
+		@Override
+		protected Image doReadImage(String photoIdAsString, int size) throws IOException {
+			noReads++;
+			return super.doReadImage(photoIdAsString, size);
+		}
+
+		@Override
+		protected boolean doDoesImageExist(String photoIdAsString, int size) {
+			noExistenceChecks++;
+			return super.doDoesImageExist(photoIdAsString, size);
+		}
+	}
+}
@@ -12,9 +12,18 @@ import org.wahlzeit.testEnvironmentProvider.UserSessionProvider;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.wahlzeit.services.LogBuilder.ACTION;
 import static org.wahlzeit.services.LogBuilder.CLIENT;
@@ -173,4 +182,59 @@ public class LogBuilderTest {
 		expectedLogMessage = expectedLogMessage + INFO_SEPARATOR + ACTION + NAME_VALUE_SEPARATOR + null;
 		assertEquals(expectedLogMessage, logMessage);
 	}
+
+	@Test
+	public void testDisabledLevelBuildsNoMessage() {
+		Logger logger = createLogger(Level.INFO, new ArrayList<LogRecord>());
+		LogBuilder logBuilder = LogBuilder.createSystemMessage(logger, Level.CONFIG);
+		assertSame(LogBuilder.DISABLED, logBuilder);
+		assertFalse(logBuilder.isEnabled());
+
+		logBuilder.addParameter("Yoda", new CaseId(1108)).addException("because I can", new NullPointerException());
+		assertEquals("", logBuilder.toString());
+	}
+
+	@Test
+	public void testLogEnabledLevel() {
+		List<LogRecord> records = new ArrayList<LogRecord>();
+		Logger logger = createLogger(Level.CONFIG, records);
+		LogBuilder.createSystemMessage(logger, Level.CONFIG).addParameter("Yoda", 1337).log();
+		LogBuilder.createSystemMessage(logger, Level.FINE).addParameter("Han Solo", 42).log();
+
+		assertEquals(1, records.size());
+		LogRecord record = records.get(0);
+		assertEquals(Level.CONFIG, record.getLevel());
+		assertEquals(getExpectedSystemMessage() + INFO_SEPARATOR + "Yoda" + NAME_VALUE_SEPARATOR + "1337",
+				record.getMessage());
+		assertEquals(logger.getName(), record.getSourceClassName());
+		assertNull(record.getSourceMethodName());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testLogWithoutLogger() {
+		LogBuilder.createSystemMessage().log();
+	}
+
+	protected Logger createLogger(Level level, final List<LogRecord> records) {
+		Logger result = Logger.getAnonymousLogger();
+		result.setUseParentHandlers(false);
+		result.setLevel(level);
+		result.addHandler(new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				records.add(record);
+			}
+
+			@Override
+			public void flush() {
+				// do nothing
+			}
+
+			@Override
+			public void close() {
+				// do nothing
+			}
+		});
+		return result;
+	}
 }
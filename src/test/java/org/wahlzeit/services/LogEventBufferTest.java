@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link LogEventBuffer} and {@link JsonLinesLogEventSink}.
+ */
+public class LogEventBufferTest {
+
+	private LogEventBuffer buffer;
+	private RecordingSink sink;
+
+	@Before
+	public void initBuffer() {
+		buffer = new LogEventBuffer(4);
+		sink = new RecordingSink();
+		buffer.setSink(sink);
+		buffer.setEnabled(true);
+	}
+
+	@Test
+	public void testCapacityIsPowerOfTwo() {
+		assertEquals(4, buffer.getCapacity());
+		assertEquals(8, new LogEventBuffer(5).getCapacity());
+	}
+
+	@Test
+	public void testDisabledBufferDoesNotAcceptEvents() {
+		buffer.setEnabled(false);
+		assertFalse(buffer.publish(createEvent(Level.CONFIG, "Yoda")));
+		assertEquals(0, buffer.getNoPendingEvents());
+	}
+
+	@Test
+	public void testDrainWritesEventsInOrder() {
+		assertTrue(buffer.publish(createEvent(Level.CONFIG, "Yoda")));
+		assertTrue(buffer.publish(createEvent(Level.INFO, "Han Solo")));
+		assertEquals(2, buffer.getNoPendingEvents());
+		assertEquals(0, sink.messages.size());
+
+		buffer.drain();
+		assertEquals(0, buffer.getNoPendingEvents());
+		assertEquals(2, buffer.getNoWrittenEvents());
+		assertEquals("level=sl, session=42, client=anon, Yoda", sink.messages.get(0));
+		assertEquals("level=sl, session=42, client=anon, Han Solo", sink.messages.get(1));
+		assertEquals(1, sink.noFlushes);
+	}
+
+	@Test
+	public void testSlotsAreReused() {
+		for (int i = 0; i < 10; i++) {
+			assertTrue(buffer.publish(createEvent(Level.CONFIG, "message " + i)));
+			buffer.drain();
+		}
+		assertEquals(10, buffer.getNoWrittenEvents());
+		assertEquals("level=sl, session=42, client=anon, message 9", sink.messages.get(9));
+		for (LogEvent slot : buffer.slots) {
+			assertTrue(slot.getParts().isEmpty());
+		}
+	}
+
+	@Test
+	public void testFullBufferDropsEvents() {
+		for (int i = 0; i < 6; i++) {
+			assertTrue(buffer.publish(createEvent(Level.CONFIG, "message " + i)));
+		}
+		assertEquals(4, buffer.getNoPendingEvents());
+		assertEquals(4, buffer.getNoPublishedEvents());
+		assertEquals(2, buffer.getNoDroppedEvents());
+
+		// warnings are logged by the caller instead
+		assertFalse(buffer.publish(createEvent(Level.WARNING, "Darth Vader")));
+		assertEquals(2, buffer.getNoDroppedEvents());
+
+		buffer.drain();
+		assertEquals(4, sink.messages.size());
+		assertEquals("level=sl, session=42, client=anon, message 3", sink.messages.get(3));
+	}
+
+	@Test
+	public void testBlockingBufferWithoutDrainerDrainsItself() {
+		buffer.setOverflowPolicy(LogEventBuffer.OverflowPolicy.BLOCK);
+		for (int i = 0; i < 6; i++) {
+			assertTrue(buffer.publish(createEvent(Level.CONFIG, "message " + i)));
+		}
+		assertEquals(0, buffer.getNoDroppedEvents());
+		assertEquals(4, sink.messages.size());
+		assertEquals(2, buffer.getNoPendingEvents());
+	}
+
+	@Test
+	public void testFailedEventsAreCounted() {
+		sink.isFailing = true;
+		buffer.publish(createEvent(Level.CONFIG, "Yoda"));
+		buffer.drain();
+		assertEquals(1, buffer.getNoFailedEvents());
+		assertEquals(0, buffer.getNoWrittenEvents());
+		assertEquals(0, buffer.getNoPendingEvents());
+	}
+
+	@Test
+	public void testBackgroundDrainer() throws InterruptedException {
+		buffer.setOverflowPolicy(LogEventBuffer.OverflowPolicy.BLOCK);
+		buffer.setMaxBlockTime(10000);
+		buffer.startDraining(Executors.defaultThreadFactory());
+		assertTrue(buffer.isDraining());
+
+		for (int i = 0; i < 100; i++) {
+			assertTrue(buffer.publish(createEvent(Level.CONFIG, "message " + i)));
+		}
+		buffer.stopDraining();
+
+		assertFalse(buffer.isDraining());
+		assertEquals(0, buffer.getNoDroppedEvents());
+		synchronized (sink) {
+			assertEquals(100, sink.messages.size());
+			assertEquals("level=sl, session=42, client=anon, message 99", sink.messages.get(99));
+		}
+	}
+
+	@Test
+	public void testJsonLines() throws IOException {
+		LogEvent event = createEvent(Level.CONFIG, "say \"hi\"\n");
+		event.addAction("praise");
+		event.addParameter("photo id", "x1");
+		event.addParameter("size", null);
+		event.addException("because I can", new NullPointerException());
+
+		StringWriter out = new StringWriter();
+		new JsonLinesLogEventSink(out).write(event);
+		String line = out.toString();
+
+		assertTrue(line.startsWith("{\"time\":1500000000000,\"severity\":\"CONFIG\",\"logger\":\"test\"," +
+				"\"source\":\"Test.run\",\"type\":\"sl\",\"session\":\"42\",\"client\":\"anon\"," +
+				"\"messages\":[\"say \\\"hi\\\"\\n\"],\"actions\":[\"praise\"]," +
+				"\"parameters\":{\"photo id\":\"x1\",\"size\":null}," +
+				"\"exceptions\":[{\"reason\":\"because I can\",\"stacktrace\":\"java.lang.NullPointerException\\n"));
+		assertTrue(line.endsWith("\"}]}\n"));
+		assertEquals(line.length() - 1, line.indexOf('\n'));
+	}
+
+	protected LogEvent createEvent(Level level, String message) {
+		LogEvent result = new LogEvent();
+		result.setHeader(LogBuilder.SYSTEM_LEVEL, "42", "anon");
+		result.setSource(1500000000000L, level, "test", "Test", "run");
+		result.addMessage(message);
+		return result;
+	}
+
+	/**
+	 * A sink that keeps the messages in memory.
+	 */
+	protected static class RecordingSink implements LogEventSink {
+
+		protected List<String> messages = new ArrayList<String>();
+		protected int noFlushes = 0;
+		protected boolean isFailing = false;
+
+		@Override
+		public synchronized void write(LogEvent event) throws IOException {
+			if (isFailing) {
+				throw new IOException("sorry");
+			}
+			messages.add(event.getMessage());
+		}
+
+		@Override
+		public synchronized void flush() {
+			noFlushes++;
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.model.Tag;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link ObjectManager}.
+ */
+public class ObjectManagerTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private final ObjectManager manager = new ObjectManager() {
+	};
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUpdateObjectsAndBatchRead() {
+		final List<Tag> tags = new ArrayList<Tag>();
+		for (int i = 0; i < 3; i++) {
+			tags.add(new Tag("tg:batch", "x1ab" + i));
+		}
+
+		Map<Long, Tag> result = ObjectifyService.run(new Work<Map<Long, Tag>>() {
+			@Override
+			public Map<Long, Tag> run() {
+				manager.updateObjects(tags);
+
+				List<Long> ids = new ArrayList<Long>();
+				for (Tag tag : tags) {
+					ids.add(tag.getId());
+				}
+				ids.add(-1L);
+				return manager.readObjects(Tag.class, ids);
+			}
+		});
+
+		assertEquals(3, result.size());
+		for (Tag tag : tags) {
+			assertFalse(tag.isDirty());
+			assertTrue(result.containsKey(tag.getId()));
+			assertEquals(tag.getPhotoId(), result.get(tag.getId()).getPhotoId());
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBatchReadWithoutIds() {
+		Map<Long, Tag> result = manager.readObjects(Tag.class, Collections.<Long>emptyList());
+		assertTrue(result.isEmpty());
+	}
+
+}
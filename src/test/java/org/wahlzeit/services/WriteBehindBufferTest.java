@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.model.Globals;
+import org.wahlzeit.model.Tag;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link WriteBehindBuffer}.
+ */
+public class WriteBehindBufferTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private WriteBehindBuffer buffer;
+	private TestManager manager;
+
+	@Before
+	public void initBuffer() {
+		buffer = new WriteBehindBuffer();
+		buffer.setEnabled(true);
+		buffer.setFlushInterval(Long.MAX_VALUE);
+		WriteBehindBuffer.instance = buffer;
+		manager = new TestManager();
+	}
+
+	@After
+	public void resetBuffer() {
+		WriteBehindBuffer.instance = new WriteBehindBuffer();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWritesAreDeferredUntilFlush() {
+		int noTags = countTags();
+		Tag tag = new Tag("tg:beer", "x1abz");
+		manager.write(tag);
+
+		assertTrue(tag.isDirty());
+		assertEquals(1, buffer.getNoPendingObjects());
+		assertEquals(noTags, countTags());
+
+		buffer.flush();
+
+		assertFalse(tag.isDirty());
+		assertEquals(0, buffer.getNoPendingObjects());
+		assertEquals(noTags + 1, countTags());
+		assertEquals(1, manager.noUpdatedDependents);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRepeatedWritesAreCoalesced() {
+		Tag tag = new Tag("tg:wine", "x1abz");
+		manager.write(tag);
+		tag.incWriteCount();
+		manager.write(tag);
+
+		assertEquals(1, buffer.getNoPendingObjects());
+		assertEquals(1, buffer.getNoCoalescedWrites());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFullBatchIsFlushed() {
+		buffer.setMaxBatchSize(3);
+		List<Tag> tags = new ArrayList<Tag>();
+		for (int i = 0; i < 3; i++) {
+			Tag tag = new Tag("tg:batch", "x1ab" + i);
+			tags.add(tag);
+			manager.write(tag);
+		}
+
+		assertEquals(0, buffer.getNoPendingObjects());
+		assertEquals(1, buffer.getNoFlushes());
+		assertEquals(3, buffer.getNoWrittenObjects());
+		for (Tag tag : tags) {
+			assertFalse(tag.isDirty());
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDisablingFlushes() {
+		manager.write(new Tag("tg:water", "x1abz"));
+		buffer.setEnabled(false);
+
+		assertEquals(0, buffer.getNoPendingObjects());
+		assertEquals(1, buffer.getNoWrittenObjects());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadsFlushPendingWrites() {
+		Tag tag = new Tag("tg:juice", "x1abz");
+		manager.write(tag);
+		List<Tag> tags = manager.readTags("tg:juice");
+
+		assertEquals(0, buffer.getNoPendingObjects());
+		assertEquals(1, tags.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadsOnlyFlushPendingWritesOfTheirType() {
+		Globals globals = new Globals();
+		manager.write(globals);
+		manager.write(new Tag("tg:tea", "x1abz"));
+		manager.readTags("tg:tea");
+
+		assertEquals(1, buffer.getNoPendingObjects());
+		assertTrue(globals.isDirty());
+		assertTrue(buffer.hasUnwrittenObjects());
+
+		buffer.flush();
+		assertFalse(globals.isDirty());
+		assertFalse(buffer.hasUnwrittenObjects());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFailedFlushAfterRequestKeepsObjects() {
+		manager.isFailing = true;
+		manager.write(new Tag("tg:milk", "x1abz"));
+		buffer.flushAfterRequest();
+
+		assertEquals(1, buffer.getNoPendingObjects());
+
+		manager.isFailing = false;
+		buffer.flushAfterRequest();
+
+		assertEquals(0, buffer.getNoPendingObjects());
+		assertEquals(1, buffer.getNoWrittenObjects());
+	}
+
+	/**
+	 *
+	 */
+	protected int countTags() {
+		return ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				return OfyService.ofy().load().type(Tag.class).count();
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	protected static class TestManager extends ObjectManager {
+
+		protected int noUpdatedDependents = 0;
+		protected boolean isFailing = false;
+
+		protected void write(final Persistent object) {
+			ObjectifyService.run(new Work<Void>() {
+				@Override
+				public Void run() {
+					writeObject(object);
+					return null;
+				}
+			});
+		}
+
+		protected List<Tag> readTags(final String text) {
+			return ObjectifyService.run(new Work<List<Tag>>() {
+				@Override
+				public List<Tag> run() {
+					List<Tag> result = new ArrayList<Tag>();
+					readObjects(result, Tag.class, Tag.TEXT, text);
+					return result;
+				}
+			});
+		}
+
+		@Override
+		protected void updateDependents(Persistent object) {
+			if (isFailing) {
+				throw new IllegalStateException("dependents cannot be updated");
+			}
+			noUpdatedDependents++;
+		}
+	}
+
+}
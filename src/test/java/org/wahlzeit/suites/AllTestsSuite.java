@@ -8,6 +8,7 @@ import org.junit.runners.Suite;
         HandlersTestSuite.class,
         ModelTestSuite.class,
         ServicesTestSuite.class,
-        UtilsTestSuite.class
+        UtilsTestSuite.class,
+        WebPartsTestSuite.class
 })
 public class AllTestsSuite { }
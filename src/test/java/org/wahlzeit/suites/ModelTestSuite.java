@@ -4,25 +4,39 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.wahlzeit.model.*;
 import org.wahlzeit.model.persistence.DatastoreAdapterTest;
+import org.wahlzeit.model.persistence.FileSystemAdapterTest;
 import org.wahlzeit.model.persistence.GcsAdapterTest;
+import org.wahlzeit.model.persistence.ImageIndexTest;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
         DatastoreAdapterTest.class,
+        FileSystemAdapterTest.class,
         GcsAdapterTest.class,
+        ImageIndexTest.class,
         AccessRightsTest.class,
         AlcoholPhotoFactoryTest.class,
         AlcoholPhotoManagerTest.class,
         AlcoholPhotoTest.class,
         CartesianCoordinateTest.class,
+        ClientManagerTest.class,
         SphericCoordinateTest.class,
         DifferentCoordinatesTest.class,
         FlagReasonTest.class,
         GenderTest.class,
+        GlobalsManagerTest.class,
         GuestTest.class,
         LocationTest.class,
+        LruCacheTest.class,
         PhotoFilterTest.class,
+        PhotoIdSetTest.class,
+        PhotoIdTest.class,
+        PhotoImageLoaderTest.class,
+        PhotoManagerTest.class,
+        PhotoTagIndexTest.class,
         TagsTest.class,
+        UserSessionStateTest.class,
+        UserSessionTest.class,
         UserStatusTest.class,
         ValueTest.class
 })
@@ -4,12 +4,18 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.wahlzeit.services.EmailAddressTest;
 import org.wahlzeit.services.LogBuilderTest;
+import org.wahlzeit.services.LogEventBufferTest;
+import org.wahlzeit.services.ObjectManagerTest;
+import org.wahlzeit.services.WriteBehindBufferTest;
 import org.wahlzeit.services.mailing.EmailServiceTest;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
         EmailServiceTest.class,
         EmailAddressTest.class,
-        LogBuilderTest.class
+        LogBuilderTest.class,
+        LogEventBufferTest.class,
+        ObjectManagerTest.class,
+        WriteBehindBufferTest.class
 })
 public class ServicesTestSuite { }
@@ -3,12 +3,16 @@ package org.wahlzeit.suites;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.wahlzeit.utils.AssertUtilTest;
+import org.wahlzeit.utils.CompactDataOutputTest;
+import org.wahlzeit.utils.HttpUtilTest;
 import org.wahlzeit.utils.StringUtilTest;
 import org.wahlzeit.utils.VersionTest;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
         AssertUtilTest.class,
+        CompactDataOutputTest.class,
+        HttpUtilTest.class,
         StringUtilTest.class,
         VersionTest.class
 })
@@ -0,0 +1,17 @@
+package org.wahlzeit.suites;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.wahlzeit.webparts.WebPageCacheTest;
+import org.wahlzeit.webparts.WebPartCacheTest;
+import org.wahlzeit.webparts.WebPartTemplateServiceTest;
+import org.wahlzeit.webparts.WebPartTest;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+        WebPageCacheTest.class,
+        WebPartCacheTest.class,
+        WebPartTemplateServiceTest.class,
+        WebPartTest.class
+})
+public class WebPartsTestSuite { }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test cases for the CompactDataOutput and CompactDataInput classes.
+ */
+public class CompactDataOutputTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testVarInts() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CompactDataOutput out = new CompactDataOutput(new DataOutputStream(bytes));
+		out.writeVarInt(0);
+		out.writeVarInt(127);
+		assertEquals(2, bytes.size());
+
+		out.writeVarInt(128);
+		assertEquals(4, bytes.size());
+
+		out.writeVarInt(Integer.MAX_VALUE);
+		out.writeVarInt(-1);
+		assertEquals(14, bytes.size());
+
+		CompactDataInput in = createInput(bytes);
+		assertEquals(0, in.readVarInt());
+		assertEquals(127, in.readVarInt());
+		assertEquals(128, in.readVarInt());
+		assertEquals(Integer.MAX_VALUE, in.readVarInt());
+		assertEquals(-1, in.readVarInt());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStringDictionary() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CompactDataOutput out = new CompactDataOutput(new DataOutputStream(bytes));
+		out.writeString("flower");
+		int firstSize = bytes.size();
+		out.writeString("flower");
+		assertEquals(firstSize + 1, bytes.size());
+
+		out.writeString(null);
+		out.writeString("");
+		out.writeString("gr\u00fcn");
+		out.writeString("flower");
+
+		CompactDataInput in = createInput(bytes);
+		assertEquals("flower", in.readString());
+		assertEquals("flower", in.readString());
+		assertNull(in.readString());
+		assertEquals("", in.readString());
+		assertEquals("gr\u00fcn", in.readString());
+		assertEquals("flower", in.readString());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testInts() throws IOException {
+		int[] values = new int[]{5, 3, 1000000};
+		int[] sortedValues = new int[]{1000000, 1000001, 1000005, 2000000};
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CompactDataOutput out = new CompactDataOutput(new DataOutputStream(bytes));
+		out.writeInts(values);
+		out.writeSortedInts(sortedValues);
+		out.writeSortedInts(new int[0]);
+
+		CompactDataInput in = createInput(bytes);
+		assertArrayEquals(values, in.readInts());
+		assertArrayEquals(sortedValues, in.readSortedInts());
+		assertArrayEquals(new int[0], in.readSortedInts());
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = StreamCorruptedException.class)
+	public void testUnknownReference() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new CompactDataOutput(new DataOutputStream(bytes)).writeVarInt(CompactDataOutput.FIRST_REFERENCE + 3);
+		createInput(bytes).readString();
+	}
+
+	/**
+	 *
+	 */
+	protected CompactDataInput createInput(ByteArrayOutputStream bytes) {
+		return new CompactDataInput(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the HttpUtil class.
+ */
+public class HttpUtilTest {
+
+	private static final String TAG = HttpUtil.asEntityTag("abc");
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAsEntityTag() {
+		assertEquals("\"abc\"", TAG);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMatchesEntityTag() {
+		assertTrue(HttpUtil.matchesEntityTag("\"abc\"", TAG));
+		assertTrue(HttpUtil.matchesEntityTag("\"xyz\", \"abc\"", TAG));
+		assertTrue(HttpUtil.matchesEntityTag("W/\"abc\"", TAG));
+		assertTrue(HttpUtil.matchesEntityTag("*", TAG));
+		assertFalse(HttpUtil.matchesEntityTag("\"xyz\"", TAG));
+		assertFalse(HttpUtil.matchesEntityTag("abc", TAG));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsNotModified() {
+		long lastModified = 1500000000123L;
+
+		assertFalse(HttpUtil.isNotModified(null, -1, TAG, lastModified));
+		assertTrue(HttpUtil.isNotModified("\"abc\"", -1, TAG, lastModified));
+		assertFalse(HttpUtil.isNotModified("\"xyz\"", -1, TAG, lastModified));
+
+		// If-Modified-Since has a resolution of seconds
+		assertTrue(HttpUtil.isNotModified(null, 1500000000000L, TAG, lastModified));
+		assertTrue(HttpUtil.isNotModified(null, 1600000000000L, TAG, lastModified));
+		assertFalse(HttpUtil.isNotModified(null, 1400000000000L, TAG, lastModified));
+
+		// If-None-Match takes precedence
+		assertFalse(HttpUtil.isNotModified("\"xyz\"", 1600000000000L, TAG, lastModified));
+
+		assertFalse(HttpUtil.isNotModified("\"abc\"", -1, null, -1));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsRangeApplicable() {
+		long lastModified = 1500000000123L;
+
+		assertTrue(HttpUtil.isRangeApplicable(null, -1, TAG, lastModified));
+		assertTrue(HttpUtil.isRangeApplicable("\"abc\"", -1, TAG, lastModified));
+		assertFalse(HttpUtil.isRangeApplicable("W/\"abc\"", -1, TAG, lastModified));
+		assertFalse(HttpUtil.isRangeApplicable("\"xyz\"", -1, TAG, lastModified));
+		assertTrue(HttpUtil.isRangeApplicable("Fri, 14 Jul 2017 02:40:00 GMT", 1500000000000L, TAG, lastModified));
+		assertFalse(HttpUtil.isRangeApplicable("Fri, 14 Jul 2017 02:40:01 GMT", 1500000001000L, TAG, lastModified));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseSingleRanges() {
+		assertNull(HttpUtil.parseRanges(null, 100));
+		assertRanges(HttpUtil.parseRanges("bytes=0-9", 100), 0, 9);
+		assertRanges(HttpUtil.parseRanges("bytes=90-", 100), 90, 99);
+		assertRanges(HttpUtil.parseRanges("bytes=90-200", 100), 90, 99);
+		assertRanges(HttpUtil.parseRanges("bytes=-10", 100), 90, 99);
+		assertRanges(HttpUtil.parseRanges("bytes=-200", 100), 0, 99);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseMultipleRanges() {
+		assertRanges(HttpUtil.parseRanges("bytes=0-9, 20-29,-5", 100), 0, 9, 20, 29, 95, 99);
+
+		// unsatisfiable ranges are dropped
+		assertRanges(HttpUtil.parseRanges("bytes=0-9,100-109", 100), 0, 9);
+		assertTrue(HttpUtil.parseRanges("bytes=100-109,-0", 100).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseInvalidRanges() {
+		assertNull(HttpUtil.parseRanges("items=0-9", 100));
+		assertNull(HttpUtil.parseRanges("bytes=9-0", 100));
+		assertNull(HttpUtil.parseRanges("bytes=a-b", 100));
+		assertNull(HttpUtil.parseRanges("bytes=10", 100));
+
+		StringBuilder tooManyRanges = new StringBuilder("bytes=0-0");
+		for (int i = 1; i <= HttpUtil.MAX_RANGES; i++) {
+			tooManyRanges.append(",").append(i).append("-").append(i);
+		}
+		assertNull(HttpUtil.parseRanges(tooManyRanges.toString(), 100));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMultipartDelimiters() {
+		assertEquals("\r\n--b\r\nContent-Range: bytes 0-9/100\r\n\r\n",
+				new String(HttpUtil.asMultipartHeader("b", HttpUtil.asContentRange(new long[]{0, 9}, 100))));
+		assertEquals("\r\n--b--\r\n", new String(HttpUtil.asMultipartTrailer("b")));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAcceptsGzip() {
+		assertFalse(HttpUtil.acceptsGzip(null));
+		assertFalse(HttpUtil.acceptsGzip(""));
+		assertFalse(HttpUtil.acceptsGzip("identity"));
+		assertFalse(HttpUtil.acceptsGzip("br"));
+
+		assertTrue(HttpUtil.acceptsGzip("gzip"));
+		assertTrue(HttpUtil.acceptsGzip("gzip, deflate, br"));
+		assertTrue(HttpUtil.acceptsGzip("deflate;q=0.5, GZIP;q=0.8"));
+		assertTrue(HttpUtil.acceptsGzip("x-gzip"));
+		assertTrue(HttpUtil.acceptsGzip("*"));
+
+		assertFalse(HttpUtil.acceptsGzip("gzip;q=0"));
+		assertFalse(HttpUtil.acceptsGzip("gzip;q=0.0, *"));
+		assertFalse(HttpUtil.acceptsGzip("*;q=0"));
+		assertFalse(HttpUtil.acceptsGzip("gzip;q=x"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAsGzip() throws IOException {
+		StringBuilder html = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			html.append("<p>Wahlzeit</p>");
+		}
+		byte[] data = html.toString().getBytes(StandardCharsets.UTF_8);
+
+		byte[] gzipData = HttpUtil.asGzip(data);
+		assertTrue(gzipData.length < data.length);
+		assertArrayEquals(data, gunzip(gzipData));
+	}
+
+	/**
+	 *
+	 */
+	protected byte[] gunzip(byte[] gzipData) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipData))) {
+			byte[] buffer = new byte[1024];
+			for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+				result.write(buffer, 0, n);
+			}
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 *
+	 */
+	protected void assertRanges(List<long[]> ranges, long... expected) {
+		assertEquals(expected.length / 2, ranges.size());
+		for (int i = 0; i < ranges.size(); i++) {
+			assertEquals(expected[2 * i], ranges.get(i)[0]);
+			assertEquals(expected[2 * i + 1], ranges.get(i)[1]);
+		}
+	}
+
+}
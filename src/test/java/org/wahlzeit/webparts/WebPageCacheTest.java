@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.utils.HttpUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for the WebPageCache class.
+ */
+public class WebPageCacheTest {
+
+	private WebPageCache cache;
+	private WebPartTemplate template;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		cache = new WebPageCache(1024, 60 * 1000);
+		template = new WebPartTemplate("en/pages/ShowInfoPage");
+		template.initialize("<html>{$info}</html>");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPutAndGet() throws IOException {
+		assertNull(cache.get("about|en", ""));
+
+		Writable rendered = cache.put("about|en", "", createPage("about"));
+		assertEquals("<html>about</html>", asString(rendered));
+		assertEquals("<html>about</html>", asString(cache.get("about|en", "")));
+		assertNull(cache.get("about|de", ""));
+
+		assertEquals(1, cache.getNoHits());
+		assertEquals(2, cache.getNoMisses());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testChangedVariant() throws IOException {
+		cache.put("x1y2|en", "x1y2@1/1", createPage("old"));
+		assertNotNull(cache.get("x1y2|en", "x1y2@1/1"));
+
+		assertNull(cache.get("x1y2|en", "x1y2@2/1"));
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTimeToLive() throws Exception {
+		cache.setTimeToLive(0);
+		cache.put("about|en", "", createPage("about"));
+		Thread.sleep(5);
+
+		assertNull(cache.get("about|en", ""));
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDisabled() throws IOException {
+		cache.put("about|en", "", createPage("about"));
+		cache.setEnabled(false);
+		assertFalse(cache.isEnabled());
+		assertEquals(0, cache.size());
+
+		Writable rendered = cache.put("about|en", "", createPage("about"));
+		assertEquals("<html>about</html>", asString(rendered));
+		assertNull(cache.get("about|en", ""));
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCompressedPage() throws IOException {
+		CompressibleWritable page = (CompressibleWritable) cache.put("about|en", "", createPage("about"));
+		assertEquals("<html>about</html>", new String(page.getBytes(), StandardCharsets.UTF_8));
+
+		byte[] gzipBytes = page.getGzipBytes();
+		assertArrayEquals(HttpUtil.asGzip(page.getBytes()), gzipBytes);
+		assertSame(gzipBytes, ((CompressibleWritable) cache.get("about|en", "")).getGzipBytes());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWeightCountsCompressedPage() throws IOException {
+		CompressibleWritable page = (CompressibleWritable) cache.put("about|en", "", createPage("about"));
+		assertEquals(page.getBytes().length + page.getGzipBytes().length, cache.getWeight());
+	}
+
+	/**
+	 *
+	 */
+	protected WebPart createPage(String info) {
+		WebPart result = new WebPart(template);
+		result.addString("info", info);
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected String asString(Writable writable) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writable.writeOn(out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
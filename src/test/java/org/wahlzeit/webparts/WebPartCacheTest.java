@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for the WebPartCache class.
+ */
+public class WebPartCacheTest {
+
+	private WebPartCache cache;
+	private WebPartTemplate template;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		cache = new WebPartCache(1024);
+		template = createTemplate("en/infos/Info", "<p>{$text}</p>");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPutAndGet() throws IOException {
+		assertNull(cache.get(template, "a"));
+
+		Writable rendered = cache.put(template, "a", createPart(template, "cached"));
+		assertEquals("<p>cached</p>", asString(rendered));
+
+		Writable cached = cache.get(template, "a");
+		assertSame(rendered, cached);
+		assertEquals("<p>cached</p>", asString(cached));
+
+		StringWriter writer = new StringWriter();
+		cached.writeOn(writer);
+		assertEquals("<p>cached</p>", writer.toString());
+
+		assertEquals(1, cache.getNoHits());
+		assertEquals(1, cache.getNoMisses());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testVariants() throws IOException {
+		cache.put(template, "photo@1", createPart(template, "old"));
+		assertNull(cache.get(template, "photo@2"));
+
+		cache.put(template, "photo@2", createPart(template, "new"));
+		assertEquals("<p>new</p>", asString(cache.get(template, "photo@2")));
+		assertEquals("<p>old</p>", asString(cache.get(template, "photo@1")));
+
+		cache.put(template, "photo@2", createPart(template, "newer"));
+		assertEquals("<p>newer</p>", asString(cache.get(template, "photo@2")));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReloadedTemplate() throws IOException {
+		cache.put(template, "", createPart(template, "x"));
+
+		WebPartTemplate reloadedTemplate = createTemplate("en/infos/Info", "<div>{$text}</div>");
+		assertNull(cache.get(reloadedTemplate, ""));
+		assertNotNull(cache.get(template, ""));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSizeBound() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 400; i++) {
+			text.append('x');
+		}
+
+		for (int i = 0; i < 5; i++) {
+			cache.put(template, String.valueOf(i), createPart(template, text.toString()));
+		}
+		assertEquals(2, cache.size());
+		assertNull(cache.get(template, "0"));
+		assertNotNull(cache.get(template, "4"));
+
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 *
+	 */
+	protected WebPartTemplate createTemplate(String name, String source) {
+		WebPartTemplate result = new WebPartTemplate(name);
+		result.initialize(source);
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected WebPart createPart(WebPartTemplate template, String text) {
+		WebPart result = new WebPart(template);
+		result.addString("text", text);
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected String asString(Writable writable) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writable.writeOn(out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.services.ConfigDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the WebPartTemplateService class.
+ */
+public class WebPartTemplateServiceTest {
+
+	private static final long RELOAD_TIMEOUT = 20000;
+
+	private Path rootDir;
+	private WebPartTemplateService templateService;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() throws IOException {
+		rootDir = Files.createTempDirectory("wahlzeit-templates");
+		writeTemplate(ConfigDir.DEFAULT_DIR_NAME, "en/parts/Greeting", "Hello {$name}!");
+		writeTemplate(ConfigDir.DEFAULT_DIR_NAME, "en/parts/Farewell", "Bye {$name}!");
+		writeTemplate(ConfigDir.CUSTOM_DIR_NAME, "de/parts/Greeting", "Hallo {$name}!");
+
+		templateService = new WebPartTemplateService();
+		templateService.setTemplatesDir(new ConfigDir(rootDir.toString(), "templates"));
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() throws IOException {
+		templateService.stopWatching();
+		Files.walkFileTree(rootDir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetTemplate() {
+		WebPartTemplate template = templateService.getTemplate("en", "parts" + File.separator + "Greeting");
+		assertEquals("Hello !", template.asString());
+		assertSame(template, templateService.getTemplate("en", "parts" + File.separator + "Greeting"));
+
+		assertNull(templateService.getTemplate("en", "parts" + File.separator + "Unknown"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPreloadTemplates() throws InterruptedException {
+		assertEquals(3, templateService.preloadTemplates());
+		assertEquals(3, templateService.templates.size());
+		assertEquals("Hallo !", templateService.templates.get("de" + File.separator + "parts" + File.separator +
+				"Greeting").asString());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReloadChangedTemplate() throws Exception {
+		templateService.preloadTemplates();
+		String name = "parts" + File.separator + "Greeting";
+		WebPartTemplate oldTemplate = templateService.getTemplate("en", name);
+
+		templateService.startWatching();
+		assertTrue(templateService.isWatching());
+		writeTemplate(ConfigDir.DEFAULT_DIR_NAME, "en/parts/Greeting", "Hi {$name}!");
+
+		// wait for the expected content, as a reload may also see the file while it is being written
+		long deadline = System.currentTimeMillis() + RELOAD_TIMEOUT;
+		while (!"Hi !".equals(templateService.getTemplate("en", name).asString()) &&
+				System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+
+		WebPartTemplate newTemplate = templateService.getTemplate("en", name);
+		assertNotSame(oldTemplate, newTemplate);
+		assertEquals("Hi !", newTemplate.asString());
+		assertEquals("Hello !", oldTemplate.asString());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEmptyFileKeepsTemplate() throws IOException {
+		String name = "parts" + File.separator + "Greeting";
+		WebPartTemplate oldTemplate = templateService.getTemplate("en", name);
+
+		Path file = writeTemplate(ConfigDir.DEFAULT_DIR_NAME, "en/parts/Greeting", "");
+		templateService.reloadTemplate(file);
+		assertSame(oldTemplate, templateService.getTemplate("en", name));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReloadWaitsUntilEventsSettle() throws IOException {
+		String name = "parts" + File.separator + "Greeting";
+		WebPartTemplate oldTemplate = templateService.getTemplate("en", name);
+		Path file = writeTemplate(ConfigDir.DEFAULT_DIR_NAME, "en/parts/Greeting", "Hi {$name}!");
+
+		Map<Path, Long> changedFiles = new LinkedHashMap<Path, Long>();
+		changedFiles.put(file, System.currentTimeMillis());
+		templateService.reloadSettledTemplates(changedFiles);
+		assertSame(oldTemplate, templateService.getTemplate("en", name));
+		assertEquals(1, changedFiles.size());
+
+		changedFiles.put(file, System.currentTimeMillis() - WebPartTemplateService.RELOAD_DELAY);
+		templateService.reloadSettledTemplates(changedFiles);
+		assertEquals("Hi !", templateService.getTemplate("en", name).asString());
+		assertTrue(changedFiles.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	protected Path writeTemplate(String dirName, String shortName, String source) throws IOException {
+		Path file = rootDir.resolve("templates").resolve(dirName).resolve(shortName + ".html");
+		Files.createDirectories(file.getParent());
+		Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+}
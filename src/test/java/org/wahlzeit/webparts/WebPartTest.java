@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test cases for the WebPart and WebPartTemplate classes.
+ */
+public class WebPartTest {
+
+	private WebPartTemplate template;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		template = new WebPartTemplate("test");
+		template.initialize("<p>{$greeting}, {$name}! Gr\u00fc\u00dfe an {$name}.</p>{$missing}");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCompiledTemplate() {
+		assertEquals("<p>, ! Gr\u00fc\u00dfe an .</p>", template.asString());
+		assertArrayEquals(new String[]{"greeting", "name", "name", "missing"}, template.getKeys());
+		assertArrayEquals(new int[]{3, 5, 16, 21}, template.getSlots());
+
+		assertEquals(3, template.getNoSlotKeys());
+		assertEquals(1, template.getSlotIndex("name"));
+		assertEquals("name", template.getSlotKey(1));
+		assertEquals(-1, template.getSlotIndex("unknown"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnclosedSlot() {
+		template.initialize("a{$b}c{$d");
+		assertArrayEquals(new String[]{"b"}, template.getKeys());
+		assertEquals("ac{$d", template.asString());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWriteOn() throws IOException {
+		WebPart part = new WebPart(template);
+		part.addString("greeting", "Hallo");
+		part.addString("name", "J\u00f6rg");
+		part.addString("other", "not in template");
+
+		String expected = "<p>Hallo, J\u00f6rg! Gr\u00fc\u00dfe an J\u00f6rg.</p>";
+
+		StringWriter writer = new StringWriter();
+		part.writeOn(writer);
+		assertEquals(expected, writer.toString());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		part.writeOn(out);
+		assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+		assertEquals("J\u00f6rg", part.getValue("name"));
+		assertEquals("not in template", part.getValue("other"));
+		assertNull(part.getValue("missing"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNestedWritables() throws IOException {
+		WebPartTemplate itemTemplate = new WebPartTemplate("item");
+		itemTemplate.initialize("[{$value}]");
+
+		WritableList list = new WritableList();
+		for (String value : new String[]{"1", "2"}) {
+			WebPart item = new WebPart(itemTemplate);
+			item.addString("value", value);
+			list.append(item);
+		}
+
+		WebPart part = new WebPart(template);
+		part.addWritable("name", list);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		part.writeOn(out);
+		assertEquals("<p>, [1][2]! Gr\u00fc\u00dfe an [1][2].</p>", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+}